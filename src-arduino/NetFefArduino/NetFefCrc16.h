@@ -0,0 +1,28 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+#ifndef NetFefCrc16_H
+#define NetFefCrc16_H
+
+#include <Arduino.h>
+
+#define NETFEF_CRC16_INITIAL 0xFFFF
+
+/**
+ * CRC-16 with the CCITT polynomial 0x1021, initial value 0xFFFF and no final xor, same as Crc16.java.
+ * The table is kept in flash. The CRC over a whole valid frame, including its CRC, is 0.
+ */
+class NetFefCrc16 {
+  public:
+    static uint16_t update(uint16_t crc, byte value);
+    static uint16_t calculate(const byte* bytes, unsigned int length);
+};
+
+#endif
@@ -10,6 +10,8 @@
  */
 
 #include "NetFefData.h"
+#include "NetFefLz.h"
+#include "NetFefCrc16.h"
 
 // ============================= ////////////////////////////////// ==================================
 
@@ -39,7 +41,7 @@ void NetFefStructBuilder::reset() {
 void NetFefFrameBuilder::reset(const byte* myAddress, const byte* targetAddress, char subject, char command) {
   this->_pos = 2; // -- Leave the first two bytes for the frame length.
 
-  this->_addByte(2);
+  this->_addByte(this->_crc16 ? (2 | NETFEF_CRC16_FLAG) : 2);
   this->_addByte(targetAddress[0]);
   this->_addByte(targetAddress[1]);
   
@@ -55,6 +57,17 @@ void NetFefFrameBuilder::reset(const byte* myAddress, const byte* targetAddress,
   this->setCommand(command);
 }
 
+/**
+ * The CRC-16 mode takes effect at the next reset.
+ */
+void NetFefFrameBuilder::setCrc16(boolean crc16) {
+  this->_crc16 = crc16;
+}
+
+unsigned int NetFefFrameBuilder::_checkLength() {
+  return this->_crc16 ? 2 : 1;
+}
+
 void NetFefFrameBuilder::setSubject(char subject) {
   this->addParameter('s', 'c', &subject);
 }
@@ -77,11 +90,18 @@ byte* NetFefFrameBuilder::getBytes() {
   // -- Write frame size to the topmost position
   int size = this->_pos;
   this->_pos = 0;
-  this->_addInt2(size+1);
+  this->_addInt2(size + this->_checkLength());
   this->_pos = size; // -- Reset cursor position to the end.
   
+  if(this->_crc16) {
+    if(this->hasSpace()) {
+      uint16_t crc = NetFefCrc16::calculate(this->_bytes, this->_pos);
+      this->_bytes[this->_pos] = crc >> 8;
+      this->_bytes[this->_pos + 1] = crc;
+    }
+  }
   // -- Calculate sum
-  if(this->hasSpace()) {
+  else if(this->hasSpace()) {
     byte sum = 0;
     for(int i = 0; i<this->_pos; i++) {
       sum += this->_bytes[i];
@@ -96,14 +116,14 @@ unsigned int NetFefStructBuilder::getLength() {
   return this->_pos;
 }
 unsigned int NetFefFrameBuilder::getLength() {
-  return this->_pos+1;
+  return this->_pos + this->_checkLength();
 }
 
 boolean NetFefStructBuilder::hasSpace() {
   return this->_pos < this->_buffSize;
 }
 boolean NetFefFrameBuilder::hasSpace() {
-  return (this->_pos+1) < this->_buffSize;
+  return (this->_pos + this->_checkLength()) < this->_buffSize;
 }
 
 boolean NetFefStructBuilder::addParameter(char parameterName, char parameterType, char* value) {
@@ -159,6 +179,14 @@ boolean NetFefStructBuilder::addParameter(char parameterName, char parameterType
     else if((parameterType == 'i') || (parameterType == 'I')) {
       success = this->_addInt2(value);
     }
+    else if(parameterType == 'v') {
+      success = this->_addVarint(value);
+    }
+    else if(parameterType == 'V') {
+      int16_t i = value; // -- Sign extend 16 bit values before zigzag encoding.
+      long l = i;
+      success = this->_addVarint((unsigned long)((l << 1) ^ (l >> 31)));
+    }
   }
 
   success = success && this->hasSpace();
@@ -182,6 +210,13 @@ boolean NetFefStructBuilder::addParameter(char parameterName, char parameterType
     if((parameterType == 'l') || (parameterType == 'L')) {
       success = this->_addInt4(value);
     }
+    else if(parameterType == 'v') {
+      success = this->_addVarint(value);
+    }
+    else if(parameterType == 'V') {
+      long l = value;
+      success = this->_addVarint((unsigned long)((l << 1) ^ (l >> 31)));
+    }
   }
 
   success = success && this->hasSpace();
@@ -195,7 +230,7 @@ boolean NetFefStructBuilder::addParameter(char parameterName, char parameterType
 }
 
 boolean NetFefStructBuilder::addParameter(char parameterName, char parameterType, long value) {
-  return this->addParameter(parameterName, 'L', (unsigned long)value);
+  return this->addParameter(parameterName, parameterType == 'V' ? 'V' : 'L', (unsigned long)value);
 }
 
 boolean NetFefStructBuilder::addParameter(char parameterName, NetFefStructBuilder* structBuilder) {
@@ -221,6 +256,40 @@ boolean NetFefStructBuilder::addParameter(char parameterName, NetFefStructBuilde
   return success;
 }
 
+boolean NetFefStructBuilder::addParameter(char parameterName, char parameterType, const byte* value, unsigned int length) {
+  unsigned int posSave = this->_pos;
+  if((parameterType == 'x') && (length > 0xFF)) {
+    parameterType = 'X';
+  }
+  boolean success = this->_addByte(parameterName) &&  this->_addByte(parameterType);
+  if(success) {
+    if(parameterType == 'x') {
+      success = this->_addByte(length);
+    }
+    else if(parameterType == 'X') {
+      success = this->_addInt2(length);
+    }
+    else {
+      success = false; // -- Unsupported type
+    }
+  }
+  if(success && (this->_pos+length) < this->_buffSize) {
+    memcpy(this->_bytes+this->_pos, value, length);
+    this->_pos += length;
+  } else {
+    success = false;
+  }
+
+  success = success && this->hasSpace();
+  if(success) {
+    this->_bytes[this->_paramCountPos] += 1;
+  } else {
+    this->_pos = posSave;
+  }
+
+  return success;
+}
+
 boolean NetFefStructBuilder::_addByte(byte value) {
   if((this->_pos+1) >= this->_buffSize) {
     return false;
@@ -238,6 +307,22 @@ boolean NetFefStructBuilder::_addInt2(unsigned int value) {
   return true;
 }
 
+boolean NetFefStructBuilder::_addVarint(unsigned long value) {
+  unsigned int posSave = this->_pos;
+  while(value >= 0x80) {
+    if(!this->_addByte((value & 0x7F) | 0x80)) {
+      this->_pos = posSave;
+      return false;
+    }
+    value >>= 7;
+  }
+  if(!this->_addByte(value)) {
+    this->_pos = posSave;
+    return false;
+  }
+  return true;
+}
+
 boolean NetFefStructBuilder::_addInt4(unsigned long value) {
   if((this->_pos+4) >= this->_buffSize) {
     return false;
@@ -285,7 +370,7 @@ if(this->_debug != NULL) this->_debug->print("%");
 void NetFefFrameReader::reset(byte* buffer) {
   NetFefStructReader::reset(buffer, 'T');
 if(this->_debug != NULL) this->_debug->print(this->length);
-  this->targetAddressLength = this->_bytes[2];
+  this->targetAddressLength = this->_bytes[2] & NETFEF_ADDRESS_LENGTH_MASK;
   this->sourceAddressLength = this->_bytes[3 + this->targetAddressLength];
   this->_paramCount = this->_bytes[4 + this->targetAddressLength + this->sourceAddressLength];
   this->_paramsPos = 5 + this->targetAddressLength + this->sourceAddressLength;
@@ -305,6 +390,10 @@ boolean NetFefFrameReader::isValid() {
   if(!this->_buffSize > this->length) {
     return false; // -- Cannot handle bigger frames than allocated buffers.
   }
+  if(this->isCrc16()) {
+    // -- The CRC of a valid frame including its CRC is 0.
+    return 0 == NetFefCrc16::calculate(this->_bytes, this->length);
+  }
   // -- Check sum
   byte sum = 0;
   for(int i=0; i<this->length-1; i++) {
@@ -313,6 +402,10 @@ boolean NetFefFrameReader::isValid() {
   return sum == this->_bytes[this->length-1];
 }
 
+boolean NetFefFrameReader::isCrc16() {
+  return (this->_bytes[2] & NETFEF_CRC16_FLAG) != 0;
+}
+
 byte* NetFefFrameReader::getSenderAddress() {
   return (this->_bytes + (4 + this->targetAddressLength));
 }
@@ -433,6 +526,9 @@ int NetFefParameter::calculateSpace() {
   else if(this->isType('l') || this->isType('L')) {
     return 6;
   }
+  else if(this->isType('v') || this->isType('V')) {
+    return 2 + NetFefParameter::getVarintLength(this->_pp+2);
+  }
   else if(this->isType('s')) {
     return 3 + this->_pp[2];
   }
@@ -445,6 +541,15 @@ int NetFefParameter::calculateSpace() {
   else if(this->isType('T')) {
     return 4 + NetFefStructReader::getInt(this->_pp+2);
   }
+  else if(this->isType('x')) {
+    return 3 + this->_pp[2];
+  }
+  else if(this->isType('X')) {
+    return 4 + NetFefStructReader::getInt(this->_pp+2);
+  }
+  else if(this->isType('z')) {
+    return 4 + NetFefStructReader::getInt(this->_pp+2);
+  }
 
   return -1; // -- Unsupported type
 }
@@ -488,8 +593,26 @@ long NetFefParameter::getLongValue() {
   if(this->isType('l') || this->isType('L')) {
     return (long)this->_pp[2] << 24 | (long)this->_pp[3]<<16 | (long)this->_pp[4]<<8 | (long)this->_pp[5];
   }
+  else if(this->isType('v') || this->isType('V')) {
+    unsigned long value = 0;
+    int len = NetFefParameter::getVarintLength(this->_pp+2);
+    for(int i = 0; i < len; i++) {
+      value |= (unsigned long)(this->_pp[2+i] & 0x7F) << (7*i);
+    }
+    if(this->isType('V')) {
+      return (long)(value >> 1) ^ -(long)(value & 1);
+    }
+    return value;
+  }
   return 0; // -- Unsupported type
 }
+int NetFefParameter::getVarintLength(byte* position) {
+  int len = 1;
+  while((len < 5) && (position[len-1] & 0x80)) {
+    len += 1;
+  }
+  return len;
+}
 char NetFefParameter::getCharValue() {
   if(this->isType('c')) {
     return this->_pp[2];
@@ -505,6 +628,48 @@ char* NetFefParameter::getStringValue() {
   }
   return 0; // -- Unsupported type
 }
+byte* NetFefParameter::getBlobValue() {
+  if(this->isType('x')) {
+    return this->_pp + 3;
+  }
+  else if(this->isType('X')) {
+    return this->_pp + 4;
+  }
+  return 0; // -- Unsupported type
+}
+unsigned int NetFefParameter::getBlobLength() {
+  if(this->isType('x')) {
+    return this->_pp[2];
+  }
+  else if(this->isType('X')) {
+    return NetFefStructReader::getInt(this->_pp+2);
+  }
+  return 0; // -- Unsupported type
+}
+unsigned int NetFefParameter::getUncompressedLength() {
+  if(this->isType('z')) {
+    return NetFefStructReader::getInt(this->_pp+4);
+  }
+  return 0; // -- Unsupported type
+}
+/**
+ * Decompress a 'z' parameter into the buffer, that needs getUncompressedLength()+1 bytes.
+ * Returns the original parameter in the buffer (reset a NetFefParameter to it), or 0 on failure.
+ */
+byte* NetFefParameter::expandCompressed(byte* buffer, unsigned int buffSize) {
+  if(!this->isType('z')) {
+    return 0; // -- Unsupported type
+  }
+  unsigned int rawLength = this->getUncompressedLength();
+  if(rawLength + 1 > buffSize) {
+    return 0;
+  }
+  buffer[0] = this->_pp[0];
+  if(!NetFefLz::decompress(this->_pp + 6, NetFefStructReader::getInt(this->_pp+2) - 2, buffer + 1, rawLength)) {
+    return 0;
+  }
+  return buffer;
+}
 NetFefStructReader* NetFefParameter::getStructValue(NetFefStructReader* structReader) {
   byte* valueStart;
   /*
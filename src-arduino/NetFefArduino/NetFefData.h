@@ -15,6 +15,15 @@
 
 #define NETFEF_DATA_VERSION "0"
 
+// -- Feature bits advertised in the 'f' parameter of the join reply.
+#define NETFEF_FEATURE_COMPRESSION 0x01
+#define NETFEF_FEATURE_ENVELOPE 0x04
+#define NETFEF_FEATURE_CRC16 0x08
+
+// -- Set in the target address length byte, when the frame ends with a CRC-16 instead of the additive sum.
+#define NETFEF_CRC16_FLAG 0x80
+#define NETFEF_ADDRESS_LENGTH_MASK 0x7F
+
 const byte BROADCAST_ADDRESS[2] = { 0x00, 0x00 };
 const byte MASTER_ADDRESS[2] = { 0x00, 0x01 };
 
@@ -30,6 +39,7 @@ class NetFefStructBuilder {
     boolean addParameter(char parameterName, char parameterType, unsigned long value);
     boolean addParameter(char parameterName, char parameterType, long value);
     boolean addParameter(char parameterName, NetFefStructBuilder* structBuilder);
+    boolean addParameter(char parameterName, char parameterType, const byte* value, unsigned int length);
     byte* getBytes();
     unsigned int getLength();
     Print* _debug = NULL;
@@ -43,6 +53,7 @@ class NetFefStructBuilder {
     boolean _addByte(byte value);
     boolean _addInt2(unsigned int value);
     boolean _addInt4(unsigned long value);
+    boolean _addVarint(unsigned long value);
 };
 
 class NetFefFrameBuilder : public NetFefStructBuilder {
@@ -55,8 +66,11 @@ class NetFefFrameBuilder : public NetFefStructBuilder {
     boolean hasSpace();
     void setSubject(char subject);
     void setCommand(char command);
+    void setCrc16(boolean crc16);
 
   private:
+    boolean _crc16 = false;
+    unsigned int _checkLength();
 };
 
 class NetFefStructReader;
@@ -74,8 +88,13 @@ class NetFefParameter {
     int getSignedIntValue();
     unsigned int getIntValue();
     long getLongValue(); // -- We do not have getULongValue method, since long is always 32bits, so you can just cast to unsigned long.
+    static int getVarintLength(byte* position);
     char getCharValue();
     char* getStringValue();
+    byte* getBlobValue();
+    unsigned int getBlobLength();
+    unsigned int getUncompressedLength();
+    byte* expandCompressed(byte* buffer, unsigned int buffSize);
     NetFefStructReader* getStructValue(NetFefStructReader* structReader);
     Print* _debug = NULL;
 
@@ -113,6 +132,7 @@ class NetFefFrameReader : public NetFefStructReader {
     void reset(byte* buffer);
     boolean isForMe(const byte* myAddress);
     boolean isValid();
+    boolean isCrc16();
     byte* getSenderAddress();
     byte* getSubject();
     byte* getCommand();
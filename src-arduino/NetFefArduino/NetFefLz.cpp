@@ -0,0 +1,101 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+#include "NetFefLz.h"
+
+#define NETFEF_LZ_HASH_SIZE 64
+#define NETFEF_LZ_NO_POSITION 0xFFFF
+
+static uint8_t _hash(const uint8_t* p) {
+  return (uint8_t)((p[0] * 33 + p[1]) * 33 + p[2]) & (NETFEF_LZ_HASH_SIZE - 1);
+}
+
+int NetFefLz::compress(const uint8_t* src, unsigned int length, uint8_t* dst, unsigned int maxLength) {
+  uint16_t head[NETFEF_LZ_HASH_SIZE];
+  for(int i = 0; i < NETFEF_LZ_HASH_SIZE; i++) {
+    head[i] = NETFEF_LZ_NO_POSITION;
+  }
+  int op = 0;
+  unsigned int ip = 0;
+  unsigned int literalStart = 0;
+  while(ip + NETFEF_LZ_MIN_MATCH <= length) {
+    uint8_t h = _hash(src + ip);
+    unsigned int candidate = head[h];
+    head[h] = ip;
+    if((candidate != NETFEF_LZ_NO_POSITION) && (ip - candidate <= NETFEF_LZ_WINDOW)
+      && (src[candidate] == src[ip]) && (src[candidate+1] == src[ip+1]) && (src[candidate+2] == src[ip+2])) {
+      unsigned int matchLength = NETFEF_LZ_MIN_MATCH;
+      while((ip + matchLength < length) && (matchLength < NETFEF_LZ_MAX_MATCH) && (src[candidate + matchLength] == src[ip + matchLength])) {
+        matchLength += 1;
+      }
+      op = NetFefLz::_writeLiterals(src + literalStart, src + ip, dst, op, maxLength);
+      if((op < 0) || ((unsigned int)op + 2 > maxLength)) {
+        return -1;
+      }
+      dst[op++] = 0x80 | (matchLength - NETFEF_LZ_MIN_MATCH);
+      dst[op++] = ip - candidate - 1;
+      ip += matchLength;
+      literalStart = ip;
+    } else {
+      ip += 1;
+    }
+  }
+  return NetFefLz::_writeLiterals(src + literalStart, src + length, dst, op, maxLength);
+}
+
+int NetFefLz::_writeLiterals(const uint8_t* from, const uint8_t* to, uint8_t* dst, int op, unsigned int maxLength) {
+  while(from < to) {
+    unsigned int n = to - from;
+    if(n > NETFEF_LZ_MAX_LITERALS) {
+      n = NETFEF_LZ_MAX_LITERALS;
+    }
+    if(op + 1 + n > maxLength) {
+      return -1;
+    }
+    dst[op++] = n - 1;
+    for(unsigned int i = 0; i < n; i++) {
+      dst[op++] = *from++;
+    }
+  }
+  return op;
+}
+
+bool NetFefLz::decompress(const uint8_t* src, unsigned int length, uint8_t* dst, unsigned int rawLength) {
+  unsigned int ip = 0;
+  unsigned int op = 0;
+  while(ip < length) {
+    uint8_t token = src[ip++];
+    if(token < 0x80) {
+      unsigned int n = token + 1;
+      if((ip + n > length) || (op + n > rawLength)) {
+        return false;
+      }
+      for(unsigned int i = 0; i < n; i++) {
+        dst[op++] = src[ip++];
+      }
+    } else {
+      if(ip >= length) {
+        return false;
+      }
+      unsigned int n = (token & 0x7F) + NETFEF_LZ_MIN_MATCH;
+      unsigned int distance = src[ip++] + 1;
+      if((distance > op) || (op + n > rawLength)) {
+        return false;
+      }
+      // -- Byte by byte, as the copy may overlap the bytes being written.
+      for(unsigned int i = 0; i < n; i++) {
+        dst[op] = dst[op - distance];
+        op += 1;
+      }
+    }
+  }
+  return op == rawLength;
+}
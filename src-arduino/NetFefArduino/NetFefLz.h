@@ -0,0 +1,43 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+#ifndef NetFefLz_H
+#define NetFefLz_H
+
+// -- No Arduino dependency, so it can be built and tested on the host as well.
+#include <stdint.h>
+
+#define NETFEF_LZ_MIN_MATCH 3
+#define NETFEF_LZ_MAX_MATCH (0x7F + NETFEF_LZ_MIN_MATCH)
+#define NETFEF_LZ_MAX_LITERALS 0x80
+#define NETFEF_LZ_WINDOW 0x100
+
+/**
+ * Compression of the 'z' parameters, same format as LzCompression.java:
+ *  0nnnnnnn          - n+1 literal bytes follow,
+ *  1nnnnnnn dddddddd - copy n+3 bytes from d+1 bytes back in the output.
+ */
+class NetFefLz {
+  public:
+    /**
+     * Returns the length of the compressed data, or -1 if it does not fit into maxLength.
+     * Uses a small hash table on the stack, so the ratio is somewhat worse than of the Java encoder.
+     */
+    static int compress(const uint8_t* src, unsigned int length, uint8_t* dst, unsigned int maxLength);
+    /**
+     * Returns false if the compressed data is corrupt, or does not expand to exactly rawLength bytes.
+     */
+    static bool decompress(const uint8_t* src, unsigned int length, uint8_t* dst, unsigned int rawLength);
+
+  private:
+    static int _writeLiterals(const uint8_t* from, const uint8_t* to, uint8_t* dst, int op, unsigned int maxLength);
+};
+
+#endif
@@ -38,6 +38,7 @@ NetFefObsidian::NetFefObsidian(INetFefPhysicalLayer* physicalLayer, NetFefFrameB
 
   this->_frameBuilder.init(this->_outDataBuffer, this->_commDataFrameLength);
   this->_frameReader.init(this->_commDataFrameLength);
+  this->_envelopeReader.init(this->_commDataFrameLength);
 
 }
 
@@ -89,98 +90,121 @@ if(me->_debug != NULL) me->_debug->print("|");
 //if(me->_debug != NULL) me->_debug->print("Rcv");
     byte* data = me->_physicalLayer->readFrame();
 //if(me->_debug != NULL) me->_debug->print("Rd");
-    NetFefFrameReader* frameReader = &me->_frameReader;
-    frameReader->reset(data);
+    me->_processFrame(data, now, true);
+  } // -- data available
+}
+
+void NetFefObsidian::_processFrame(byte* data, unsigned long now, boolean envelopeAllowed) {
+  NetFefObsidian* me = this;
+  NetFefFrameReader* frameReader = &me->_frameReader;
+  frameReader->reset(data);
 //if(me->_debug != NULL) me->_debug->print("Rst");
-    if(frameReader->isForMe(me->_registrationInfo->myAddress)) {
-      
+  if(frameReader->isForMe(me->_registrationInfo->myAddress)) {
+    if(envelopeAllowed && frameReader->isSubjectAndCommand('n', 'e')) {
+      // -- Envelope: the packed frames are processed one by one, each has its own target address.
+      NetFefFrameReader* envelopeReader = &me->_envelopeReader;
+      envelopeReader->reset(data);
+      byte* packed = envelopeReader->getParameter('e');
+      while(packed != 0) {
+        me->_envelopeParameter.reset(packed);
+        byte* packedFrame = me->_envelopeParameter.getBlobValue();
+        if(packedFrame != 0) {
+          me->_processFrame(packedFrame, now, false);
+        }
+        packed = envelopeReader->getParameter('e', packed);
+      }
+      return;
+    }
+    
 //if(me->_debug != NULL) me->_debug->print(" for me ");
-      NetFefParameter* parameter = &(me->_parameter);
-      byte* paramPointer = frameReader->getSubject();
-      if(paramPointer == 0) {
+    NetFefParameter* parameter = &(me->_parameter);
+    byte* paramPointer = frameReader->getSubject();
+    if(paramPointer == 0) {
 if(me->_debug != NULL) me->_debug->print("##");
 return;
-      }
-      parameter->reset(paramPointer);
+    }
+    parameter->reset(paramPointer);
 
-      if(parameter->isType('c') && (parameter->getCharValue() == 'n')) {
+    if(parameter->isType('c') && (parameter->getCharValue() == 'n')) {
 //if(me->_debug != NULL) me->_debug->print("n ");
-        // -- Network management frame
-        parameter->reset(frameReader->getCommand());
-        if(!me->joinedToNetwork && parameter->isType('c') && (parameter->getCharValue() == 'j')) {
+      // -- Network management frame
+      parameter->reset(frameReader->getCommand());
+      if(!me->joinedToNetwork && parameter->isType('c') && (parameter->getCharValue() == 'j')) {
 //if(me->_debug != NULL) me->_debug->print(" j");
-          // -- Join start
-          parameter->reset(frameReader->getParameter('n'));
-          unsigned long networkId = parameter->getLongValue();
-          if(me->_registrationInfo->networkId != networkId) {
-            me->_registrationInfo->networkId = networkId;
-            me->_generateAddress();
-          }
-          parameter->reset(frameReader->getParameter('w'));
-          me->_joinStart = now;
-          me->_joinDelay = random(parameter->getIntValue()*1000);
+        // -- Join start
+        parameter->reset(frameReader->getParameter('n'));
+        unsigned long networkId = parameter->getLongValue();
+        if(me->_registrationInfo->networkId != networkId) {
+          me->_registrationInfo->networkId = networkId;
+          me->_generateAddress();
         }
-        else if(!me->joinedToNetwork && parameter->isType('c') && (parameter->getCharValue() == 'J')) {
+        parameter->reset(frameReader->getParameter('w'));
+        me->_joinStart = now;
+        me->_joinDelay = random(parameter->getIntValue()*1000);
+      }
+      else if(!me->joinedToNetwork && parameter->isType('c') && (parameter->getCharValue() == 'J')) {
 //if(me->_debug != NULL) me->_debug->print("J ");
-          // -- Join request from master
-          parameter->reset(frameReader->getParameter('i'));
-          if(parameter->getLongValue() == me->_registrationInfo->registrationId) {
-            parameter->reset(frameReader->getParameter('d'));
-            if(parameter->getCharValue() == 'a') {
-              me->joinedToNetwork = true;
-              me->_lastPollTime = now;
-              NetFefFrameBuilder* frameBuilder = me->prepareReply(frameReader);
-              frameBuilder->addParameter('d', 's', me->_deviceId);
-              frameBuilder->addParameter('v', 's', me->_versionString);
-              frameBuilder->addParameter('n', 'i', me->_pollMeInterval);
-              if(me->_physicalLayer->canSend()) {
-                me->_physicalLayer->addDataToQueue(frameBuilder);
-                me->_saveRegistrationInfo(me->_registrationInfo);
-              } else {
-if(me->_debug != NULL) me->_debug->print("#%");
-              }
+        // -- Join request from master
+        parameter->reset(frameReader->getParameter('i'));
+        if(parameter->getLongValue() == me->_registrationInfo->registrationId) {
+          parameter->reset(frameReader->getParameter('d'));
+          if(parameter->getCharValue() == 'a') {
+            me->joinedToNetwork = true;
+            me->_lastPollTime = now;
+            NetFefFrameBuilder* frameBuilder = me->prepareReply(frameReader);
+            frameBuilder->addParameter('d', 's', me->_deviceId);
+            frameBuilder->addParameter('v', 's', me->_versionString);
+            frameBuilder->addParameter('n', 'i', me->_pollMeInterval);
+            frameBuilder->addParameter('f', 'b', (unsigned int)NETFEF_FEATURES);
+            // -- Longer frames are dropped by us, the master should not send them.
+            frameBuilder->addParameter('m', 'i', (unsigned int)COMM_DATA_FRAME_LENGTH);
+            if(me->_physicalLayer->canSend()) {
+              me->_physicalLayer->addDataToQueue(frameBuilder);
+              me->_saveRegistrationInfo(me->_registrationInfo);
             } else {
-              // -- Declined this address (and try again next time)
-              me->_generateAddress();
+if(me->_debug != NULL) me->_debug->print("#%");
             }
           } else {
+            // -- Declined this address (and try again next time)
+            me->_generateAddress();
+          }
+        } else {
 if(me->_debug != NULL) me->_debug->print("mm");
 if(me->_debug != NULL) me->_debug->print(parameter->getLongValue());
 if(me->_debug != NULL) me->_debug->print("vs");
 if(me->_debug != NULL) me->_debug->print(me->_registrationInfo->registrationId);
-          }
         }
-        else if(me->joinedToNetwork && parameter->isType('c') && (parameter->getCharValue() == 'p')) {
-          // -- Notify device about poll frame
-          me->_lastPollTime = now;
+      }
+      else if(me->joinedToNetwork && parameter->isType('c') && (parameter->getCharValue() == 'p')) {
+        // -- Notify device about poll frame
+        me->_lastPollTime = now;
 if(me->_debug != NULL) me->_debug->print("*");
-          NetFefFrameBuilder* frameBuilder = me->_frameReceivedListener(frameReader, me->prepareReply(frameReader));
-          frameBuilder->addParameter('n', 'i', me->_pollMeInterval);
-          if(me->_physicalLayer->canSend()) {
-            me->_physicalLayer->addDataToQueue(frameBuilder);
-          }
-        }
-        else if(me->joinedToNetwork && parameter->isType('c') && (parameter->getCharValue() == 'r')) {
-          // -- Reset message
-          me->_lastPollTime = now;
-          me->joinedToNetwork = false;
-          me->_joinStart = 0;
+        NetFefFrameBuilder* frameBuilder = me->_frameReceivedListener(frameReader, me->prepareReply(frameReader));
+        frameBuilder->addParameter('n', 'i', me->_pollMeInterval);
+        if(me->_physicalLayer->canSend()) {
+          me->_physicalLayer->addDataToQueue(frameBuilder);
         }
-      } else {
+      }
+      else if(me->joinedToNetwork && parameter->isType('c') && (parameter->getCharValue() == 'r')) {
+        // -- Reset message
+        me->_lastPollTime = now;
+        me->joinedToNetwork = false;
+        me->_joinStart = 0;
+      }
+    } else {
 //if(me->_debug != NULL) me->_debug->print("call");
-        // -- Notify device about frame
-        NetFefFrameBuilder* frameBuilder = me->_frameReceivedListener(frameReader, me->prepareReply(frameReader));
-        if(frameBuilder != 0) {
-          if(me->_physicalLayer->canSend()) {
-            me->_physicalLayer->addDataToQueue(frameBuilder);
-          }
+      // -- Notify device about frame
+      NetFefFrameBuilder* frameBuilder = me->_frameReceivedListener(frameReader, me->prepareReply(frameReader));
+      if(frameBuilder != 0) {
+        if(me->_physicalLayer->canSend()) {
+          me->_physicalLayer->addDataToQueue(frameBuilder);
         }
       }
-    } // -- isFor me
-    else {
-if(me->_debug != NULL) me->_debug->print("-");
     }
-  } // -- data available
+  } // -- isFor me
+  else {
+if(me->_debug != NULL) me->_debug->print("-");
+  }
 }
 
 boolean NetFefObsidian::timePassed(unsigned long now, unsigned long start, unsigned long diff) {
@@ -207,6 +231,8 @@ NetFefFrameBuilder* NetFefObsidian::prepareReply(NetFefFrameReader* frameReader)
   this->_parameter.reset(resetParameterPointer);
   char command = this->_parameter.isType('c') ? this->_parameter.getCharValue() : 'p';
 
+  // -- Reply with the integrity check the master used, later frames of our own follow it as well.
+  this->_frameBuilder.setCrc16(((NETFEF_FEATURES & NETFEF_FEATURE_CRC16) != 0) && frameReader->isCrc16());
   this->_frameBuilder.reset(this->_registrationInfo->myAddress, MASTER_ADDRESS, subject, command);
   resetParameterPointer = frameReader->getParameter('r');
   if(resetParameterPointer != 0) {
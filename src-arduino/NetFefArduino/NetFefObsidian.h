@@ -19,6 +19,12 @@
   #define COMM_DATA_FRAME_LENGTH 80
 #endif // -- COMM_DATA_FRAME_LENGTH
 
+#ifndef NETFEF_FEATURES
+  // -- Compressed parameters are not expanded before reaching the sketch, so compression is opt-in: add
+  // -- NETFEF_FEATURE_COMPRESSION only if the sketch expands 'z' parameters with NetFefParameter::expandCompressed().
+  #define NETFEF_FEATURES (NETFEF_FEATURE_ENVELOPE | NETFEF_FEATURE_CRC16)
+#endif // -- NETFEF_FEATURES
+
 #define NEXT_POLL_MAX_SECS 5*60
 #define JOIN_DROP_TIMEOUT 2L*NEXT_POLL_MAX_SECS
 
@@ -38,6 +44,7 @@ class NetFefObsidian : public Task, public INetFefNetwork
 
   private:
     static void step(Task* me);
+    void _processFrame(byte* data, unsigned long now, boolean envelopeAllowed);
     INetFefPhysicalLayer* _physicalLayer;
     NetFefFrameBuilder* (*_frameReceivedListener)(NetFefFrameReader* frameReader, NetFefFrameBuilder* frameBuilder);
     RegistrationInfo* (*_loadRegistrationInfo)();
@@ -53,6 +60,8 @@ class NetFefObsidian : public Task, public INetFefNetwork
     NetFefFrameBuilder _frameBuilder = NetFefFrameBuilder();
     NetFefFrameReader _frameReader = NetFefFrameReader();
     NetFefParameter _parameter = NetFefParameter();
+    NetFefFrameReader _envelopeReader = NetFefFrameReader();
+    NetFefParameter _envelopeParameter = NetFefParameter();
     char* _deviceId;
     unsigned int _pollMeInterval;
     char _versionString[10];
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.data;
+
+/**
+ * <p>Representative frames for the benchmarks.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/23/15</p>
+ */
+public class BenchmarkFrames {
+    public static final byte[] PEER_ADDRESS = new byte[]{0x12, (byte)0xAB};
+    public static final int MAX_LEN = 2048;
+
+    /**
+     * @param kind One of poll, joinReply, schedule, dump.
+     */
+    public static Frame build(String kind) {
+        switch (kind) {
+            case "poll":
+                return poll();
+            case "joinReply":
+                return joinReply();
+            case "schedule":
+                return schedule();
+            case "dump":
+                return dump();
+            default:
+                throw new IllegalArgumentException("Unknown frame kind: " + kind);
+        }
+    }
+
+    /**
+     * Poll of the master, the most frequent frame on the bus.
+     */
+    public static Frame poll() {
+        Frame frame = new Frame(PEER_ADDRESS, 'n', 'p');
+        frame.addParameter(new Parameter('r', ParameterType.INTEGER, 54321));
+        frame.setSenderAddress(NetFefDataHelper.MASTER_ADDRESS);
+        return frame;
+    }
+
+    public static Frame joinReply() {
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'n', 'J');
+        frame.addParameter(new Parameter('R', ParameterType.INTEGER, 54321));
+        frame.addParameter(new Parameter('d', ParameterType.STRING1, "Garden irrigation controller"));
+        frame.addParameter(new Parameter('v', ParameterType.STRING1, "0/0/O0"));
+        frame.addParameter(new Parameter('n', ParameterType.INTEGER, 60));
+        frame.addParameter(new Parameter('f', ParameterType.BYTE, 0x0F));
+        frame.addParameter(new Parameter('m', ParameterType.INTEGER, 1024));
+        frame.setSenderAddress(PEER_ADDRESS);
+        return frame;
+    }
+
+    /**
+     * Weekly schedule of 14 entries, each entry being a nested STRUCT1.
+     */
+    public static Frame schedule() {
+        Frame frame = new Frame(PEER_ADDRESS, 't', 'S');
+        Struct entries = new Struct();
+        for (int i = 0; i < 14; i++) {
+            Struct entry = new Struct();
+            entry.addParameter(new Parameter('w', ParameterType.BYTE, i / 2));
+            entry.addParameter(new Parameter('h', ParameterType.BYTE, 6 + (i % 2) * 12));
+            entry.addParameter(new Parameter('m', ParameterType.BYTE, 30));
+            entry.addParameter(new Parameter('d', ParameterType.INTEGER, 900));
+            Parameter enabled = new Parameter('a', ParameterType.BOOLEAN);
+            enabled.setValue(true);
+            entry.addParameter(enabled);
+            entries.addParameter(new Parameter('i', ParameterType.STRUCT1, entry));
+        }
+        frame.addParameter(new Parameter('e', ParameterType.STRUCT2, entries));
+        frame.addParameter(new Parameter('r', ParameterType.INTEGER, 54321));
+        frame.setSenderAddress(NetFefDataHelper.MASTER_ADDRESS);
+        return frame;
+    }
+
+    /**
+     * Log dump of 1 KB text.
+     */
+    public static Frame dump() {
+        StringBuilder sb = new StringBuilder();
+        int line = 0;
+        while(sb.length() < 1024) {
+            sb.append("00:").append(line % 60 < 10 ? "0" : "").append(line % 60).append(" valve ").append(line % 4).append(line % 3 == 0 ? " open\n" : " closed\n");
+            line += 1;
+        }
+        sb.setLength(1024);
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'l', 'd');
+        frame.addParameter(new Parameter('R', ParameterType.INTEGER, 54321));
+        frame.addParameter(new Parameter('d', ParameterType.STRING2, sb.toString()));
+        frame.setSenderAddress(PEER_ADDRESS);
+        return frame;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.data;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Runs the codec benchmarks with the GC profiler, reporting the allocated bytes per operation
+ * (gc.alloc.rate.norm) next to the throughput.</p>
+ * <p>Usage: BenchmarkRunner [benchmark name regexp]</p>
+ * <p>JMH and its dependencies are in dependencies/bench. Compile src and src-bench together with those jars on the
+ * classpath, the JMH annotation processor generates the benchmark classes on the way.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/23/15</p>
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "com\\.netfef\\.data\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
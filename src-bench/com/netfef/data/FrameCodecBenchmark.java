@@ -0,0 +1,82 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.data;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Encoding and decoding whole frames.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/23/15</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameCodecBenchmark {
+
+    @Param({"poll", "joinReply", "schedule", "dump"})
+    public String kind;
+
+    private Frame frame;
+    private byte[] bytes;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final byte[] buffer = new byte[BenchmarkFrames.MAX_LEN];
+
+    @Setup
+    public void setup() {
+        frame = BenchmarkFrames.build(kind);
+        bytes = NetFefDataHelper.buildFrameBytes(frame, null);
+    }
+
+    @Benchmark
+    public byte[] buildFrameBytes() {
+        return NetFefDataHelper.buildFrameBytes(frame, null);
+    }
+
+    /**
+     * Reused encoder writing into a reused buffer, as the physical layers do.
+     */
+    @Benchmark
+    public int encodeIntoBuffer() {
+        return encoder.encode(frame, null, buffer, 0, buffer.length);
+    }
+
+    @Benchmark
+    public Frame buildFrameObject() {
+        return NetFefDataHelper.buildFrameObject(bytes, BenchmarkFrames.MAX_LEN, null);
+    }
+
+    /**
+     * Validating and reading one value in place, without materializing the frame.
+     */
+    @Benchmark
+    public int buildFrameView() {
+        FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, BenchmarkFrames.MAX_LEN, null);
+        return view.getCommand();
+    }
+
+    @Benchmark
+    public void streamParser(Blackhole blackhole) {
+        FrameStreamParser parser = new FrameStreamParser(BenchmarkFrames.MAX_LEN, null, blackhole::consume);
+        parser.push(bytes);
+    }
+
+    @Benchmark
+    public String frameToString() {
+        return frame.toString();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Byte level primitives and parameter lookups the codec is built of.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/23/15</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitivesBenchmark {
+
+    private final ByteArrayBuilder builder = new ByteArrayBuilder();
+    private final ByteArrayBuilder pooledBuilder = new ByteArrayBuilder(new BufferPool(BenchmarkFrames.MAX_LEN, 2));
+    private byte[] numbers;
+    private Frame joinReply;
+    private Frame schedule;
+
+    @Setup
+    public void setup() {
+        ByteArrayBuilder bab = new ByteArrayBuilder();
+        for (int i = 0; i < 16; i++) {
+            bab.append2(i * 1000);
+            bab.append4(i * 100000L);
+            bab.appendVarint(i * 300);
+        }
+        numbers = bab.getBytes();
+        joinReply = BenchmarkFrames.joinReply();
+        schedule = BenchmarkFrames.schedule();
+    }
+
+    @Benchmark
+    public byte[] builderAppend() {
+        builder.clear();
+        return appendNumbers(builder).getBytes();
+    }
+
+    @Benchmark
+    public byte[] pooledBuilderAppend() {
+        pooledBuilder.clear();
+        return appendNumbers(pooledBuilder).getBytes();
+    }
+
+    private static ByteArrayBuilder appendNumbers(ByteArrayBuilder bab) {
+        for (int i = 0; i < 16; i++) {
+            bab.append2(i * 1000);
+            bab.append4(i * 100000L);
+            bab.appendVarint(i * 300);
+        }
+        return bab;
+    }
+
+    @Benchmark
+    public long readerRead() {
+        ByteArrayReader reader = new ByteArrayReader(numbers);
+        long sum = 0;
+        for (int i = 0; i < 16; i++) {
+            sum += reader.readInt2();
+            sum += reader.readInt4();
+            sum += reader.readVarint();
+        }
+        return sum;
+    }
+
+    /**
+     * Lookup of the last parameter, found through the parameter name index of the struct.
+     */
+    @Benchmark
+    public Parameter structLookup() {
+        return joinReply.getParameter('m');
+    }
+
+    @Benchmark
+    public int nestedStructLookup() {
+        Struct entries = schedule.getParameter('e').getStructValue();
+        int total = 0;
+        for (Parameter entry : entries.getParameterList('i')) {
+            total += entry.getStructValue().getParameter('d').getIntValue();
+        }
+        return total;
+    }
+}
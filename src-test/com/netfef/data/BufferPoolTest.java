@@ -0,0 +1,73 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Test methods for the buffer pool.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/22/15</p>
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void sizeClasses() {
+        BufferPool pool = new BufferPool(1000, 2);
+        Assert.assertEquals(1024, pool.getMaxBufferLength());
+        byte[] small = pool.acquire(3);
+        Assert.assertEquals(BufferPool.MIN_BUFFER_LENGTH, small.length);
+        byte[] medium = pool.acquire(100);
+        Assert.assertEquals(128, medium.length);
+        Assert.assertEquals(2000, pool.acquire(2000).length);
+        Assert.assertEquals(3, pool.getMisses());
+
+        pool.release(medium);
+        Assert.assertSame(medium, pool.acquire(65));
+        Assert.assertEquals(1, pool.getHits());
+        Assert.assertEquals(3, pool.getOutstanding());
+    }
+
+    @Test
+    public void builderReusesArrays() {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteArrayBuilder bab = new ByteArrayBuilder(pool);
+        for (int i = 0; i < 100; i++) {
+            bab.append1(i);
+        }
+        bab.clear();
+        bab.append2(0x1234);
+        Assert.assertArrayEquals(new byte[]{0x12, 0x34}, bab.getBytes());
+        bab.release();
+        Assert.assertEquals(0, pool.getOutstanding());
+
+        ByteArrayBuilder other = new ByteArrayBuilder(pool);
+        Assert.assertEquals(1, pool.getHits());
+        other.release();
+    }
+
+    @Test
+    public void leakDetection() {
+        BufferPool pool = new BufferPool(1024, 2);
+        pool.setLeakDetection(true);
+        byte[] buffer = pool.acquire(20);
+        pool.acquire(20);
+        pool.release(buffer);
+        Assert.assertEquals(1, pool.reportLeaks());
+        try {
+            pool.release(buffer);
+            Assert.fail("Double release should be detected");
+        } catch (IllegalStateException e) {
+            // -- Expected
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Test methods for the schema based codec.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/15/15</p>
+ */
+public class FrameCodecTest {
+
+    public static final byte[] TARGET_ADDRESS = new byte[]{0x12, (byte)0xAB};
+
+    @FrameSchema(subject = 'p', command = 's')
+    static class Schedule {
+        @FrameField(name = 'i', type = ParameterType.BYTE)
+        int index;
+        @FrameField(name = 'd', type = ParameterType.STRING1)
+        String description;
+        @FrameField(name = 'a', type = ParameterType.SIGNED_LONG)
+        long adjust;
+        @FrameField(name = 'e', type = ParameterType.BOOLEAN)
+        boolean enabled;
+        @FrameField(name = 'm', type = ParameterType.CHAR)
+        char mode;
+        @FrameField(name = 'p', type = ParameterType.STRUCT1)
+        Period[] periods;
+    }
+
+    static class Period {
+        @FrameField(name = 'f', type = ParameterType.INTEGER)
+        int from;
+        @FrameField(name = 'u', type = ParameterType.INTEGER)
+        int until;
+        @FrameField(name = 't', type = ParameterType.SIGNED_INTEGER)
+        int temperature;
+
+        Period() {
+        }
+
+        Period(int from, int until, int temperature) {
+            this.from = from;
+            this.until = until;
+            this.temperature = temperature;
+        }
+    }
+
+    private static Schedule createSchedule() {
+        Schedule schedule = new Schedule();
+        schedule.index = 3;
+        schedule.description = "Weekdays";
+        schedule.adjust = -1234567890L;
+        schedule.enabled = true;
+        schedule.mode = 'N';
+        schedule.periods = new Period[] { new Period(700, 830, 3500), new Period(830, 1830, -300) };
+        return schedule;
+    }
+
+    @Test
+    public void sameBytesAsFrameTest() {
+        Frame frame = new Frame(TARGET_ADDRESS, 'p', 's');
+        frame.addParameter(new Parameter('i', ParameterType.BYTE, 3));
+        frame.addParameter(new Parameter('d', ParameterType.STRING1, "Weekdays"));
+        frame.addParameter(new Parameter('a', ParameterType.SIGNED_LONG, -1234567890L));
+        Parameter enabled = new Parameter('e', ParameterType.BOOLEAN);
+        enabled.setValue(true);
+        frame.addParameter(enabled);
+        frame.addParameter(new Parameter('m', ParameterType.CHAR, 'N'));
+        int[][] periods = new int[][] { { 700, 830, 3500 }, { 830, 1830, -300 } };
+        for (int[] period : periods) {
+            Struct struct = new Struct();
+            struct.addParameter(new Parameter('f', ParameterType.INTEGER, period[0]));
+            struct.addParameter(new Parameter('u', ParameterType.INTEGER, period[1]));
+            struct.addParameter(new Parameter('t', ParameterType.SIGNED_INTEGER, period[2]));
+            frame.addParameter(new Parameter('p', ParameterType.STRUCT1, struct));
+        }
+        byte[] expected = NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS);
+
+        byte[] buffer = new byte[200];
+        int length = FrameCodec.forClass(Schedule.class).encode(createSchedule(), TARGET_ADDRESS, NetFefDataHelper.MASTER_ADDRESS, buffer, 0, buffer.length);
+        Assert.assertEquals(expected.length, length);
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals("Byte " + i, expected[i], buffer[i]);
+        }
+    }
+
+    @Test
+    public void encodeDecodeTest() {
+        FrameCodec<Schedule> codec = FrameCodec.forClass(Schedule.class);
+        EncodedFrame encodedFrame = codec.encode(createSchedule(), TARGET_ADDRESS, NetFefDataHelper.MASTER_ADDRESS);
+
+        FrameView view = encodedFrame.getView();
+        Assert.assertTrue(codec.matches(view));
+        Schedule decoded = codec.decode(view);
+        Assert.assertEquals(3, decoded.index);
+        Assert.assertEquals("Weekdays", decoded.description);
+        Assert.assertEquals(-1234567890L, decoded.adjust);
+        Assert.assertTrue(decoded.enabled);
+        Assert.assertEquals('N', decoded.mode);
+        Assert.assertEquals(2, decoded.periods.length);
+        Assert.assertEquals(1830, decoded.periods[1].until);
+        Assert.assertEquals(-300, decoded.periods[1].temperature);
+    }
+
+    @Test
+    public void crc16Test() {
+        Frame frame = new Frame(TARGET_ADDRESS, 'p', 's');
+        frame.addParameter(new Parameter('i', ParameterType.BYTE, 3));
+        frame.addParameter(new Parameter('d', ParameterType.STRING1, "Weekdays"));
+        frame.addParameter(new Parameter('a', ParameterType.SIGNED_LONG, -1234567890L));
+        Parameter enabled = new Parameter('e', ParameterType.BOOLEAN);
+        enabled.setValue(true);
+        frame.addParameter(enabled);
+        frame.addParameter(new Parameter('m', ParameterType.CHAR, 'N'));
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.setCrc16(true);
+        Schedule schedule = createSchedule();
+        schedule.periods = new Period[0];
+        byte[] expected = encoder.encode(frame, NetFefDataHelper.MASTER_ADDRESS);
+
+        FrameCodec<Schedule> codec = FrameCodec.forClass(Schedule.class);
+        EncodedFrame encodedFrame = codec.encode(schedule, TARGET_ADDRESS, NetFefDataHelper.MASTER_ADDRESS, encoder);
+        Assert.assertTrue(encodedFrame.contentEquals(expected, 0, expected.length));
+        FrameView view = encodedFrame.getView();
+        Assert.assertTrue(view.isCrc16());
+        Assert.assertEquals("Weekdays", codec.decode(view).description);
+    }
+
+    @Test
+    public void encodeDecodeFalseTest() {
+        FrameCodec<Schedule> codec = FrameCodec.forClass(Schedule.class);
+        Schedule schedule = createSchedule();
+        schedule.enabled = false;
+        EncodedFrame encodedFrame = codec.encode(schedule, TARGET_ADDRESS, NetFefDataHelper.MASTER_ADDRESS);
+
+        Schedule decoded = codec.decode(encodedFrame.getView());
+        Assert.assertFalse(decoded.enabled);
+        Assert.assertEquals('N', decoded.mode);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typeMismatchTest() {
+        FrameCodec.forClass(WrongType.class);
+    }
+
+    static class WrongType {
+        @FrameField(name = 'x', type = ParameterType.STRING1)
+        int value;
+    }
+}
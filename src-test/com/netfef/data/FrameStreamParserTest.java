@@ -0,0 +1,168 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Test methods for the stream parser.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/8/15</p>
+ */
+public class FrameStreamParserTest {
+
+    private final List<Frame> received = new ArrayList<>();
+    private final FrameStreamParser parser = new FrameStreamParser(200, NetFefDataHelper.MASTER_ADDRESS, frameView -> received.add(frameView.toFrame()));
+
+    private static byte[] buildFrame(char command, int value) {
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'n', command);
+        frame.addParameter(new Parameter('R', ParameterType.INTEGER, value));
+        return NetFefDataHelper.buildFrameBytes(frame, new byte[]{0x12, (byte)0xAB});
+    }
+
+    @Test
+    public void backToBackFrames() {
+        byte[] first = buildFrame('p', 1);
+        byte[] second = buildFrame('J', 2);
+        for (byte aByte : first) {
+            parser.push(aByte);
+        }
+        Assert.assertEquals("Frame should be emitted with its last byte", 1, received.size());
+        Assert.assertFalse(parser.hasPartialFrame());
+        parser.push(second);
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals(2, received.get(1).getParameter('R').getIntValue());
+    }
+
+    @Test
+    public void failingListener() {
+        FrameStreamParser parser = new FrameStreamParser(200, NetFefDataHelper.MASTER_ADDRESS, frameView -> {
+            received.add(frameView.toFrame());
+            if(received.size() == 1) {
+                throw new UnsupportedOperationException("Listener failure");
+            }
+        });
+        parser.push(buildFrame('p', 1));
+        Assert.assertEquals(1, parser.getListenerErrors());
+        Assert.assertFalse("Failed frame should be dropped", parser.hasPartialFrame());
+
+        parser.push(buildFrame('p', 2));
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals(2, received.get(1).getParameter('R').getIntValue());
+        Assert.assertEquals(1, parser.getListenerErrors());
+    }
+
+    @Test
+    public void malformedFrame() {
+        byte[] malformed = buildFrame('p', 1);
+        // -- Unknown type of the 'R' parameter, with matching check sum.
+        int position = malformed.length - 5;
+        Assert.assertEquals('R', malformed[position]);
+        malformed[position + 1] = '!';
+        int sum = 0;
+        for (int i = 0; i < malformed.length - 1; i++) {
+            sum += malformed[i] & 0xFF;
+        }
+        malformed[malformed.length - 1] = (byte)sum;
+
+        parser.push(malformed);
+        parser.push(buildFrame('p', 2));
+        Assert.assertEquals(1, received.size());
+        Assert.assertEquals(2, received.get(0).getParameter('R').getIntValue());
+        Assert.assertEquals(1, parser.getMalformedFrames());
+        Assert.assertEquals(0, parser.getListenerErrors());
+    }
+
+    @Test
+    public void resynchronizeAfterNoise() {
+        byte[] first = buildFrame('p', 1);
+        byte[] second = buildFrame('p', 2);
+        byte[] corrupted = buildFrame('p', 3);
+        corrupted[corrupted.length - 3] ^= 0x10;
+
+        parser.push(new byte[] { 0x00, 0x01, (byte)0xFF, 0x00 });
+        parser.push(first);
+        parser.push(corrupted);
+        parser.push(second);
+
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals(1, received.get(0).getParameter('R').getIntValue());
+        Assert.assertEquals(2, received.get(1).getParameter('R').getIntValue());
+        Assert.assertTrue(parser.getCheckSumErrors() > 0);
+    }
+
+    @Test
+    public void resynchronizeOnSilence() {
+        FrameStreamParser parser = new FrameStreamParser(1024, NetFefDataHelper.MASTER_ADDRESS, frameView -> received.add(frameView.toFrame()));
+        byte[] frame = buildFrame('p', 7);
+        // -- The noise byte and the high byte of the length read as a length of 256.
+        parser.push((byte)0x01);
+        parser.push(frame);
+        Assert.assertEquals(0, received.size());
+        Assert.assertTrue(parser.hasPartialFrame());
+
+        parser.resynchronize();
+        Assert.assertEquals(1, received.size());
+        Assert.assertEquals(7, received.get(0).getParameter('R').getIntValue());
+        Assert.assertFalse(parser.hasPartialFrame());
+        Assert.assertEquals(1, parser.getBytesDropped());
+    }
+
+    @Test
+    public void longNoise() {
+        FrameStreamParser parser = new FrameStreamParser(1024, NetFefDataHelper.MASTER_ADDRESS, frameView -> received.add(frameView.toFrame()));
+        byte[] noise = new byte[1000];
+        for (int i = 0; i < noise.length; i++) {
+            // -- Reads as frames of 768 bytes, waiting for more bytes and failing the check sum.
+            noise[i] = (byte)(i % 2 == 0 ? 0x03 : 0x00);
+        }
+        parser.push(noise);
+        parser.push(buildFrame('p', 1));
+        parser.resynchronize();
+        Assert.assertEquals(1, received.size());
+        Assert.assertEquals(1, received.get(0).getParameter('R').getIntValue());
+    }
+
+    @Test
+    public void crc16Frames() {
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'n', 'p');
+        frame.addParameter(new Parameter('R', ParameterType.INTEGER, 0x1234));
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.setCrc16(true);
+        byte[] crcFrame = encoder.encode(frame, new byte[]{0x12, (byte)0xAB});
+        // -- Swapping the bytes of the value keeps the additive sum, but not the CRC.
+        byte[] swapped = crcFrame.clone();
+        swapped[swapped.length - 4] = crcFrame[swapped.length - 3];
+        swapped[swapped.length - 3] = crcFrame[swapped.length - 4];
+
+        parser.push(swapped);
+        parser.push(buildFrame('p', 1));
+        parser.push(crcFrame);
+
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals(1, received.get(0).getParameter('R').getIntValue());
+        Assert.assertEquals(0x1234, received.get(1).getParameter('R').getIntValue());
+        Assert.assertTrue(parser.getCheckSumErrors() > 0);
+    }
+
+    @Test
+    public void skipFramesForOthers() {
+        Frame frame = new Frame(new byte[]{0x22, 0x33}, 'n', 'p');
+        parser.push(NetFefDataHelper.buildFrameBytes(frame, new byte[]{0x12, (byte)0xAB}));
+        parser.push(buildFrame('p', 1));
+        Assert.assertEquals(1, received.size());
+    }
+}
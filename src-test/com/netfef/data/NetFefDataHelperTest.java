@@ -14,6 +14,10 @@ package com.netfef.data;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * <p>Test methods for the data algorithms.</p>
  * <p>User: kelemenb
@@ -45,6 +49,445 @@ public class NetFefDataHelperTest {
         byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS);
     }
 
+    @Test
+    public void parameterValueTest() {
+        Assert.assertEquals("-12345", new Parameter('b', ParameterType.SIGNED_INTEGER, -12345).getStringValue());
+        Assert.assertEquals(4000000000L, new Parameter('l', ParameterType.LONG, 4000000000L).getLongValue());
+        Assert.assertEquals('x', new Parameter('c', ParameterType.CHAR, "x").getChar());
+        Assert.assertEquals("x", new Parameter('c', ParameterType.CHAR, 'x').getStringValue());
+        Parameter p = new Parameter('B', ParameterType.BOOLEAN);
+        p.setValue(true);
+        Assert.assertEquals("true", p.getStringValue());
+        Struct struct = new Struct();
+        Parameter structParameter = new Parameter('t', ParameterType.STRUCT1, struct);
+        struct.addParameter(new Parameter('f', ParameterType.INTEGER, 700));
+        Assert.assertEquals("Struct should be rendered when requested", "[f(i)700]", structParameter.getStringValue());
+    }
+
+    @Test
+    public void structTest() {
+        Struct struct = new Struct();
+        struct.addParameter(new Parameter('z', ParameterType.BYTE, 1));
+        struct.addParameter(new Parameter('p', ParameterType.BYTE, 2));
+        struct.addParameter(new Parameter('a', ParameterType.BYTE, 3));
+        struct.addParameter(new Parameter('p', ParameterType.BYTE, 4));
+        struct.addParameter(new Parameter('\u00e9', ParameterType.BYTE, 5));
+
+        Assert.assertEquals("Arrival order should be kept", "[z(b)1,p(b)2,a(b)3,p(b)4,\u00e9(b)5]", struct.toString());
+        Assert.assertEquals(2, struct.getParameter('p').getIntValue());
+        Assert.assertEquals(2, struct.getParameterList('p').size());
+        Assert.assertEquals(4, struct.getParameterList('p').get(1).getIntValue());
+        Assert.assertEquals(5, struct.getParameter('\u00e9').getIntValue());
+        Assert.assertNull(struct.getParameter('q'));
+        Assert.assertNull(struct.getParameterList('q'));
+        Assert.assertEquals(5, struct.getParameters().size());
+    }
+
+    @Test
+    public void frameEncoderTest() {
+        Frame frame = new Frame(new byte[]{0x12, (byte)0xAB}, 'p', 's');
+        frame.addParameter(new Parameter('t', ParameterType.STRING1, "s123456789"));
+        frame.addParameter(new Parameter('b', ParameterType.SIGNED_INTEGER, -12345));
+        frame.addParameter(new Parameter('a', ParameterType.SIGNED_LONG, -1234567890L));
+        Struct struct = new Struct();
+        struct.addParameter(new Parameter('f', ParameterType.INTEGER, 700));
+        struct.addParameter(new Parameter('u', ParameterType.INTEGER, 830));
+        frame.addParameter(new Parameter('p', ParameterType.STRUCT1, struct));
+        frame.addParameter(new Parameter('q', ParameterType.STRUCT2, struct));
+
+        byte[] expected = NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS);
+
+        FrameEncoder encoder = new FrameEncoder();
+        byte[] buffer = new byte[200];
+        int length = encoder.encode(frame, NetFefDataHelper.MASTER_ADDRESS, buffer, 5, 195);
+        Assert.assertEquals("Encoded length mismatch", expected.length, length);
+        Assert.assertArrayEquals("Encoded frame mismatch", expected, Arrays.copyOfRange(buffer, 5, 5 + length));
+
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(200);
+        directBuffer.put((byte)1);
+        encoder.encode(frame, NetFefDataHelper.MASTER_ADDRESS, directBuffer);
+        Assert.assertEquals("Buffer position not advanced", 1 + expected.length, directBuffer.position());
+        byte[] written = new byte[expected.length];
+        directBuffer.position(1);
+        directBuffer.get(written);
+        Assert.assertArrayEquals("Encoded frame mismatch", expected, written);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void frameEncoderOverflowTest() {
+        Frame frame = new Frame(new byte[]{0x12, (byte)0xAB}, 'p', 's');
+        frame.addParameter(new Parameter('t', ParameterType.STRING1, "s123456789"));
+        new FrameEncoder().encode(frame, NetFefDataHelper.MASTER_ADDRESS, new byte[20], 0, 20);
+    }
+
+    @Test
+    public void lengthPromotionTest() {
+        Frame frame = new Frame(new byte[]{0x12, (byte)0xAB}, 'p', 's');
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        frame.addParameter(new Parameter('d', ParameterType.STRING1, sb.toString()));
+        Struct inner = new Struct();
+        for (int i = 0; i < 70; i++) {
+            inner.addParameter(new Parameter('f', ParameterType.INTEGER, i));
+        }
+        Struct outer = new Struct();
+        outer.addParameter(new Parameter('i', ParameterType.STRUCT1, inner));
+        outer.addParameter(new Parameter('x', ParameterType.BYTE, 7));
+        frame.addParameter(new Parameter('p', ParameterType.STRUCT1, outer));
+
+        byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS);
+        FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 1000, null);
+        Assert.assertNotNull("Decode error: bytes does not form a valid frame", view);
+        Assert.assertEquals(ParameterType.STRING2, view.getParameterTypeAt(view.indexOf('d')));
+        Assert.assertEquals(sb.toString(), view.getString('d'));
+        Assert.assertEquals(ParameterType.STRUCT2, view.getParameterTypeAt(view.indexOf('p')));
+        StructView outerView = view.getStruct('p');
+        Assert.assertEquals(ParameterType.STRUCT2, outerView.getParameterTypeAt(outerView.indexOf('i')));
+        Assert.assertEquals(7, outerView.getInt('x'));
+        Assert.assertEquals(69, outerView.getStruct('i').getIntAt(69));
+    }
+
+    @Test
+    public void crc16WhileWritingTest() {
+        Frame frame = new Frame(new byte[]{0x12, (byte)0xAB}, 'p', 's');
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sb.append((char)('a' + (i % 3)));
+        }
+        frame.addParameter(new Parameter('d', ParameterType.STRING1, sb.toString()));
+        Struct inner = new Struct();
+        for (int i = 0; i < 70; i++) {
+            inner.addParameter(new Parameter('f', ParameterType.INTEGER, i));
+        }
+        frame.addParameter(new Parameter('p', ParameterType.STRUCT1, inner));
+
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.setCrc16(true);
+        for (boolean compression : new boolean[] { false, true }) {
+            encoder.setCompression(compression);
+            byte[] bytes = encoder.encode(frame, NetFefDataHelper.MASTER_ADDRESS);
+            Assert.assertEquals("CRC over the whole frame", 0, Crc16.calculate(bytes, 0, bytes.length));
+            FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 1000, null);
+            Assert.assertNotNull("Decode error: bytes does not form a valid frame", view);
+            Assert.assertEquals(sb.toString(), view.getString('d'));
+        }
+
+        byte[] check = "123456789".getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+        int crc = Crc16.calculate(check, 0, check.length);
+        Assert.assertEquals(Crc16.calculate(check, 0, 8), Crc16.revert(crc, check[8]));
+        byte[] zeros = new byte[1000];
+        Assert.assertEquals(Crc16.update(crc, zeros, 0, zeros.length), Crc16.shift(crc, zeros.length));
+    }
+
+    /**
+     * Recalculate the check sum after changing the bytes.
+     */
+    private static void fixCheckSum(byte[] bytes) {
+        int sum = 0;
+        for (int i = 0; i < bytes.length - 1; i++) {
+            sum += bytes[i] & 0xFF;
+        }
+        bytes[bytes.length - 1] = (byte)sum;
+    }
+
+    @Test
+    public void malformedParametersTest() {
+        Frame frame = new Frame(new byte[]{0x12, (byte)0xAB}, 'p', 's');
+        frame.addParameter(new Parameter('x', ParameterType.BYTE, 5));
+        Struct struct = new Struct();
+        struct.addParameter(new Parameter('f', ParameterType.STRING1, "abc"));
+        frame.addParameter(new Parameter('p', ParameterType.STRUCT1, struct));
+        byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS);
+        Assert.assertNotNull(NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 200, null));
+        // -- Positions: 2 length, 1+2 target, 1+2 sender, 1 count, 3 's', 3 'c', then 'x'.
+        int xPosition = 15;
+        Assert.assertEquals('x', bytes[xPosition]);
+
+        byte[] unknownType = bytes.clone();
+        unknownType[xPosition + 1] = '!';
+        fixCheckSum(unknownType);
+        Assert.assertNull("Unknown parameter type", NetFefDataHelper.buildFrameView(unknownType, 0, unknownType.length, 200, null));
+        Assert.assertNull(NetFefDataHelper.buildFrameObject(unknownType, 200, null));
+
+        byte[] overrun = bytes.clone();
+        // -- The string in the struct claims more bytes than the struct has.
+        overrun[xPosition + 3 + 3 + 1 + 2] = 20;
+        fixCheckSum(overrun);
+        Assert.assertNull("String exceeding its struct", NetFefDataHelper.buildFrameView(overrun, 0, overrun.length, 200, null));
+
+        byte[] tooManyParameters = bytes.clone();
+        tooManyParameters[8] += 1;
+        fixCheckSum(tooManyParameters);
+        Assert.assertNull("Parameter beyond the frame", NetFefDataHelper.buildFrameView(tooManyParameters, 0, tooManyParameters.length, 200, null));
+    }
+
+    @Test
+    public void booleanRoundTripTest() {
+        Frame frame = new Frame(new byte[]{0x12, (byte)0xAB}, 'p', 's');
+        Parameter trueParameter = new Parameter('t', ParameterType.BOOLEAN);
+        trueParameter.setValue(true);
+        frame.addParameter(trueParameter);
+        Parameter falseParameter = new Parameter('f', ParameterType.BOOLEAN);
+        falseParameter.setValue(false);
+        frame.addParameter(falseParameter);
+
+        byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS);
+        FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 200, null);
+        Assert.assertNotNull("Decode error: bytes does not form a valid frame", view);
+        Assert.assertTrue(view.getBoolean('t'));
+        Assert.assertFalse(view.getBoolean('f'));
+        Assert.assertEquals(0, view.getInt('f'));
+
+        Frame decoded = NetFefDataHelper.buildFrameObject(bytes, 200, null);
+        Assert.assertTrue(decoded.getParameter('t').getBooleanValue());
+        Assert.assertFalse(decoded.getParameter('f').getBooleanValue());
+    }
+
+    @Test
+    public void encodedFrameTemplateTest() {
+        Frame frame = new Frame(NetFefDataHelper.BROADCAST_ADDRESS, 'n', 'p');
+        frame.addParameter(new Parameter('r', ParameterType.INTEGER, 0));
+        EncodedFrame template = EncodedFrame.encode(frame, NetFefDataHelper.MASTER_ADDRESS);
+
+        byte[] target = new byte[]{0x12, (byte)0xAB};
+        EncodedFrame patched = template.withTargetAddress(target).withIntValue('r', 54321);
+        frame.setTargetAddress(target);
+        frame.getParameter('r').setValue(54321);
+        Assert.assertTrue(patched.contentEquals(NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS), 0, patched.getLength()));
+        Assert.assertEquals(0, template.getView().getInt('r'));
+        EncodedFrame combined = template.withTargetAddressAndIntValue(target, 'r', 54321);
+        Assert.assertTrue(combined.contentEquals(NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS), 0, combined.getLength()));
+
+        byte[] longTarget = new byte[]{0x12, 0x34, 0x56};
+        byte[] bytes = new byte[patched.getLength() + 1];
+        patched.withTargetAddress(longTarget).copyTo(bytes, 0);
+        FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 200, longTarget);
+        Assert.assertNotNull("Decode error: bytes does not form a valid frame", view);
+        Assert.assertEquals(54321, view.getInt('r'));
+        Assert.assertTrue(template.withTargetAddressAndIntValue(longTarget, 'r', 54321).contentEquals(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void crc16Test() {
+        byte[] check = "123456789".getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+        Assert.assertEquals(0x29B1, Crc16.calculate(check, 0, check.length));
+
+        Frame frame = new Frame(NetFefDataHelper.BROADCAST_ADDRESS, 'n', 'p');
+        frame.addParameter(new Parameter('r', ParameterType.INTEGER, 0));
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.setCrc16(true);
+        EncodedFrame template = EncodedFrame.encode(frame, NetFefDataHelper.MASTER_ADDRESS, encoder);
+        Assert.assertTrue(template.getView().isCrc16());
+
+        byte[] target = new byte[]{0x12, (byte)0xAB};
+        EncodedFrame patched = template.withTargetAddressAndIntValue(target, 'r', 54321);
+        frame.setTargetAddress(target);
+        frame.getParameter('r').setValue(54321);
+        frame.setSenderAddress(NetFefDataHelper.MASTER_ADDRESS);
+        byte[] bytes = encoder.encode(frame, null);
+        Assert.assertTrue(patched.contentEquals(bytes, 0, bytes.length));
+
+        FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 200, target);
+        Assert.assertNotNull("Decode error: bytes does not form a valid frame", view);
+        Assert.assertArrayEquals(target, view.getTargetAddress());
+        Assert.assertEquals(54321, view.getInt('r'));
+
+        byte[] longTarget = new byte[]{0x12, 0x34, 0x56};
+        byte[] moved = new byte[bytes.length + 1];
+        patched.withTargetAddress(longTarget).copyTo(moved, 0);
+        Assert.assertNotNull(NetFefDataHelper.buildFrameView(moved, 0, moved.length, 200, longTarget));
+
+        bytes[bytes.length - 3] ^= 0x01;
+        Assert.assertNull(NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 200, target));
+    }
+
+    @Test
+    public void stringInternerTest() {
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'n', 'J');
+        frame.addParameter(new Parameter('d', ParameterType.STRING1, "Test client \u00e9"));
+        frame.addParameter(new Parameter('v', ParameterType.STRING1, "0/0/O0"));
+        byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, new byte[]{0x12, (byte)0xAB});
+
+        StringInterner interner = new StringInterner(16);
+        NetFefDataHelper.setStringInterner(interner);
+        try {
+            Frame first = NetFefDataHelper.buildFrameObject(bytes, 200, null);
+            Frame second = NetFefDataHelper.buildFrameObject(bytes, 200, null);
+            Assert.assertEquals("Test client \u00e9", first.getParameter('d').getStringValue());
+            Assert.assertSame(first.getParameter('d').getStringValue(), second.getParameter('d').getStringValue());
+            Assert.assertSame(first.getParameter('v').getStringValue(), NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 200, null).getString('v'));
+            Assert.assertEquals(2, interner.getMisses());
+            Assert.assertEquals(3, interner.getHits());
+        } finally {
+            NetFefDataHelper.setStringInterner(null);
+        }
+    }
+
+    @Test
+    public void blobTest() {
+        byte[] samples = new byte[300];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (byte)i;
+        }
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'm', 'b');
+        frame.addParameter(new Parameter('x', ParameterType.BLOB1, new byte[] { (byte)0xE9, 0x00, 0x7F }));
+        frame.addParameter(new Parameter('y', ParameterType.BLOB1, samples));
+        byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, new byte[]{0x12, (byte)0xAB});
+
+        FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 1000, null);
+        Assert.assertNotNull("Decode error: bytes does not form a valid frame", view);
+        Assert.assertEquals(ParameterType.BLOB2, view.getParameterType('y'));
+        ByteBuffer blob = view.getBlob('x');
+        Assert.assertTrue(blob.isReadOnly());
+        Assert.assertEquals(3, blob.remaining());
+        Assert.assertEquals((byte)0xE9, blob.get(0));
+        Assert.assertEquals(ByteBuffer.wrap(samples), view.getBlob('y'));
+
+        Frame decoded = view.toFrame();
+        Arrays.fill(bytes, (byte)0);
+        Assert.assertEquals("Detached frame should not see the reused bytes", ByteBuffer.wrap(samples), decoded.getParameter('y').getBlobValue());
+        Assert.assertEquals(0x7F, decoded.getParameter('x').getBlobValue().get(2));
+    }
+
+    @Test
+    public void varintTest() {
+        long[] unsignedValues = new long[] { 0, 127, 128, 300, 65535, 4294967295L };
+        long[] signedValues = new long[] { 0, -1, 63, -64, 64, -2147483648L, 2147483647L };
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'm', 'v');
+        for (long value : unsignedValues) {
+            frame.addParameter(new Parameter('u', ParameterType.VARINT, value));
+        }
+        for (long value : signedValues) {
+            frame.addParameter(new Parameter('s', ParameterType.SIGNED_VARINT, value));
+        }
+        byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, new byte[]{0x12, (byte)0xAB});
+
+        Frame decoded = NetFefDataHelper.buildFrameObject(bytes, 200, null);
+        Assert.assertNotNull("Decode error: bytes does not form a valid frame", decoded);
+        FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 200, null);
+        List<Parameter> unsignedParameters = decoded.getParameterList('u');
+        int index = view.indexOf('u');
+        for (int i = 0; i < unsignedValues.length; i++) {
+            Assert.assertEquals(unsignedValues[i], unsignedParameters.get(i).getLongValue());
+            Assert.assertEquals(unsignedValues[i], view.getLongAt(index));
+            index = view.indexOf('u', index + 1);
+        }
+        // -- The first 's' is the subject.
+        List<Parameter> signedParameters = decoded.getParameterList('s');
+        index = view.indexOf('s', 2);
+        for (int i = 0; i < signedValues.length; i++) {
+            Assert.assertEquals(signedValues[i], signedParameters.get(i).getLongValue());
+            Assert.assertEquals(signedValues[i], view.getLongAt(index));
+            index = view.indexOf('s', index + 1);
+        }
+    }
+
+    @Test
+    public void compactNumbersTest() {
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'n', 'J');
+        frame.addParameter(new Parameter('i', ParameterType.LONG, 4711L));
+        frame.addParameter(new Parameter('n', ParameterType.INTEGER, 21));
+        frame.addParameter(new Parameter('t', ParameterType.SIGNED_INTEGER, -300));
+        frame.addParameter(new Parameter('h', ParameterType.LONG, 4000000000L));
+        FrameEncoder encoder = new FrameEncoder();
+        byte[] fixed = encoder.encode(frame, new byte[]{0x12, (byte)0xAB});
+        encoder.setCompactNumbers(true);
+        byte[] compact = encoder.encode(frame, new byte[]{0x12, (byte)0xAB});
+        // -- 'i' and 'n' shrink by 2 and 1 bytes, 'h' is shorter as LONG, 't' as SIGNED_INTEGER.
+        Assert.assertEquals(fixed.length - 3, compact.length);
+
+        FrameView view = NetFefDataHelper.buildFrameView(compact, 0, compact.length, 200, null);
+        Assert.assertEquals(ParameterType.VARINT, view.getParameterType('i'));
+        Assert.assertEquals(4711, view.getInt('i'));
+        Assert.assertEquals(21, view.getInt('n'));
+        Assert.assertEquals(-300, view.getInt('t'));
+        Assert.assertEquals(4000000000L, view.getLong('h'));
+    }
+
+    @Test
+    public void compressionTest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append("temperature=").append(20 + i % 3).append(';');
+        }
+        String text = sb.toString();
+        Struct struct = new Struct();
+        for (int i = 0; i < 8; i++) {
+            struct.addParameter(new Parameter('m', ParameterType.STRING1, "sensor" + i));
+        }
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 's', 'r');
+        frame.addParameter(new Parameter('a', ParameterType.STRING2, text));
+        frame.addParameter(new Parameter('b', ParameterType.STRUCT2, struct));
+        frame.addParameter(new Parameter('e', ParameterType.STRING2, "short"));
+        frame.addParameter(new Parameter('g', ParameterType.STRING2, "q8#Zk2!vW0x&Lp5@Yr7^Tb1*Nm3$Hs9%Jd4"));
+        FrameEncoder encoder = new FrameEncoder();
+        byte[] plain = encoder.encode(frame, new byte[]{0x12, (byte)0xAB});
+        encoder.setCompression(true);
+        LzCompression.getStatistics().reset();
+        byte[] compressed = encoder.encode(frame, new byte[]{0x12, (byte)0xAB});
+        Assert.assertTrue(compressed.length < plain.length);
+
+        FrameView view = NetFefDataHelper.buildFrameView(compressed, 0, compressed.length, 1000, null);
+        Assert.assertNotNull("Decode error: bytes does not form a valid frame", view);
+        Assert.assertEquals(ParameterType.COMPRESSED, view.getParameterType('a'));
+        Assert.assertEquals(ParameterType.COMPRESSED, view.getParameterType('b'));
+        // -- Too short, and not shrinking.
+        Assert.assertEquals(ParameterType.STRING2, view.getParameterType('e'));
+        Assert.assertEquals(ParameterType.STRING2, view.getParameterType('g'));
+        Assert.assertEquals(text, view.getString('a'));
+        Assert.assertEquals("sensor7", view.getStruct('b').getStringAt(7));
+
+        Frame decoded = view.toFrame();
+        Assert.assertEquals(text, decoded.getParameter('a').getStringValue());
+        Assert.assertEquals(ParameterType.STRUCT2, decoded.getParameter('b').getParameterType());
+        Assert.assertEquals(8, decoded.getParameter('b').getStructValue().getParameterCount());
+        Assert.assertEquals("short", decoded.getParameter('e').getStringValue());
+
+        CompressionStatistics statistics = LzCompression.getStatistics();
+        Assert.assertEquals(2, statistics.getCompressions());
+        Assert.assertEquals(1, statistics.getFallbacks());
+        Assert.assertTrue(statistics.getCompressionRatio() < 0.5);
+    }
+
+    @Test
+    public void frameViewTest() {
+        Frame frame = new Frame(new byte[]{0x12, (byte)0xAB}, 'p', 's');
+        frame.addParameter(new Parameter('R', ParameterType.INTEGER, 54321));
+        frame.addParameter(new Parameter('d', ParameterType.STRING1, "Test client"));
+        frame.addParameter(new Parameter('a', ParameterType.SIGNED_LONG, -1234567890L));
+        frame.addParameter(new Parameter('b', ParameterType.SIGNED_INTEGER, -12345));
+        for (int i = 0; i < 2; i++) {
+            Struct struct = new Struct();
+            struct.addParameter(new Parameter('f', ParameterType.INTEGER, 700 + i));
+            struct.addParameter(new Parameter('t', ParameterType.LONG, 3500L));
+            frame.addParameter(new Parameter('p', ParameterType.STRUCT1, struct));
+        }
+        byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, NetFefDataHelper.MASTER_ADDRESS);
+
+        FrameView view = NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, 200, null);
+        Assert.assertNotNull("Decode error: bytes does not form a valid frame", view);
+        Assert.assertEquals('p', view.getSubject());
+        Assert.assertEquals('s', view.getCommand());
+        Assert.assertTrue(view.isSenderAddress(NetFefDataHelper.MASTER_ADDRESS));
+        Assert.assertArrayEquals(new byte[]{0x12, (byte)0xAB}, view.getTargetAddress());
+        Assert.assertEquals(54321, view.getInt('R'));
+        Assert.assertEquals("Test client", view.getString('d'));
+        Assert.assertEquals(-1234567890L, view.getLong('a'));
+        Assert.assertEquals(-12345, view.getInt('b'));
+        Assert.assertFalse(view.hasParameter('x'));
+
+        int first = view.indexOf('p');
+        int second = view.indexOf('p', first + 1);
+        Assert.assertEquals(700, view.getStructAt(first).getInt('f'));
+        Assert.assertEquals(701, view.getStructAt(second).getInt('f'));
+        Assert.assertEquals(3500L, view.getStructAt(second).getLong('t'));
+        Assert.assertEquals(-1, view.indexOf('p', second + 1));
+
+        Assert.assertArrayEquals("Materialized frame does not match.", bytes, NetFefDataHelper.buildFrameBytes(view.toFrame(), null));
+    }
+
     @Test
     public void encodeDecodeTest() {
         byte[] bytes = new byte[]{0x00, 0x1d, 0x02, 0x12, (byte)0xab, 0x02, 0x00, 0x01, 0x03, 0x73, 0x63, 0x74, 0x63, 0x63, 0x74, 0x74, 0x73, 0x0a, 0x73, 0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37, 0x38, 0x00, 0x6e};
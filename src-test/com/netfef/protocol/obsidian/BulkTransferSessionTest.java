@@ -0,0 +1,120 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.EncodedFrame;
+import com.netfef.data.Frame;
+import com.netfef.data.NetFefDataHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * <p>Test methods for the sliding window bulk transfer.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/26/15</p>
+ */
+public class BulkTransferSessionTest {
+
+    private static final byte[] PEER_ADDRESS = new byte[]{0x12, (byte)0xAB};
+
+    private static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte)(i * 7);
+        }
+        return data;
+    }
+
+    /**
+     * Deliver the burst to the receiver, except the chunks with the listed indexes.
+     * @return The last acknowledge of the receiver.
+     */
+    private static Frame deliver(List<EncodedFrame> burst, BulkReceiveSession receiver, long now, int... lost) {
+        Frame ack = null;
+        outer: for (EncodedFrame chunk : burst) {
+            int index = chunk.getView().getInt(BulkTransferSession.PARAM_NAME_INDEX);
+            for (int l : lost) {
+                if(l == index) {
+                    continue outer;
+                }
+            }
+            EncodedFrame reply = receiver.onChunk(chunk.toFrame(), now);
+            if(reply != null) {
+                ack = reply.toFrame();
+            }
+        }
+        return ack;
+    }
+
+    private static void acknowledge(BulkSendSession sender, Frame ack, long now) {
+        sender.onAck(ack.getParameter(BulkTransferSession.PARAM_NAME_RECEIVED).getIntValue(),
+                ack.getParameter(BulkTransferSession.PARAM_NAME_SELECTIVE).getLongValue(), now);
+    }
+
+    @Test
+    public void lossyTransferTest() {
+        byte[] data = testData(1000);
+        BulkSendSession sender = new BulkSendSession('n', 7, PEER_ADDRESS, NetFefDataHelper.MASTER_ADDRESS, ByteBuffer.wrap(data),
+                80, 8, 1000, 3, null, 0);
+        BulkReceiveSession receiver = new BulkReceiveSession('n', 7, NetFefDataHelper.MASTER_ADDRESS, PEER_ADDRESS, 5000, null, 0);
+
+        List<EncodedFrame> burst = sender.poll(0);
+        Assert.assertEquals(8, burst.size());
+        // -- Waiting for the acknowledge.
+        Assert.assertTrue(sender.poll(10).isEmpty());
+
+        // -- Chunks 2 and 5 lost, only those are sent again with the next new ones.
+        acknowledge(sender, deliver(burst, receiver, 20, 2, 5), 20);
+        burst = sender.poll(30);
+        Assert.assertEquals(2, sender.getRetransmitCount());
+        Assert.assertEquals(2, burst.get(0).getView().getInt(BulkTransferSession.PARAM_NAME_INDEX));
+        Assert.assertEquals(5, burst.get(1).getView().getInt(BulkTransferSession.PARAM_NAME_INDEX));
+        Assert.assertEquals(8, burst.get(2).getView().getInt(BulkTransferSession.PARAM_NAME_INDEX));
+
+        // -- Acknowledge lost: everything unacknowledged is sent again after the timeout.
+        deliver(burst, receiver, 40);
+        Assert.assertTrue(sender.poll(500).isEmpty());
+        long now = 1100;
+        while(!sender.isFinished()) {
+            burst = sender.poll(now);
+            Frame ack = deliver(burst, receiver, now);
+            if(ack != null) {
+                acknowledge(sender, ack, now);
+            }
+            now += 10;
+        }
+        Assert.assertFalse(sender.isFailed());
+        Assert.assertTrue(receiver.isComplete());
+        Assert.assertEquals(1000, sender.getTransferredBytes());
+        ByteBuffer received = receiver.getData();
+        byte[] bytes = new byte[received.remaining()];
+        received.get(bytes);
+        Assert.assertArrayEquals(data, bytes);
+    }
+
+    @Test
+    public void timeoutTest() {
+        BulkSendSession sender = new BulkSendSession('n', 8, PEER_ADDRESS, NetFefDataHelper.MASTER_ADDRESS, ByteBuffer.wrap(testData(100)),
+                80, 4, 1000, 2, null, 0);
+        for (long now = 0; now < 5000; now += 100) {
+            sender.poll(now);
+        }
+        Assert.assertTrue(sender.isFailed());
+
+        BulkReceiveSession receiver = new BulkReceiveSession('n', 8, NetFefDataHelper.MASTER_ADDRESS, PEER_ADDRESS, 1000, null, 0);
+        receiver.poll(2000);
+        Assert.assertTrue(receiver.isFailed());
+    }
+}
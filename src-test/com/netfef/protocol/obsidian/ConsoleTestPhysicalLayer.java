@@ -11,6 +11,7 @@
 
 package com.netfef.protocol.obsidian;
 
+import com.netfef.data.EncodedFrame;
 import com.netfef.data.Frame;
 import com.netfef.data.NetFefDataHelper;
 import com.netfef.protocol.NetFefNetwork;
@@ -61,6 +62,13 @@ public class ConsoleTestPhysicalLayer implements NetFefPhysicalLayer {
         emulatedClientLastReceivedFrame = frame;
     }
 
+    @Override
+    public void sendData(EncodedFrame encodedFrame) {
+        Frame frame = encodedFrame.toFrame();
+        System.out.println("Sending frame: " + frame);
+        emulatedClientLastReceivedFrame = frame;
+    }
+
     @Override
     public NetFefNetworkConfig getConfig(Class<? extends NetFefNetwork> networkClass) {
         if(NetFefObsidian.class.isAssignableFrom(networkClass)) {
@@ -84,6 +92,8 @@ public class ConsoleTestPhysicalLayer implements NetFefPhysicalLayer {
         frame.setSenderAddress(emulatedAddress);
         frame.setTargetAddress(NetFefDataHelper.MASTER_ADDRESS);
         System.out.println("Emulate receiving: " + frame);
-        listener.dataReceived(frame);
+        // -- Deliver a view of the encoded bytes, the same way the serial layer does.
+        byte[] bytes = NetFefDataHelper.buildFrameBytes(frame, emulatedAddress);
+        listener.frameReceived(NetFefDataHelper.buildFrameView(bytes, 0, bytes.length, bytes.length, null));
     }
 }
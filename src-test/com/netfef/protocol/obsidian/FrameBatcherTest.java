@@ -0,0 +1,79 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.EncodedFrame;
+import com.netfef.data.Frame;
+import com.netfef.data.NetFefDataHelper;
+import com.netfef.data.Parameter;
+import com.netfef.data.ParameterType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * <p>Test methods for packing frames into envelopes.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/29/15</p>
+ */
+public class FrameBatcherTest {
+
+    private static final byte[] PEER1 = new byte[]{0x12, (byte)0xAB};
+    private static final byte[] PEER2 = new byte[]{0x27, (byte)0xDE};
+
+    private static EncodedFrame setpoint(byte[] target, int value) {
+        Frame frame = new Frame(target, 'h', 's');
+        frame.addParameter(new Parameter('t', ParameterType.SIGNED_INTEGER, value));
+        return EncodedFrame.encode(frame, NetFefDataHelper.MASTER_ADDRESS);
+    }
+
+    @Test
+    public void envelopeTest() {
+        FrameBatcher batcher = new FrameBatcher('n', NetFefDataHelper.MASTER_ADDRESS);
+        Assert.assertNull(batcher.drain());
+        Assert.assertTrue(batcher.add(setpoint(PEER1, 21), 80, 0));
+        Assert.assertTrue(batcher.add(setpoint(PEER1, 22), 80, 0));
+        EncodedFrame envelope = batcher.drain();
+        Assert.assertArrayEquals(PEER1, envelope.getTargetAddress());
+        Assert.assertTrue(batcher.isEmpty());
+
+        // -- Different targets, sent as broadcast, each peer takes its own.
+        batcher.add(setpoint(PEER1, 21), 80, 0);
+        batcher.add(setpoint(PEER2, -5), 80, 0);
+        envelope = batcher.drain();
+        Assert.assertArrayEquals(NetFefDataHelper.BROADCAST_ADDRESS, envelope.getTargetAddress());
+        List<Frame> frames = FrameBatcher.unpack(envelope.toFrame(), PEER2);
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals(-5, frames.get(0).getParameter('t').getIntValue());
+    }
+
+    @Test
+    public void limitTest() {
+        FrameBatcher batcher = new FrameBatcher('n', NetFefDataHelper.MASTER_ADDRESS);
+        int added = 0;
+        while(batcher.add(setpoint(PEER1, added), 80, 0)) {
+            added += 1;
+        }
+        Assert.assertTrue(added > 1);
+        EncodedFrame envelope = batcher.drain();
+        Assert.assertTrue(envelope.getLength() <= 80);
+        Assert.assertEquals(added, FrameBatcher.unpack(envelope.toFrame(), PEER1).size());
+
+        // -- A single frame is sent as it is.
+        EncodedFrame frame = setpoint(PEER1, 1);
+        batcher.add(frame, 80, 100);
+        Assert.assertFalse(batcher.isDue(110, 20));
+        Assert.assertTrue(batcher.isDue(120, 20));
+        Assert.assertSame(frame, batcher.drain());
+    }
+}
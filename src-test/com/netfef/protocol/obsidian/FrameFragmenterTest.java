@@ -0,0 +1,99 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.EncodedFrame;
+import com.netfef.data.Frame;
+import com.netfef.data.NetFefDataHelper;
+import com.netfef.data.Parameter;
+import com.netfef.data.ParameterType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * <p>Test methods for splitting and reassembling long frames.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/24/15</p>
+ */
+public class FrameFragmenterTest {
+
+    private static final byte[] SENDER_ADDRESS = new byte[]{0x12, (byte)0xAB};
+
+    private static EncodedFrame longFrame() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            sb.append("log line ").append(i).append('\n');
+        }
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'l', 'd');
+        frame.addParameter(new Parameter('t', ParameterType.STRING2, sb.toString()));
+        frame.addParameter(new Parameter('R', ParameterType.INTEGER, 4711));
+        return EncodedFrame.encode(frame, SENDER_ADDRESS);
+    }
+
+    @Test
+    public void reassembleTest() {
+        EncodedFrame frame = longFrame();
+        List<EncodedFrame> fragments = new FrameFragmenter('n').fragment(frame, 80);
+        Assert.assertTrue(fragments.size() > 1);
+        for (EncodedFrame fragment : fragments) {
+            Assert.assertTrue(fragment.getLength() <= 80);
+        }
+
+        // -- Out of order, with a duplicate.
+        FrameReassembler reassembler = new FrameReassembler(4, 1000);
+        Assert.assertNull(reassembler.accept(fragments.get(1).toFrame(), 0));
+        Assert.assertNull(reassembler.accept(fragments.get(1).toFrame(), 0));
+        Frame result = null;
+        for (int i = fragments.size() - 1; i >= 0; i--) {
+            if(i != 1) {
+                result = reassembler.accept(fragments.get(i).toFrame(), 10);
+            }
+        }
+        Assert.assertNotNull(result);
+        Assert.assertEquals(frame.toFrame().getParameter('t').getStringValue(), result.getParameter('t').getStringValue());
+        Assert.assertEquals(4711, result.getParameter('R').getIntValue());
+        Assert.assertEquals(0, reassembler.getPendingCount());
+    }
+
+    @Test
+    public void shortFrameTest() {
+        Frame frame = new Frame(NetFefDataHelper.MASTER_ADDRESS, 'n', 'p');
+        EncodedFrame encodedFrame = EncodedFrame.encode(frame, SENDER_ADDRESS);
+        List<EncodedFrame> fragments = new FrameFragmenter('n').fragment(encodedFrame, 80);
+        Assert.assertEquals(1, fragments.size());
+        Assert.assertSame(encodedFrame, fragments.get(0));
+    }
+
+    @Test
+    public void expireTest() {
+        FrameFragmenter fragmenter = new FrameFragmenter('n');
+        List<EncodedFrame> fragments = fragmenter.fragment(longFrame(), 80);
+        FrameReassembler reassembler = new FrameReassembler(1, 1000);
+        reassembler.accept(fragments.get(0).toFrame(), 0);
+        Assert.assertEquals(1, reassembler.getPendingCount());
+        Assert.assertEquals(1001, reassembler.getNextExpiry());
+        reassembler.expire(1000);
+        Assert.assertEquals(1, reassembler.getPendingCount());
+        reassembler.expire(2000);
+        Assert.assertEquals(0, reassembler.getPendingCount());
+        Assert.assertEquals(Long.MAX_VALUE, reassembler.getNextExpiry());
+        Assert.assertEquals(1, reassembler.getDroppedCount());
+
+        // -- The table is bounded, the oldest one is dropped.
+        reassembler.accept(fragments.get(0).toFrame(), 3000);
+        reassembler.accept(fragmenter.fragment(longFrame(), 80).get(0).toFrame(), 3000);
+        Assert.assertEquals(1, reassembler.getPendingCount());
+        Assert.assertEquals(2, reassembler.getDroppedCount());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.protocol.Peer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Test methods for the poll scheduler.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 7/9/15</p>
+ */
+public class PollSchedulerTest {
+
+    private static final Peer PEER1 = new Peer(new byte[]{0x12, 0x01}, 1);
+    private static final Peer PEER2 = new Peer(new byte[]{0x12, 0x02}, 2);
+    private static final Peer PEER3 = new Peer(new byte[]{0x12, 0x03}, 3);
+
+    @Test
+    public void deadlineOrder() {
+        PollScheduler scheduler = new PollScheduler();
+        scheduler.schedule(PEER1, 300);
+        scheduler.schedule(PEER2, 100);
+        scheduler.schedule(PEER3, 100);
+        Assert.assertEquals(100, scheduler.getNextDueTime());
+
+        Assert.assertNull(scheduler.takeDue(99));
+        // -- Peers due at the same time in the order scheduled.
+        PollScheduler.Entry first = scheduler.takeDue(150);
+        Assert.assertSame(PEER2, first.getPeer());
+        Assert.assertEquals(100, first.getDueTime());
+        Assert.assertSame(PEER3, scheduler.takeDue(150).getPeer());
+        Assert.assertNull(scheduler.takeDue(150));
+        Assert.assertEquals(300, scheduler.getNextDueTime());
+        Assert.assertEquals(1, scheduler.size());
+
+        // -- The lag counts until the poll is transmitted, not until it is taken.
+        Assert.assertEquals(0, scheduler.getPollCount());
+        scheduler.recordPoll(100, 150);
+        scheduler.recordPoll(100, 170);
+        Assert.assertEquals(2, scheduler.getPollCount());
+        Assert.assertEquals(70, scheduler.getMaxLagMs());
+        Assert.assertEquals(60.0, scheduler.getAverageLagMs(), 0.001);
+    }
+
+    @Test
+    public void rescheduleAndCancel() {
+        PollScheduler scheduler = new PollScheduler();
+        scheduler.schedule(PEER1, 100);
+        scheduler.schedule(PEER2, 200);
+        // -- Moved after the other peer.
+        scheduler.schedule(PEER1, 300);
+        Assert.assertEquals(2, scheduler.size());
+        Assert.assertSame(PEER2, scheduler.takeDue(1000).getPeer());
+
+        Assert.assertTrue(scheduler.cancel(PEER1));
+        Assert.assertFalse(scheduler.cancel(PEER1));
+        Assert.assertEquals(Long.MAX_VALUE, scheduler.getNextDueTime());
+        Assert.assertNull(scheduler.takeDue(1000));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Test methods for the reply reference table.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 7/2/15</p>
+ */
+public class ReplyTableTest {
+
+    @Test
+    public void sequentialAllocation() {
+        ReplyTable<String> table = new ReplyTable<>(ReplyTable.SIZE - 2);
+        Assert.assertEquals(ReplyTable.SIZE - 2, table.add("a", 100));
+        Assert.assertEquals(ReplyTable.SIZE - 1, table.add("b", 100));
+        // -- Wraps around.
+        Assert.assertEquals(0, table.add("c", 100));
+        Assert.assertEquals("b", table.get(ReplyTable.SIZE - 1));
+        Assert.assertEquals(3, table.size());
+
+        Assert.assertEquals("c", table.remove(0));
+        Assert.assertNull(table.remove(0));
+        // -- A stale owner does not remove the new entry of the reference.
+        Assert.assertFalse(table.remove(ReplyTable.SIZE - 1, "x"));
+        Assert.assertTrue(table.remove(ReplyTable.SIZE - 1, "b"));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void skipsReferencesInUse() {
+        ReplyTable<Integer> table = new ReplyTable<>(0);
+        for (int i = 0; i < ReplyTable.SIZE; i++) {
+            Assert.assertEquals(i, table.add(i, 100));
+        }
+        try {
+            table.add(-1, 100);
+            Assert.fail("Table should be full.");
+        }
+        catch (IllegalStateException e) {
+            // -- Expected.
+        }
+        table.remove(10);
+        table.remove(5);
+        // -- Next free after the last allocated one, not the lowest one.
+        Assert.assertEquals(5, table.add(-1, 100));
+        Assert.assertEquals(10, table.add(-1, 100));
+    }
+
+    @Test
+    public void expiry() {
+        ReplyTable<String> table = new ReplyTable<>(0);
+        table.add("early", 100);
+        table.add("late", 300);
+        table.add("removed", 50);
+        table.remove(2);
+        // -- The removed entry does not hold back the next expiry.
+        Assert.assertEquals(100, table.getNextExpiry());
+
+        Assert.assertTrue(table.expire(99).isEmpty());
+        Assert.assertEquals(100, table.getNextExpiry());
+        List<String> expired = table.expire(100);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertEquals("early", expired.get(0));
+        Assert.assertEquals(300, table.getNextExpiry());
+        Assert.assertEquals("late", table.get(1));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void reusedReferenceExpiry() {
+        ReplyTable<String> table = new ReplyTable<>(0);
+        for (int i = 0; i < ReplyTable.SIZE; i++) {
+            table.add("answered", 100);
+            table.remove(i);
+        }
+        Assert.assertEquals(Long.MAX_VALUE, table.getNextExpiry());
+        // -- The reference 0 is used again, the expiry of its previous entry does not apply.
+        Assert.assertEquals(0, table.add("new", 500));
+        Assert.assertTrue(table.expire(100).isEmpty());
+        Assert.assertEquals(500, table.getNextExpiry());
+        Assert.assertEquals("new", table.expire(500).get(0));
+    }
+
+    @Test
+    public void expiryOrderAfterRandomRemovals() {
+        ReplyTable<Long> table = new ReplyTable<>(0);
+        Random random = new Random(42);
+        List<Integer> references = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long expiryTime = random.nextInt(10000);
+            references.add(table.add(expiryTime, expiryTime));
+        }
+        for (int i = 0; i < 500; i++) {
+            table.remove(references.remove(random.nextInt(references.size())));
+        }
+        long last = -1;
+        List<Long> expired = table.expire(Long.MAX_VALUE - 1);
+        Assert.assertEquals(500, expired.size());
+        for (Long expiryTime : expired) {
+            Assert.assertTrue("Expired in order of expiry time", expiryTime >= last);
+            last = expiryTime;
+        }
+        Assert.assertEquals(0, table.size());
+        Assert.assertEquals(Long.MAX_VALUE, table.getNextExpiry());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Test methods for the timing wheel.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 7/6/15</p>
+ */
+public class TimingWheelTest {
+
+    @Test
+    public void runsAtDeadline() {
+        List<String> fired = new ArrayList<>();
+        TimingWheel wheel = new TimingWheel(8, 10, 1000);
+        TimingWheel.Timeout a = new TimingWheel.Timeout(() -> fired.add("a"));
+        TimingWheel.Timeout b = new TimingWheel.Timeout(() -> fired.add("b"));
+        wheel.schedule(a, 1025);
+        // -- More than a revolution away.
+        wheel.schedule(b, 1205);
+        Assert.assertEquals(1030, wheel.getNextDeadline());
+
+        Assert.assertEquals(0, wheel.advance(1025));
+        Assert.assertEquals(1, wheel.advance(1030));
+        Assert.assertEquals("[a]", fired.toString());
+        Assert.assertFalse(wheel.isScheduled(a));
+        Assert.assertEquals(1210, wheel.getNextDeadline());
+
+        // -- Passing the bucket of b in the first revolution does not run it.
+        Assert.assertEquals(0, wheel.advance(1150));
+        Assert.assertEquals(1, wheel.advance(1300));
+        Assert.assertEquals("[a, b]", fired.toString());
+        Assert.assertEquals(0, wheel.size());
+        Assert.assertEquals(Long.MAX_VALUE, wheel.getNextDeadline());
+    }
+
+    @Test
+    public void rescheduleAndCancel() {
+        List<String> fired = new ArrayList<>();
+        TimingWheel wheel = new TimingWheel(8, 10, 0);
+        TimingWheel.Timeout[] repeating = new TimingWheel.Timeout[1];
+        repeating[0] = new TimingWheel.Timeout(() -> {
+            fired.add("r");
+            wheel.schedule(repeating[0], 100);
+        });
+        TimingWheel.Timeout cancelled = new TimingWheel.Timeout(() -> fired.add("c"));
+        wheel.schedule(repeating[0], 20);
+        wheel.schedule(cancelled, 20);
+        // -- Moved before its deadline.
+        wheel.schedule(repeating[0], 40);
+        Assert.assertEquals(2, wheel.size());
+        Assert.assertTrue(wheel.cancel(cancelled));
+        Assert.assertFalse(wheel.cancel(cancelled));
+
+        Assert.assertEquals(0, wheel.advance(30));
+        Assert.assertEquals(1, wheel.advance(40));
+        Assert.assertTrue(wheel.isScheduled(repeating[0]));
+        // -- A long pause runs everything passed.
+        Assert.assertEquals(1, wheel.advance(5000));
+        Assert.assertEquals("[r, r]", fired.toString());
+        // -- Deadline in the past is run on the next tick.
+        Assert.assertEquals(5010, wheel.getNextDeadline());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>Reuses byte arrays in power of two size classes, from {@link #MIN_BUFFER_LENGTH} up to the maximal frame
+ * length of the layer. Larger arrays are allocated and dropped as usual.</p>
+ * <p>A pool is an arena owned by one thread (e.g. the send thread of a physical layer), it is not thread safe.
+ * Use {@link #threadLocal(int, int)} when several threads need buffers.</p>
+ * <p>With leak detection enabled, the pool remembers where each borrowed buffer was acquired, and complains about
+ * buffers released twice or not of this pool.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/22/15</p>
+ */
+public class BufferPool {
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(BufferPool.class);
+
+    public static final int MIN_BUFFER_LENGTH = 16;
+
+    private final int maxBufferLength;
+    private final int buffersPerClass;
+    private final ArrayDeque<byte[]>[] classes;
+    private long hits;
+    private long misses;
+    private long outstanding;
+    private Map<byte[], Throwable> borrowed;
+
+    /**
+     * @param maxBufferLength Largest array to be pooled, rounded up to a power of two.
+     * @param buffersPerClass Maximal number of free arrays kept for each size class.
+     */
+    public BufferPool(int maxBufferLength, int buffersPerClass) {
+        this.maxBufferLength = classLength(maxBufferLength);
+        this.buffersPerClass = buffersPerClass;
+        this.classes = newClasses(classIndex(this.maxBufferLength) + 1);
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<>(buffersPerClass);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<byte[]>[] newClasses(int count) {
+        return new ArrayDeque[count];
+    }
+
+    /**
+     * @return Pool for each thread using it.
+     */
+    public static ThreadLocal<BufferPool> threadLocal(int maxBufferLength, int buffersPerClass) {
+        return ThreadLocal.withInitial(() -> new BufferPool(maxBufferLength, buffersPerClass));
+    }
+
+    /**
+     * Remember the stack trace of each borrowed buffer, see {@link #reportLeaks()}. Meant for debugging.
+     */
+    public void setLeakDetection(boolean leakDetection) {
+        this.borrowed = leakDetection ? new IdentityHashMap<>() : null;
+    }
+
+    /**
+     * @return An array of at least the requested length. The content is not cleared.
+     */
+    public byte[] acquire(int minLength) {
+        byte[] buffer = null;
+        if(minLength <= maxBufferLength) {
+            buffer = classes[classIndex(classLength(minLength))].pollFirst();
+        }
+        if(buffer != null) {
+            hits += 1;
+        } else {
+            misses += 1;
+            buffer = new byte[minLength <= maxBufferLength ? classLength(minLength) : minLength];
+        }
+        outstanding += 1;
+        if(borrowed != null) {
+            borrowed.put(buffer, new Throwable("Buffer of " + buffer.length + " bytes acquired here"));
+        }
+        return buffer;
+    }
+
+    /**
+     * Give back a buffer acquired from this pool. The buffer must not be used by the caller any more.
+     */
+    public void release(byte[] buffer) {
+        if(borrowed != null) {
+            if(borrowed.remove(buffer) == null) {
+                throw new IllegalStateException("Buffer of " + buffer.length + " bytes is released twice, or was not acquired from this pool.");
+            }
+        }
+        outstanding -= 1;
+        int length = buffer.length;
+        if((length > maxBufferLength) || (length < MIN_BUFFER_LENGTH) || (Integer.bitCount(length) != 1)) {
+            return;
+        }
+        ArrayDeque<byte[]> free = classes[classIndex(length)];
+        if(free.size() < buffersPerClass) {
+            free.addFirst(buffer);
+        }
+    }
+
+    /**
+     * Log the acquire location of the buffers not released, when leak detection is enabled.
+     * @return Number of buffers not released.
+     */
+    public long reportLeaks() {
+        if(borrowed != null) {
+            for (Throwable acquiredAt : borrowed.values()) {
+                LOG.warn("Buffer is not released.", acquiredAt);
+            }
+        }
+        return outstanding;
+    }
+
+    private static int classLength(int length) {
+        if(length <= MIN_BUFFER_LENGTH) {
+            return MIN_BUFFER_LENGTH;
+        }
+        return Integer.highestOneBit(length - 1) << 1;
+    }
+
+    private static int classIndex(int classLength) {
+        return Integer.numberOfTrailingZeros(classLength) - Integer.numberOfTrailingZeros(MIN_BUFFER_LENGTH);
+    }
+
+    public int getMaxBufferLength() {
+        return maxBufferLength;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Number of buffers acquired and not yet released.
+     */
+    public long getOutstanding() {
+        return outstanding;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{hits=" + hits + ", misses=" + misses + ", outstanding=" + outstanding + "}";
+    }
+}
@@ -15,13 +15,25 @@ import java.util.Arrays;
 
 /**
  * <p>Similar to StringBuilder, this class helps you build byte arrays.</p>
+ * <p>A builder created with a {@link BufferPool} borrows its arrays from the pool, call {@link #release()} when
+ * the builder is not needed any more.</p>
  * <p>User: kelemenb
  * <br/>Date: 4/9/15</p>
  */
 public class ByteArrayBuilder {
-    byte[] value = new byte[10];
+    byte[] value;
     int count = 0;
+    private final BufferPool pool;
 
+    public ByteArrayBuilder() {
+        this.pool = null;
+        this.value = new byte[10];
+    }
+
+    public ByteArrayBuilder(BufferPool pool) {
+        this.pool = pool;
+        this.value = pool.acquire(BufferPool.MIN_BUFFER_LENGTH);
+    }
 
     private void ensureCapacityForLength(int minimumCapacity) {
         if (minimumCapacity - value.length > 0) {
@@ -40,7 +52,14 @@ public class ByteArrayBuilder {
             }
             newCapacity = Integer.MAX_VALUE;
         }
-        value = Arrays.copyOf(value, newCapacity);
+        if(pool != null) {
+            byte[] newValue = pool.acquire(newCapacity);
+            System.arraycopy(value, 0, newValue, 0, count);
+            pool.release(value);
+            value = newValue;
+        } else {
+            value = Arrays.copyOf(value, newCapacity);
+        }
     }
 
     public ByteArrayBuilder append1(int toAppend) {
@@ -148,8 +167,59 @@ public class ByteArrayBuilder {
         return this;
     }
 
+    /**
+     * Appends the unsigned value in 7 bit groups, lowest group first.
+     */
+    public ByteArrayBuilder appendVarint(long toAppend) {
+        long v = toAppend & 0xFFFFFFFFL;
+        while(v >= 0x80) {
+            this.append((byte)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        this.append((byte)v);
+        return this;
+    }
+
+    /**
+     * Appends the signed value zigzag encoded as a varint.
+     */
+    public ByteArrayBuilder appendSignedVarint(long toAppend) {
+        return this.appendVarint(zigzag(toAppend));
+    }
+
+    static long zigzag(long value) {
+        int v = (int)value;
+        return ((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return Number of bytes of the unsigned value as a varint.
+     */
+    static int getVarintLength(long value) {
+        long v = value & 0xFFFFFFFFL;
+        int length = 1;
+        while(v >= 0x80) {
+            v >>>= 7;
+            length += 1;
+        }
+        return length;
+    }
+
+    /**
+     * Start building again, the array already allocated is reused.
+     */
     public void clear() {
-        value = new byte[10];
+        count = 0;
+    }
+
+    /**
+     * Give back the array to the pool. The builder must not be used afterwards.
+     */
+    public void release() {
+        if((pool != null) && (value != null)) {
+            pool.release(value);
+        }
+        value = null;
         count = 0;
     }
 
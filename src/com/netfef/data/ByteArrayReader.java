@@ -11,6 +11,9 @@
 
 package com.netfef.data;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * <p>Helps to ready values out of a string array.</p>
  * <p>User: kelemenb
@@ -28,6 +31,33 @@ public class ByteArrayReader {
         this.offset = 0;
     }
 
+    /**
+     * Read only a slice of the array.
+     */
+    public ByteArrayReader(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.length = offset + length;
+        this.offset = offset;
+    }
+
+    /**
+     * @return Absolute position of the next byte to read.
+     */
+    int getPosition() {
+        return offset;
+    }
+
+    byte[] getArray() {
+        return bytes;
+    }
+
+    void skip(int len) {
+        if(offset + len > length) {
+            throw new IndexOutOfBoundsException("Trying to skip " + len + " byte(s) from position " + offset + ", but array is only " + length + " long.");
+        }
+        offset += len;
+    }
+
     public byte readByte() {
         if(offset >= length) {
             throw new IndexOutOfBoundsException("Trying to read from position " + offset + ", but array is only " + length + " long.");
@@ -40,39 +70,18 @@ public class ByteArrayReader {
     }
 
 
-    private static int getInt2(byte b0, byte b1) {
+    static int getInt2(byte b0, byte b1) {
         int retVal = Byte.toUnsignedInt(b0) << 8 | Byte.toUnsignedInt(b1);
         return retVal;
     }
 
-    private static int getSignedInt2(byte b0, byte b1) {
-        int i0 = Byte.toUnsignedInt(b0);
-        int i1 = Byte.toUnsignedInt(b1);
-        int min = 1;
-        if((i0 & 0b10000000) > 0) {
-            i0 = i0 ^ 0b11111111;
-            i1 = i1 ^ 0b11111111;
-            min = -1;
-        }
-        int retVal = i0 << 8 | i1;
-        return min * (retVal + 1);
-    }
-
-    private static long getSignedInt4(byte b0, byte b1, byte b2, byte b3) {
-        int i0 = Byte.toUnsignedInt(b0);
-        int i1 = Byte.toUnsignedInt(b1);
-        int i2 = Byte.toUnsignedInt(b2);
-        int i3 = Byte.toUnsignedInt(b3);
-        long min = 1;
-        if((i0 & 0b10000000) > 0) {
-            i0 = i0 ^ 0b11111111;
-            i1 = i1 ^ 0b11111111;
-            i2 = i2 ^ 0b11111111;
-            i3 = i3 ^ 0b11111111;
-            min = -1;
-        }
-        long retVal =i3 | i2<<8 | i1<<16 | i0 <<24;
-        return min * (retVal + 1);
+    static int getSignedInt2(byte b0, byte b1) {
+        // -- Two's complement, positive values are not shifted.
+        return (short)(Byte.toUnsignedInt(b0) << 8 | Byte.toUnsignedInt(b1));
+    }
+
+    static long getSignedInt4(byte b0, byte b1, byte b2, byte b3) {
+        return (int)getInt4(b0, b1, b2, b3);
     }
 
     public char readChar() {
@@ -80,24 +89,51 @@ public class ByteArrayReader {
     }
 
     public int readInt1() {
-        return readByte();
+        return Byte.toUnsignedInt(readByte());
     }
 
+    /**
+     * Reads an ISO-8859-1 string straight from the array.
+     * @param length Length of the string including the ending '\0'.
+     */
     public String readString(int length) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < (length-1); i++) {
-            byte aByte = readByte();
-            sb.append((char)aByte);
+        if(offset + length > this.length) {
+            throw new IndexOutOfBoundsException("Trying to read " + length + " byte(s) from position " + offset + ", but array is only " + this.length + " long.");
+        }
+        String value = NetFefDataHelper.decodeString(bytes, offset, length - 1);
+        offset += length; // -- String should end with '\0'
+        return value;
+    }
+
+    /**
+     * @return Read only slice of the array, no bytes are copied.
+     */
+    public ByteBuffer readBlob(int length) {
+        if(offset + length > this.length) {
+            throw new IndexOutOfBoundsException("Trying to read " + length + " byte(s) from position " + offset + ", but array is only " + this.length + " long.");
+        }
+        ByteBuffer value = ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer();
+        offset += length;
+        return value;
+    }
+
+    /**
+     * @return Read only buffer holding a copy of the blob, stays valid when the array is reused.
+     */
+    public ByteBuffer readBlobCopy(int length) {
+        if(offset + length > this.length) {
+            throw new IndexOutOfBoundsException("Trying to read " + length + " byte(s) from position " + offset + ", but array is only " + this.length + " long.");
         }
-        readByte(); // -- String should end with '\0'
-        return sb.toString();
+        ByteBuffer value = ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)).asReadOnlyBuffer();
+        offset += length;
+        return value;
     }
 
     public long readInt4() {
-        return readInt4(readByte(), readByte(), readByte(), readByte());
+        return getInt4(readByte(), readByte(), readByte(), readByte());
     }
 
-    private long readInt4(byte b0, byte b1, byte b2, byte b3) {
+    static long getInt4(byte b0, byte b1, byte b2, byte b3) {
         long retVal = Byte.toUnsignedLong(b3) | Byte.toUnsignedLong(b2)<<8 | Byte.toUnsignedLong(b1)<<16 | Byte.toUnsignedLong(b0) <<24;
         return retVal;
     }
@@ -109,4 +145,47 @@ public class ByteArrayReader {
     public long readSignedInt4() {
         return getSignedInt4(readByte(), readByte(), readByte(), readByte());
     }
+
+    public long readVarint() {
+        int len = getVarintLength(bytes, offset, length);
+        long value = getVarint(bytes, offset);
+        offset += len;
+        return value;
+    }
+
+    public long readSignedVarint() {
+        return unzigzag(readVarint());
+    }
+
+    /**
+     * @return Number of bytes of the varint at the position.
+     */
+    static int getVarintLength(byte[] bytes, int position, int limit) {
+        for (int i = 0; i < 5; i++) {
+            if(position + i >= limit) {
+                throw new IndexOutOfBoundsException("Varint at position " + position + " exceeds the array length " + limit + ".");
+            }
+            if((bytes[position + i] & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Varint at position " + position + " is longer than 5 bytes.");
+    }
+
+    static long getVarint(byte[] bytes, int position) {
+        long value = 0;
+        int shift = 0;
+        byte aByte;
+        do {
+            aByte = bytes[position++];
+            value |= (long)(aByte & 0x7F) << shift;
+            shift += 7;
+        } while(((aByte & 0x80) != 0) && (shift < 35));
+        return value & 0xFFFFFFFFL;
+    }
+
+    static long unzigzag(long value) {
+        int v = (int)value;
+        return (v >>> 1) ^ -(v & 1);
+    }
 }
@@ -0,0 +1,285 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Writes values into a caller provided byte array slice, without any allocation.</p>
+ * <p>Unlike {@link ByteArrayBuilder} this class does not grow the provided array. Space can be reserved and filled
+ * later, the additive check sum of all written bytes is maintained on the fly. The CRC-16 is maintained as well when
+ * requested with {@link #trackCrc16()}, bytes set later or moved are accounted for without reading the whole slice
+ * again.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/2/15</p>
+ */
+public class ByteArrayWriter {
+
+    private byte[] bytes;
+    private int start;
+    private int limit;
+    private int position;
+    private int sum;
+    private boolean crc16;
+    private int crc;
+    private boolean growable;
+
+    public ByteArrayWriter() {
+    }
+
+    /**
+     * Writer with an own array, that grows when needed.
+     */
+    public ByteArrayWriter(int initialCapacity) {
+        this.reset(new byte[initialCapacity], 0, initialCapacity);
+        this.growable = true;
+    }
+
+    public ByteArrayWriter(byte[] bytes, int offset, int length) {
+        this.reset(bytes, offset, length);
+    }
+
+    /**
+     * Start writing into a new slice.
+     * @param bytes Target array.
+     * @param offset First position to write.
+     * @param length Maximal number of bytes available in the slice.
+     * @return This writer.
+     */
+    public ByteArrayWriter reset(byte[] bytes, int offset, int length) {
+        if((offset < 0) || (length < 0) || (offset + length > bytes.length)) {
+            throw new IndexOutOfBoundsException("Slice " + offset + "+" + length + " is out of array with length " + bytes.length + ".");
+        }
+        this.bytes = bytes;
+        this.start = offset;
+        this.limit = offset + length;
+        this.position = offset;
+        this.sum = 0;
+        this.crc16 = false;
+        this.crc = Crc16.INITIAL;
+        this.growable = false;
+        return this;
+    }
+
+    /**
+     * Maintain the CRC-16 of the slice too, see {@link #getCrc16()}. Must be called before writing into the slice.
+     */
+    public void trackCrc16() {
+        if(position != start) {
+            throw new IllegalStateException("CRC-16 tracking must be started before writing.");
+        }
+        this.crc16 = true;
+        this.crc = Crc16.INITIAL;
+    }
+
+    private void ensureSpace(int len) {
+        if(growable && (position + len > limit)) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + len));
+            limit = bytes.length;
+        }
+        if(position + len > limit) {
+            throw new IndexOutOfBoundsException("Trying to write " + len + " byte(s) to position " + (position - start) + ", but slice is only " + (limit - start) + " long.");
+        }
+    }
+
+    public ByteArrayWriter write1(int value) {
+        ensureSpace(1);
+        put((byte)value);
+        return this;
+    }
+
+    public ByteArrayWriter write(char value) {
+        return write1(value);
+    }
+
+    public ByteArrayWriter write2(int value) {
+        ensureSpace(2);
+        put((byte)(value >> 8));
+        put((byte)value);
+        return this;
+    }
+
+    public ByteArrayWriter write4(long value) {
+        ensureSpace(4);
+        put((byte)(value >> 24));
+        put((byte)(value >> 16));
+        put((byte)(value >> 8));
+        put((byte)value);
+        return this;
+    }
+
+    /**
+     * Writes the unsigned 32 bit value as a varint.
+     */
+    public ByteArrayWriter writeVarint(long value) {
+        long v = value & 0xFFFFFFFFL;
+        ensureSpace(ByteArrayBuilder.getVarintLength(v));
+        while(v >= 0x80) {
+            put((byte)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        put((byte)v);
+        return this;
+    }
+
+    public ByteArrayWriter write(byte[] value) {
+        ensureSpace(value.length);
+        for (byte aByte : value) {
+            put(aByte);
+        }
+        return this;
+    }
+
+    public ByteArrayWriter write(byte[] value, int offset, int len) {
+        ensureSpace(len);
+        for (int i = offset; i < offset + len; i++) {
+            put(value[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer, without changing its position.
+     */
+    public ByteArrayWriter write(ByteBuffer value) {
+        int len = value.remaining();
+        ensureSpace(len);
+        for (int i = value.position(); i < value.limit(); i++) {
+            put(value.get(i));
+        }
+        return this;
+    }
+
+    /**
+     * Writes the characters of the string as ISO-8859-1 bytes (without the ending '\0').
+     */
+    public ByteArrayWriter writeChars(String value) {
+        int len = value.length();
+        ensureSpace(len);
+        for (int i = 0; i < len; i++) {
+            put((byte)value.charAt(i));
+        }
+        return this;
+    }
+
+    private void put(byte value) {
+        bytes[position++] = value;
+        sum += value & 0xFF;
+        if(crc16) {
+            crc = Crc16.update(crc, value);
+        }
+    }
+
+    /**
+     * Skip bytes to be filled later with the set methods.
+     * @return Absolute position of the reserved area.
+     */
+    public int reserve(int len) {
+        ensureSpace(len);
+        int reserved = position;
+        for (int i = 0; i < len; i++) {
+            bytes[position++] = 0;
+            if(crc16) {
+                crc = Crc16.update(crc, (byte)0);
+            }
+        }
+        return reserved;
+    }
+
+    /**
+     * Make room for bytes at a position already written, by moving the bytes after it.
+     */
+    public void insert(int absolutePosition, int len) {
+        ensureSpace(len);
+        if(crc16) {
+            // -- Roll back the CRC over the moved bytes, and calculate it again after moving them.
+            for (int i = position - 1; i >= absolutePosition; i--) {
+                crc = Crc16.revert(crc, bytes[i]);
+            }
+        }
+        System.arraycopy(bytes, absolutePosition, bytes, absolutePosition + len, position - absolutePosition);
+        for (int i = absolutePosition; i < absolutePosition + len; i++) {
+            bytes[i] = 0;
+        }
+        position += len;
+        if(crc16) {
+            crc = Crc16.update(crc, bytes, absolutePosition, position - absolutePosition);
+        }
+    }
+
+    /**
+     * Drop the bytes written from the position on, to be written again.
+     */
+    public void truncate(int absolutePosition) {
+        if((absolutePosition < start) || (absolutePosition > position)) {
+            throw new IndexOutOfBoundsException("Position " + (absolutePosition - start) + " is out of the written bytes.");
+        }
+        while(position > absolutePosition) {
+            byte value = bytes[--position];
+            sum -= value & 0xFF;
+            if(crc16) {
+                crc = Crc16.revert(crc, value);
+            }
+        }
+    }
+
+    public void set1(int absolutePosition, int value) {
+        byte previous = bytes[absolutePosition];
+        sum -= previous & 0xFF;
+        bytes[absolutePosition] = (byte)value;
+        sum += value & 0xFF;
+        if(crc16) {
+            crc ^= Crc16.difference((byte)(previous ^ value), position - absolutePosition - 1);
+        }
+    }
+
+    public void set2(int absolutePosition, int value) {
+        set1(absolutePosition, value >> 8);
+        set1(absolutePosition + 1, value);
+    }
+
+    /**
+     * @return Absolute position of the next byte to write.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return Number of bytes written to the slice.
+     */
+    public int getLength() {
+        return position - start;
+    }
+
+    /**
+     * @return Lowest 8 bits of the sum of all the bytes in the slice.
+     */
+    public byte getSum() {
+        return (byte)sum;
+    }
+
+    /**
+     * @return CRC-16 of all the bytes in the slice, if tracked since the slice was reset.
+     */
+    public int getCrc16() {
+        if(!crc16) {
+            throw new IllegalStateException("CRC-16 is not tracked.");
+        }
+        return crc;
+    }
+
+    public byte[] getArray() {
+        return bytes;
+    }
+}
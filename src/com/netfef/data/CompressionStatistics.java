@@ -0,0 +1,114 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Counters of the parameter compression: how much the compressed parameters shrunk, how often compression did not
+ * pay off, and the CPU time spent.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/22/15</p>
+ */
+public class CompressionStatistics {
+    private final LongAdder compressions = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressions = new LongAdder();
+    private final LongAdder decompressedBytes = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * @param compressedLength Length of the compressed data, or -1 if it was not shorter.
+     */
+    void recordCompression(int rawLength, int compressedLength, long nanos) {
+        compressNanos.add(nanos);
+        if(compressedLength < 0) {
+            fallbacks.increment();
+        } else {
+            compressions.increment();
+            rawBytes.add(rawLength);
+            compressedBytes.add(compressedLength);
+        }
+    }
+
+    void recordDecompression(int rawLength, long nanos) {
+        decompressions.increment();
+        decompressedBytes.add(rawLength);
+        decompressNanos.add(nanos);
+    }
+
+    /**
+     * @return Number of parameters sent compressed.
+     */
+    public long getCompressions() {
+        return compressions.sum();
+    }
+
+    /**
+     * @return Number of parameters sent plain, as compression would not have made them shorter.
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * @return Compressed size per original size of the parameters sent compressed, 1 if there was none.
+     */
+    public double getCompressionRatio() {
+        long raw = rawBytes.sum();
+        return raw == 0 ? 1 : (double)compressedBytes.sum() / raw;
+    }
+
+    /**
+     * @return Time spent compressing, including the attempts that fell back to plain encoding.
+     */
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getDecompressions() {
+        return decompressions.sum();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    /**
+     * @return Average decompression time of a byte.
+     */
+    public double getDecompressNanosPerByte() {
+        long bytes = decompressedBytes.sum();
+        return bytes == 0 ? 0 : (double)decompressNanos.sum() / bytes;
+    }
+
+    public void reset() {
+        compressions.reset();
+        fallbacks.reset();
+        rawBytes.reset();
+        compressedBytes.reset();
+        compressNanos.reset();
+        decompressions.reset();
+        decompressedBytes.reset();
+        decompressNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStatistics{compressions=" + getCompressions() + ", fallbacks=" + getFallbacks()
+                + ", ratio=" + String.format("%.2f", getCompressionRatio()) + ", compressMs=" + (getCompressNanos() / 1000000)
+                + ", decompressions=" + getDecompressions() + ", decompressNsPerByte=" + String.format("%.1f", getDecompressNanosPerByte()) + "}";
+    }
+}
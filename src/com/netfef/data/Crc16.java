@@ -0,0 +1,107 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.data;
+
+/**
+ * <p>Table driven CRC-16 (CCITT polynomial 0x1021, initial value 0xFFFF, no final xor).</p>
+ * <p>The CRC is written to the end of the frame high byte first, so the CRC calculated over a whole valid frame,
+ * including its CRC, is 0. This lets a receiver update the CRC byte by byte as the frame arrives.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/21/15</p>
+ */
+public final class Crc16 {
+    public static final int INITIAL = 0xFFFF;
+    private static final int POLYNOMIAL = 0x1021;
+    private static final int[] TABLE = new int[256];
+    /** Table index by the low byte of the table entry, the low bytes are all different. */
+    private static final int[] REVERSE = new int[256];
+    /** Effect of 2^i zero bytes on the CRC: x^(8*2^i) modulo the polynomial. */
+    private static final int[] ZERO_SHIFTS = new int[31];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLE[i] = crc & 0xFFFF;
+            REVERSE[crc & 0xFF] = i;
+        }
+        ZERO_SHIFTS[0] = 0x100;
+        for (int i = 1; i < ZERO_SHIFTS.length; i++) {
+            ZERO_SHIFTS[i] = multiply(ZERO_SHIFTS[i - 1], ZERO_SHIFTS[i - 1]);
+        }
+    }
+
+    private Crc16() {
+    }
+
+    public static int update(int crc, byte value) {
+        return ((crc << 8) ^ TABLE[((crc >> 8) ^ value) & 0xFF]) & 0xFFFF;
+    }
+
+    public static int update(int crc, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >> 8) ^ bytes[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    public static int calculate(byte[] bytes, int offset, int length) {
+        return update(INITIAL, bytes, offset, length);
+    }
+
+    /**
+     * Undo {@link #update(int, byte)}.
+     * @param crc The CRC after the value.
+     * @param value The last byte the CRC was updated with.
+     * @return The CRC before the value.
+     */
+    public static int revert(int crc, byte value) {
+        int index = REVERSE[crc & 0xFF];
+        return ((index ^ value) & 0xFF) << 8 | (((crc >> 8) ^ (TABLE[index] >> 8)) & 0xFF);
+    }
+
+    /**
+     * Same as updating the CRC with zero bytes, without iterating over them.
+     */
+    public static int shift(int crc, int zeroBytes) {
+        for (int i = 0; zeroBytes != 0; i++, zeroBytes >>>= 1) {
+            if((zeroBytes & 1) != 0) {
+                crc = multiply(crc, ZERO_SHIFTS[i]);
+            }
+        }
+        return crc;
+    }
+
+    /**
+     * Change of the CRC when a byte is changed, that is followed by the given number of bytes. As the CRC is
+     * linear, the CRC of the changed bytes is the original one xor this value.
+     * @param difference Xor of the original and the new value of the byte.
+     */
+    public static int difference(byte difference, int followingBytes) {
+        return shift(TABLE[difference & 0xFF], followingBytes);
+    }
+
+    /**
+     * Multiplication of polynomials over GF(2), modulo the CRC polynomial.
+     */
+    private static int multiply(int a, int b) {
+        int product = 0;
+        for (int bit = 15; bit >= 0; bit--) {
+            product = (product & 0x8000) != 0 ? ((product << 1) ^ POLYNOMIAL) & 0xFFFF : product << 1;
+            if(((b >> bit) & 1) != 0) {
+                product ^= a;
+            }
+        }
+        return product;
+    }
+}
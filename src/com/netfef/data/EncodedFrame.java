@@ -0,0 +1,207 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import com.netfef.util.FormatHelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Immutable wire bytes of a frame, encoded once and sent as many times as needed (e.g. on retries).</p>
+ * <p>An encoded frame can also be used as a template: the target address and integer values can be patched
+ * into a copy, with the check sum adjusted, without encoding the frame again. The CRC-16 of a frame encoded in
+ * CRC mode is calculated again for the copy.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/12/15</p>
+ */
+public final class EncodedFrame {
+    private final byte[] bytes;
+    private FrameView view;
+
+    EncodedFrame(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Encode the frame. The frame object is not modified.
+     * @param frame Frame to be encoded.
+     * @param myAddress Sender address to be written, or null to use the sender address of the frame.
+     */
+    public static EncodedFrame encode(Frame frame, byte[] myAddress) {
+        return encode(frame, myAddress, new FrameEncoder());
+    }
+
+    /**
+     * Encode the frame with the options of the encoder (e.g. compression).
+     */
+    public static EncodedFrame encode(Frame frame, byte[] myAddress, FrameEncoder encoder) {
+        return new EncodedFrame(encoder.encode(frame, myAddress));
+    }
+
+    public int getLength() {
+        return bytes.length;
+    }
+
+    /**
+     * Copy the wire bytes to the target array.
+     */
+    public void copyTo(byte[] target, int offset) {
+        System.arraycopy(bytes, 0, target, offset, bytes.length);
+    }
+
+    /**
+     * @return Read only buffer of the wire bytes, without copying them.
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return True if the bytes in the array slice are the same as the bytes of this frame.
+     */
+    public boolean contentEquals(byte[] other, int offset, int length) {
+        if(length != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if(bytes[i] != other[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return View reading the values of this frame in place.
+     */
+    public FrameView getView() {
+        if(view == null) {
+            view = new FrameView(bytes, 0, bytes.length);
+        }
+        return view;
+    }
+
+    public Frame toFrame() {
+        return getView().toFrame();
+    }
+
+    public byte[] getTargetAddress() {
+        return getView().getTargetAddress();
+    }
+
+    public boolean hasParameter(char parameterName) {
+        return getView().hasParameter(parameterName);
+    }
+
+    /**
+     * @return Copy of this frame sent to another address.
+     */
+    public EncodedFrame withTargetAddress(byte[] targetAddress) {
+        int oldAddressLength = bytes[2] & NetFefDataHelper.ADDRESS_LENGTH_MASK;
+        if(oldAddressLength == targetAddress.length) {
+            byte[] patched = bytes.clone();
+            for (int i = 0; i < targetAddress.length; i++) {
+                set(patched, 3 + i, targetAddress[i]);
+            }
+            return sealed(patched);
+        }
+
+        // -- Address length differs, the rest of the frame is moved.
+        byte[] patched = new byte[bytes.length - oldAddressLength + targetAddress.length];
+        patched[0] = (byte)(patched.length >> 8);
+        patched[1] = (byte)patched.length;
+        patched[2] = (byte)(targetAddress.length | (bytes[2] & NetFefDataHelper.CRC16_FLAG));
+        System.arraycopy(targetAddress, 0, patched, 3, targetAddress.length);
+        System.arraycopy(bytes, 3 + oldAddressLength, patched, 3 + targetAddress.length, bytes.length - 3 - oldAddressLength);
+        if(!NetFefDataHelper.isCrc16(patched, 0)) {
+            int sum = 0;
+            for (int i = 0; i < patched.length - 1; i++) {
+                sum += patched[i] & 0xFF;
+            }
+            patched[patched.length - 1] = (byte)sum;
+        }
+        return sealed(patched);
+    }
+
+    /**
+     * @return Copy of this frame with the value of the first parameter with the name replaced.
+     * @throws IllegalArgumentException If there is no such parameter.
+     * @throws IllegalStateException If the parameter is not an 'i' or 'I' parameter.
+     */
+    public EncodedFrame withIntValue(char parameterName, int value) {
+        int valuePosition = getIntValuePosition(parameterName);
+        byte[] patched = bytes.clone();
+        set(patched, valuePosition, (byte)(value >> 8));
+        set(patched, valuePosition + 1, (byte)value);
+        return sealed(patched);
+    }
+
+    /**
+     * Same as {@link #withTargetAddress(byte[])} followed by {@link #withIntValue(char, int)}, but with a single
+     * copy, and the parameter located only once when this frame is used as a template for many targets.
+     */
+    public EncodedFrame withTargetAddressAndIntValue(byte[] targetAddress, char parameterName, int value) {
+        if((bytes[2] & NetFefDataHelper.ADDRESS_LENGTH_MASK) != targetAddress.length) {
+            return withTargetAddress(targetAddress).withIntValue(parameterName, value);
+        }
+        int valuePosition = getIntValuePosition(parameterName);
+        byte[] patched = bytes.clone();
+        for (int i = 0; i < targetAddress.length; i++) {
+            set(patched, 3 + i, targetAddress[i]);
+        }
+        set(patched, valuePosition, (byte)(value >> 8));
+        set(patched, valuePosition + 1, (byte)value);
+        return sealed(patched);
+    }
+
+    private int getIntValuePosition(char parameterName) {
+        FrameView frameView = getView();
+        int index = frameView.indexOf(parameterName);
+        if(index < 0) {
+            throw new IllegalArgumentException("Parameter '" + parameterName + "' not found.");
+        }
+        ParameterType parameterType = frameView.getParameterTypeAt(index);
+        if((parameterType != ParameterType.INTEGER) && (parameterType != ParameterType.SIGNED_INTEGER)) {
+            throw new IllegalStateException("Parameter '" + parameterName + "' is " + parameterType + ", not an integer.");
+        }
+        return frameView.getParameterPosition(index) + 2;
+    }
+
+    /**
+     * Change a byte and adjust the check sum at the end of the frame. In CRC mode the CRC is left for
+     * {@link #sealed(byte[])}.
+     */
+    private static void set(byte[] frameBytes, int position, byte value) {
+        if(!NetFefDataHelper.isCrc16(frameBytes, 0)) {
+            int last = frameBytes.length - 1;
+            frameBytes[last] = (byte)(frameBytes[last] - frameBytes[position] + value);
+        }
+        frameBytes[position] = value;
+    }
+
+    /**
+     * @return The patched bytes as a frame, with the CRC calculated again in CRC mode.
+     */
+    private static EncodedFrame sealed(byte[] frameBytes) {
+        if(NetFefDataHelper.isCrc16(frameBytes, 0)) {
+            int crc = Crc16.calculate(frameBytes, 0, frameBytes.length - 2);
+            frameBytes[frameBytes.length - 2] = (byte)(crc >> 8);
+            frameBytes[frameBytes.length - 1] = (byte)crc;
+        }
+        return new EncodedFrame(frameBytes);
+    }
+
+    @Override
+    public String toString() {
+        return FormatHelper.byteArrayToString(bytes);
+    }
+}
@@ -90,15 +90,7 @@ public class Frame extends Struct {
         sb.append(" Cmd:");
         sb.append(command);
         sb.append(" Params:[");
-        boolean first = true;
-        for (Parameter parameter : getParameters()) {
-            if(first) {
-                first = false;
-            } else {
-                sb.append(",");
-            }
-            sb.append(parameter.toString());
-        }
+        appendParameters(sb);
         sb.append("]");
         return sb.toString();
     }
@@ -125,9 +117,10 @@ public class Frame extends Struct {
 
     public void setParameters(List<Parameter> parameters) {
         for (Parameter parameter : parameters) {
-            if('s' == parameter.getParameterName()) {
+            // -- Only the first 's' and 'c' parameters are the subject and command.
+            if(('s' == parameter.getParameterName()) && (this.subject == null)) {
                 this.subject = parameter;
-            } else if('c' == parameter.getParameterName()) {
+            } else if(('c' == parameter.getParameterName()) && (this.command == null)) {
                 this.command = parameter;
             } else {
                 this.addParameter(parameter);
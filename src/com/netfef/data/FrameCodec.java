@@ -0,0 +1,543 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Typed encoder and decoder of a class annotated with {@link FrameSchema} (or of a struct class having only
+ * {@link FrameField} annotations). Values are written to and read from the wire format directly, without
+ * {@link Parameter} objects.</p>
+ * <p>The annotations are processed once per class, field accessors are compiled to method handles. Supported
+ * field types:</p>
+ * <ul>
+ *     <li>int and long: BYTE, INTEGER, SIGNED_INTEGER, LONG, SIGNED_LONG, VARINT or SIGNED_VARINT parameters,</li>
+ *     <li>boolean: BOOLEAN, char: CHAR, String: STRING1 or STRING2 parameters,</li>
+ *     <li>ByteBuffer: BLOB1 or BLOB2 parameters, decoded as a read only slice of the viewed bytes,</li>
+ *     <li>class with {@link FrameField} annotated fields: STRUCT1 or STRUCT2 parameters,</li>
+ *     <li>array of String, ByteBuffer or of struct classes: the parameter repeated for each element.</li>
+ * </ul>
+ * <p>Missing parameters leave the field with the value set by the constructor. A codec is thread safe.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/15/15</p>
+ */
+public final class FrameCodec<T> {
+
+    private static final ClassValue<FrameCodec<?>> CODECS = new ClassValue<FrameCodec<?>>() {
+        @Override
+        protected FrameCodec<?> computeValue(Class<?> type) {
+            return new FrameCodec<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final FrameSchema schema;
+    private final MethodHandle constructor;
+    private final FieldCodec[] fields;
+
+    @SuppressWarnings("unchecked")
+    public static <T> FrameCodec<T> forClass(Class<T> type) {
+        return (FrameCodec<T>)CODECS.get(type);
+    }
+
+    private FrameCodec(Class<T> type) {
+        this.type = type;
+        this.schema = type.getAnnotation(FrameSchema.class);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<T> declaredConstructor = type.getDeclaredConstructor();
+            declaredConstructor.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(declaredConstructor).asType(MethodType.methodType(Object.class));
+        }
+        catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Class " + type.getName() + " should have a no argument constructor.", e);
+        }
+        List<FieldCodec> fieldCodecs = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            FrameField frameField = field.getAnnotation(FrameField.class);
+            if(frameField == null) {
+                continue;
+            }
+            if(Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+                throw new IllegalArgumentException("Field " + field + " should not be static or final.");
+            }
+            if((schema != null) && ((frameField.name() == 's') || (frameField.name() == 'c'))) {
+                throw new IllegalArgumentException("Field " + field + ": parameters 's' and 'c' are the subject and command of the frame.");
+            }
+            field.setAccessible(true);
+            try {
+                fieldCodecs.add(createFieldCodec(field, frameField, lookup.unreflectGetter(field), lookup.unreflectSetter(field)));
+            }
+            catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Field " + field + " is not accessible.", e);
+            }
+        }
+        if(fieldCodecs.isEmpty()) {
+            throw new IllegalArgumentException("Class " + type.getName() + " has no field annotated with " + FrameField.class.getSimpleName() + ".");
+        }
+        this.fields = fieldCodecs.toArray(new FieldCodec[fieldCodecs.size()]);
+    }
+
+    private static FieldCodec createFieldCodec(Field field, FrameField frameField, MethodHandle getter, MethodHandle setter) {
+        char name = frameField.name();
+        ParameterType parameterType = frameField.type();
+        Class<?> fieldType = field.getType();
+        if((fieldType == int.class) || (fieldType == long.class)) {
+            requireType(field, parameterType, ParameterType.BYTE, ParameterType.INTEGER, ParameterType.SIGNED_INTEGER, ParameterType.LONG, ParameterType.SIGNED_LONG,
+                    ParameterType.VARINT, ParameterType.SIGNED_VARINT);
+            if(fieldType == int.class) {
+                return new IntFieldCodec(name, parameterType, getter, setter);
+            }
+            return new LongFieldCodec(name, parameterType, getter, setter);
+        } else if(fieldType == boolean.class) {
+            requireType(field, parameterType, ParameterType.BOOLEAN);
+            return new BooleanFieldCodec(name, parameterType, getter, setter);
+        } else if(fieldType == char.class) {
+            requireType(field, parameterType, ParameterType.CHAR);
+            return new CharFieldCodec(name, parameterType, getter, setter);
+        } else if(fieldType.isPrimitive() || (fieldType.isArray() && fieldType.getComponentType().isPrimitive())) {
+            throw new IllegalArgumentException("Field " + field + " has unsupported type " + fieldType.getName() + ".");
+        }
+
+        Class<?> valueType = fieldType.isArray() ? fieldType.getComponentType() : fieldType;
+        ValueCodec valueCodec;
+        if(valueType == String.class) {
+            requireType(field, parameterType, ParameterType.STRING1, ParameterType.STRING2);
+            valueCodec = new StringValueCodec(name, parameterType);
+        } else if(valueType == ByteBuffer.class) {
+            requireType(field, parameterType, ParameterType.BLOB1, ParameterType.BLOB2);
+            valueCodec = new BlobValueCodec(name, parameterType);
+        } else {
+            requireType(field, parameterType, ParameterType.STRUCT1, ParameterType.STRUCT2);
+            valueCodec = new StructValueCodec(name, parameterType, forClass(valueType));
+        }
+        MethodHandle objectGetter = getter.asType(MethodType.methodType(Object.class, Object.class));
+        MethodHandle objectSetter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        if(fieldType.isArray()) {
+            return new ArrayFieldCodec(name, parameterType, objectGetter, objectSetter, valueType, valueCodec);
+        }
+        return new ObjectFieldCodec(name, parameterType, objectGetter, objectSetter, valueCodec);
+    }
+
+    private static void requireType(Field field, ParameterType parameterType, ParameterType... allowed) {
+        for (ParameterType parameterType1 : allowed) {
+            if(parameterType1 == parameterType) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Field " + field + " can not be mapped to " + parameterType + ", use one of: " + Arrays.toString(allowed));
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return True if the frame has the subject and command of the schema.
+     */
+    public boolean matches(FrameView frameView) {
+        return (schema != null) && (frameView.getSubject() == schema.subject()) && (frameView.getCommand() == schema.command());
+    }
+
+    /**
+     * Encode the value as a frame into the array slice, ending with the additive check sum.
+     * @return Length of the encoded frame.
+     * @throws IndexOutOfBoundsException When the frame does not fit.
+     */
+    public int encode(T value, byte[] targetAddress, byte[] myAddress, byte[] buffer, int offset, int maxLength) {
+        return encode(value, targetAddress, myAddress, buffer, offset, maxLength, false);
+    }
+
+    /**
+     * Encode the value as a frame into the array slice, with the check mode of the encoder.
+     * @return Length of the encoded frame.
+     * @throws IndexOutOfBoundsException When the frame does not fit.
+     */
+    public int encode(T value, byte[] targetAddress, byte[] myAddress, byte[] buffer, int offset, int maxLength, FrameEncoder encoder) {
+        return encode(value, targetAddress, myAddress, buffer, offset, maxLength, encoder.isCrc16());
+    }
+
+    private int encode(T value, byte[] targetAddress, byte[] myAddress, byte[] buffer, int offset, int maxLength, boolean crc16) {
+        return encode(value, targetAddress, myAddress, new ByteArrayWriter(buffer, offset, maxLength), crc16);
+    }
+
+    /**
+     * Encode the value as a frame, ending with the additive check sum.
+     */
+    public EncodedFrame encode(T value, byte[] targetAddress, byte[] myAddress) {
+        return encode(value, targetAddress, myAddress, false);
+    }
+
+    /**
+     * Encode the value as a frame, with the check mode of the encoder.
+     */
+    public EncodedFrame encode(T value, byte[] targetAddress, byte[] myAddress, FrameEncoder encoder) {
+        return encode(value, targetAddress, myAddress, encoder.isCrc16());
+    }
+
+    private EncodedFrame encode(T value, byte[] targetAddress, byte[] myAddress, boolean crc16) {
+        ByteArrayWriter w = new ByteArrayWriter(64);
+        int length = encode(value, targetAddress, myAddress, w, crc16);
+        return new EncodedFrame(Arrays.copyOf(w.getArray(), length));
+    }
+
+    private int encode(T value, byte[] targetAddress, byte[] myAddress, ByteArrayWriter w, boolean crc16) {
+        FrameSchema frameSchema = requireSchema();
+        int countPosition = FrameEncoder.beginFrame(w, targetAddress, myAddress, crc16);
+        FrameEncoder.writeNumber(w, 's', ParameterType.CHAR, frameSchema.subject());
+        FrameEncoder.writeNumber(w, 'c', ParameterType.CHAR, frameSchema.command());
+        int count = 2 + writeFields(w, value);
+        return FrameEncoder.endFrame(w, countPosition, count, crc16);
+    }
+
+    /**
+     * Read the value from a received frame.
+     * @throws IllegalArgumentException If the frame has other subject or command than the schema.
+     */
+    public T decode(FrameView frameView) {
+        FrameSchema frameSchema = requireSchema();
+        if(!matches(frameView)) {
+            throw new IllegalArgumentException("Frame " + frameView.getSubject() + "/" + frameView.getCommand() + " does not match schema " + frameSchema.subject() + "/" + frameSchema.command() + " of " + type.getName() + ".");
+        }
+        // -- Skip the subject and command.
+        return read(frameView, 2);
+    }
+
+    /**
+     * Read the value from a struct.
+     */
+    public T decode(StructView structView) {
+        return read(structView, 0);
+    }
+
+    private FrameSchema requireSchema() {
+        if(schema == null) {
+            throw new IllegalStateException("Class " + type.getName() + " is not annotated with " + FrameSchema.class.getSimpleName() + ".");
+        }
+        return schema;
+    }
+
+    private int writeFields(ByteArrayWriter w, Object value) {
+        int count = 0;
+        try {
+            for (FieldCodec field : fields) {
+                count += field.write(w, value);
+            }
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException("Could not read fields of " + type.getName() + ".", e);
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T read(StructView structView, int firstIndex) {
+        try {
+            Object value = (Object)constructor.invokeExact();
+            for (FieldCodec field : fields) {
+                field.read(structView, firstIndex, value);
+            }
+            return (T)value;
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException("Could not create " + type.getName() + ".", e);
+        }
+    }
+
+    /**
+     * Maps a field to parameters.
+     */
+    private abstract static class FieldCodec {
+        final char name;
+        final ParameterType parameterType;
+
+        FieldCodec(char name, ParameterType parameterType) {
+            this.name = name;
+            this.parameterType = parameterType;
+        }
+
+        /**
+         * @return Number of parameters written.
+         */
+        abstract int write(ByteArrayWriter w, Object target) throws Throwable;
+
+        abstract void read(StructView structView, int firstIndex, Object target) throws Throwable;
+    }
+
+    private static class IntFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        IntFieldCodec(char name, ParameterType parameterType, MethodHandle getter, MethodHandle setter) {
+            super(name, parameterType);
+            this.getter = getter.asType(MethodType.methodType(int.class, Object.class));
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, int.class));
+        }
+
+        @Override
+        int write(ByteArrayWriter w, Object target) throws Throwable {
+            FrameEncoder.writeNumber(w, name, parameterType, (int)getter.invokeExact(target));
+            return 1;
+        }
+
+        @Override
+        void read(StructView structView, int firstIndex, Object target) throws Throwable {
+            int index = structView.indexOf(name, firstIndex);
+            if(index >= 0) {
+                setter.invokeExact(target, (int)structView.getLongAt(index));
+            }
+        }
+    }
+
+    private static class LongFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        LongFieldCodec(char name, ParameterType parameterType, MethodHandle getter, MethodHandle setter) {
+            super(name, parameterType);
+            this.getter = getter.asType(MethodType.methodType(long.class, Object.class));
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, long.class));
+        }
+
+        @Override
+        int write(ByteArrayWriter w, Object target) throws Throwable {
+            FrameEncoder.writeNumber(w, name, parameterType, (long)getter.invokeExact(target));
+            return 1;
+        }
+
+        @Override
+        void read(StructView structView, int firstIndex, Object target) throws Throwable {
+            int index = structView.indexOf(name, firstIndex);
+            if(index >= 0) {
+                setter.invokeExact(target, structView.getLongAt(index));
+            }
+        }
+    }
+
+    private static class BooleanFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        BooleanFieldCodec(char name, ParameterType parameterType, MethodHandle getter, MethodHandle setter) {
+            super(name, parameterType);
+            this.getter = getter.asType(MethodType.methodType(boolean.class, Object.class));
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, boolean.class));
+        }
+
+        @Override
+        int write(ByteArrayWriter w, Object target) throws Throwable {
+            FrameEncoder.writeNumber(w, name, parameterType, (boolean)getter.invokeExact(target) ? 1 : 0);
+            return 1;
+        }
+
+        @Override
+        void read(StructView structView, int firstIndex, Object target) throws Throwable {
+            int index = structView.indexOf(name, firstIndex);
+            if(index >= 0) {
+                setter.invokeExact(target, structView.getBooleanAt(index));
+            }
+        }
+    }
+
+    private static class CharFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        CharFieldCodec(char name, ParameterType parameterType, MethodHandle getter, MethodHandle setter) {
+            super(name, parameterType);
+            this.getter = getter.asType(MethodType.methodType(char.class, Object.class));
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, char.class));
+        }
+
+        @Override
+        int write(ByteArrayWriter w, Object target) throws Throwable {
+            FrameEncoder.writeNumber(w, name, parameterType, (char)getter.invokeExact(target));
+            return 1;
+        }
+
+        @Override
+        void read(StructView structView, int firstIndex, Object target) throws Throwable {
+            int index = structView.indexOf(name, firstIndex);
+            if(index >= 0) {
+                setter.invokeExact(target, structView.getCharAt(index));
+            }
+        }
+    }
+
+    /**
+     * Field with a reference value, not written if null.
+     */
+    private static class ObjectFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final ValueCodec valueCodec;
+
+        ObjectFieldCodec(char name, ParameterType parameterType, MethodHandle getter, MethodHandle setter, ValueCodec valueCodec) {
+            super(name, parameterType);
+            this.getter = getter;
+            this.setter = setter;
+            this.valueCodec = valueCodec;
+        }
+
+        @Override
+        int write(ByteArrayWriter w, Object target) throws Throwable {
+            Object value = (Object)getter.invokeExact(target);
+            if(value == null) {
+                return 0;
+            }
+            valueCodec.write(w, value);
+            return 1;
+        }
+
+        @Override
+        void read(StructView structView, int firstIndex, Object target) throws Throwable {
+            int index = structView.indexOf(name, firstIndex);
+            if(index >= 0) {
+                setter.invokeExact(target, valueCodec.read(structView, index));
+            }
+        }
+    }
+
+    /**
+     * Array field, the parameter is repeated for each element.
+     */
+    private static class ArrayFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final Class<?> componentType;
+        private final ValueCodec valueCodec;
+
+        ArrayFieldCodec(char name, ParameterType parameterType, MethodHandle getter, MethodHandle setter, Class<?> componentType, ValueCodec valueCodec) {
+            super(name, parameterType);
+            this.getter = getter;
+            this.setter = setter;
+            this.componentType = componentType;
+            this.valueCodec = valueCodec;
+        }
+
+        @Override
+        int write(ByteArrayWriter w, Object target) throws Throwable {
+            Object[] values = (Object[])(Object)getter.invokeExact(target);
+            if(values == null) {
+                return 0;
+            }
+            int count = 0;
+            for (Object value : values) {
+                if(value != null) {
+                    valueCodec.write(w, value);
+                    count += 1;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        void read(StructView structView, int firstIndex, Object target) throws Throwable {
+            int index = structView.indexOf(name, firstIndex);
+            if(index < 0) {
+                return;
+            }
+            List<Object> values = new ArrayList<>();
+            while(index >= 0) {
+                values.add(valueCodec.read(structView, index));
+                index = structView.indexOf(name, index + 1);
+            }
+            Object[] array = (Object[])Array.newInstance(componentType, values.size());
+            setter.invokeExact(target, (Object)values.toArray(array));
+        }
+    }
+
+    /**
+     * Writes and reads a single parameter with a reference value.
+     */
+    private abstract static class ValueCodec {
+        final char name;
+        final ParameterType parameterType;
+
+        ValueCodec(char name, ParameterType parameterType) {
+            this.name = name;
+            this.parameterType = parameterType;
+        }
+
+        abstract void write(ByteArrayWriter w, Object value);
+
+        abstract Object read(StructView structView, int index);
+    }
+
+    private static class StringValueCodec extends ValueCodec {
+        StringValueCodec(char name, ParameterType parameterType) {
+            super(name, parameterType);
+        }
+
+        @Override
+        void write(ByteArrayWriter w, Object value) {
+            FrameEncoder.writeString(w, name, parameterType, (String)value);
+        }
+
+        @Override
+        Object read(StructView structView, int index) {
+            return structView.getStringAt(index);
+        }
+    }
+
+    private static class BlobValueCodec extends ValueCodec {
+        BlobValueCodec(char name, ParameterType parameterType) {
+            super(name, parameterType);
+        }
+
+        @Override
+        void write(ByteArrayWriter w, Object value) {
+            FrameEncoder.writeBlob(w, name, parameterType, (ByteBuffer)value);
+        }
+
+        @Override
+        Object read(StructView structView, int index) {
+            return structView.getBlobAt(index);
+        }
+    }
+
+    private static class StructValueCodec extends ValueCodec {
+        private final FrameCodec<?> codec;
+
+        StructValueCodec(char name, ParameterType parameterType, FrameCodec<?> codec) {
+            super(name, parameterType);
+            this.codec = codec;
+        }
+
+        @Override
+        void write(ByteArrayWriter w, Object value) {
+            int lengthPosition = FrameEncoder.beginStruct(w, name, parameterType);
+            FrameEncoder.endStruct(w, lengthPosition, parameterType, codec.writeFields(w, value));
+        }
+
+        @Override
+        Object read(StructView structView, int index) {
+            return codec.decode(structView.getStructAt(index));
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Encodes frames in one pass directly into a caller owned buffer.</p>
+ * <p>The frame length and the struct lengths are reserved and filled in when known, nested structs are written
+ * straight into the frame. The check sum is calculated while writing. An encoder instance is reusable, but not
+ * thread safe.</p>
+ * <p>In CRC-16 mode the CRC is calculated while writing as well, the lengths filled in after the values are written
+ * are accounted for without reading the frame again.</p>
+ * <p>Strings and structs are written with 2 bytes of length (s to S, t to T) when they do not fit into 1 byte of
+ * length.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/2/15</p>
+ */
+public class FrameEncoder {
+
+    private final ByteArrayWriter writer = new ByteArrayWriter();
+    private byte[] scratch;
+    private boolean compactNumbers = false;
+    private boolean compression = false;
+    private boolean crc16 = false;
+    private int minCompressedLength = DEFAULT_MIN_COMPRESSED_LENGTH;
+    private byte[] compressed;
+    private int structDepth;
+
+    /** STRING2 and STRUCT2 parameters shorter than this are not worth compressing. */
+    public static final int DEFAULT_MIN_COMPRESSED_LENGTH = 32;
+
+    /**
+     * When enabled, INTEGER, LONG and their signed variants are written as VARINT or SIGNED_VARINT if that is
+     * shorter for the value. Only enable it for peers that know the varint types.
+     */
+    public void setCompactNumbers(boolean compactNumbers) {
+        this.compactNumbers = compactNumbers;
+    }
+
+    public boolean isCompactNumbers() {
+        return compactNumbers;
+    }
+
+    /**
+     * When enabled, top level STRING2 and STRUCT2 parameters are written as COMPRESSED if that is shorter.
+     * Only enable it for peers that advertised the compression feature.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * When enabled, the frame ends with a CRC-16 instead of the additive check sum. Only enable it for peers that
+     * advertised the CRC-16 feature.
+     */
+    public void setCrc16(boolean crc16) {
+        this.crc16 = crc16;
+    }
+
+    public boolean isCrc16() {
+        return crc16;
+    }
+
+    /**
+     * @param minCompressedLength Compression is only tried for parameters having at least this many bytes of
+     *                            type and value.
+     */
+    public void setMinCompressedLength(int minCompressedLength) {
+        this.minCompressedLength = minCompressedLength;
+    }
+
+    /**
+     * Encode the frame into the array slice. Unlike {@link NetFefDataHelper#buildFrameBytes(Frame, byte[])},
+     * the frame object is not modified.
+     * @param frame Frame to be encoded.
+     * @param myAddress Sender address to be written, or null to use the sender address of the frame.
+     * @param buffer Target array.
+     * @param offset Position of the first byte of the frame within the array.
+     * @param maxLength Space available for the frame.
+     * @return Length of the encoded frame.
+     * @throws IndexOutOfBoundsException When the frame does not fit.
+     */
+    public int encode(Frame frame, byte[] myAddress, byte[] buffer, int offset, int maxLength) {
+        return encode(frame, myAddress, writer.reset(buffer, offset, maxLength));
+    }
+
+    /**
+     * Encode the frame into a new array of the exact frame size.
+     */
+    public byte[] encode(Frame frame, byte[] myAddress) {
+        ByteArrayWriter w = new ByteArrayWriter(64);
+        int length = encode(frame, myAddress, w);
+        return Arrays.copyOf(w.getArray(), length);
+    }
+
+    private int encode(Frame frame, byte[] myAddress, ByteArrayWriter w) {
+        byte[] senderAddress = myAddress != null ? myAddress : frame.getSenderAddress();
+        int countPosition = beginFrame(w, frame.getTargetAddress(), senderAddress, crc16);
+        writeParameter(w, frame.getSubject());
+        writeParameter(w, frame.getCommand());
+        int count = 2 + writeParameters(w, frame);
+        return endFrame(w, countPosition, count, crc16);
+    }
+
+    /**
+     * Writes the frame header, with the frame length and the parameter count reserved.
+     * @return Position of the parameter count.
+     */
+    static int beginFrame(ByteArrayWriter w, byte[] targetAddress, byte[] senderAddress, boolean crc16) {
+        if(targetAddress.length > NetFefDataHelper.ADDRESS_LENGTH_MASK) {
+            throw new IllegalArgumentException("Target address length " + targetAddress.length + " exceeds the maximal address length.");
+        }
+        if(crc16) {
+            w.trackCrc16();
+        }
+        w.reserve(2);
+        w.write1(crc16 ? targetAddress.length | NetFefDataHelper.CRC16_FLAG : targetAddress.length);
+        w.write(targetAddress);
+        w.write1(senderAddress.length);
+        w.write(senderAddress);
+        return w.reserve(1);
+    }
+
+    /**
+     * Fills in the parameter count and the frame length, and writes the check sum or the CRC.
+     * @return Length of the frame.
+     */
+    static int endFrame(ByteArrayWriter w, int countPosition, int count, boolean crc16) {
+        w.set1(countPosition, count);
+        int frameLength = w.getLength() + (crc16 ? 2 : 1);
+        if(frameLength > 0xFFFF) {
+            throw new IllegalArgumentException("Frame length " + frameLength + " exceeds the maximal frame length.");
+        }
+        int start = w.getPosition() - w.getLength();
+        w.set2(start, frameLength);
+        if(crc16) {
+            w.write2(w.getCrc16());
+        } else {
+            w.write1(w.getSum());
+        }
+        return w.getLength();
+    }
+
+    /**
+     * Encode the frame into the remaining space of the buffer, and advance the position of the buffer.
+     * Heap buffers are written directly, direct buffers through a reused scratch array.
+     * @return Length of the encoded frame.
+     */
+    public int encode(Frame frame, byte[] myAddress, ByteBuffer target) {
+        int length;
+        if(target.hasArray()) {
+            length = encode(frame, myAddress, target.array(), target.arrayOffset() + target.position(), target.remaining());
+            target.position(target.position() + length);
+        } else {
+            if((scratch == null) || (scratch.length < target.remaining())) {
+                scratch = new byte[target.remaining()];
+            }
+            length = encode(frame, myAddress, scratch, 0, target.remaining());
+            target.put(scratch, 0, length);
+        }
+        return length;
+    }
+
+    private int writeParameters(ByteArrayWriter w, Struct struct) {
+        int count = struct.getParameterCount();
+        for (int i = 0; i < count; i++) {
+            writeParameter(w, struct.getParameterAt(i));
+        }
+        return count;
+    }
+
+    private void writeParameter(ByteArrayWriter w, Parameter parameter) {
+        int start = w.getPosition();
+        writeParameterValue(w, parameter);
+        if(compression && (structDepth == 0)) {
+            compress(w, start);
+        }
+    }
+
+    private void writeParameterValue(ByteArrayWriter w, Parameter parameter) {
+        char parameterName = parameter.getParameterName();
+        ParameterType parameterType = parameter.getParameterType();
+        if(parameterType == ParameterType.BOOLEAN) {
+            writeNumber(w, parameterName, parameterType, parameter.getBooleanValue() ? 1 : 0);
+        } else if((parameterType == ParameterType.BYTE) || (parameterType == ParameterType.INTEGER) || (parameterType == ParameterType.SIGNED_INTEGER)) {
+            long value = parameter.getIntValue();
+            writeNumber(w, parameterName, compactNumbers ? compactType(parameterType, value) : parameterType, value);
+        } else if((parameterType == ParameterType.LONG) || (parameterType == ParameterType.SIGNED_LONG)
+                || (parameterType == ParameterType.VARINT) || (parameterType == ParameterType.SIGNED_VARINT)) {
+            long value = parameter.getLongValue();
+            writeNumber(w, parameterName, compactNumbers ? compactType(parameterType, value) : parameterType, value);
+        } else if(parameterType == ParameterType.CHAR) {
+            writeNumber(w, parameterName, parameterType, parameter.getChar());
+        } else if((parameterType == ParameterType.STRING1) || (parameterType == ParameterType.STRING2)) {
+            writeString(w, parameterName, parameterType, parameter.getStringValue());
+        } else if((parameterType == ParameterType.STRUCT1) || (parameterType == ParameterType.STRUCT2)) {
+            int lengthPosition = beginStruct(w, parameterName, parameterType);
+            structDepth += 1;
+            try {
+                endStruct(w, lengthPosition, parameterType, writeParameters(w, parameter.getStructValue()));
+            } finally {
+                structDepth -= 1;
+            }
+        } else if((parameterType == ParameterType.BLOB1) || (parameterType == ParameterType.BLOB2)) {
+            writeBlob(w, parameterName, parameterType, parameter.getBlobValue());
+        } else {
+            throw new UnsupportedOperationException("Parameter type " + parameterType + " is not implemented.");
+        }
+    }
+
+    /**
+     * Replaces the STRING2 or STRUCT2 parameter just written by a COMPRESSED one, if that is shorter.
+     * @param start Position of the parameter name.
+     */
+    private void compress(ByteArrayWriter w, int start) {
+        byte[] array = w.getArray();
+        char typeVisual = (char)(array[start + 1] & 0xFF);
+        if((typeVisual != ParameterType.STRING2.getVisual()) && (typeVisual != ParameterType.STRUCT2.getVisual())) {
+            return;
+        }
+        // -- Type and value are compressed, the name is kept.
+        int rawLength = w.getPosition() - start - 1;
+        if((rawLength < minCompressedLength) || (rawLength > 0xFFFF)) {
+            return;
+        }
+        if((compressed == null) || (compressed.length < rawLength)) {
+            compressed = new byte[rawLength];
+        }
+        // -- Compressed type, length and raw length take 5 bytes instead of the 1 byte type.
+        long startNanos = System.nanoTime();
+        int compressedLength = LzCompression.compress(array, start + 1, rawLength, compressed, 0, rawLength - 5);
+        LzCompression.getStatistics().recordCompression(rawLength, compressedLength, System.nanoTime() - startNanos);
+        if(compressedLength < 0) {
+            // -- Not shorter, stays plain.
+            return;
+        }
+        w.truncate(start + 1);
+        w.write(ParameterType.COMPRESSED.getVisual());
+        w.write2(compressedLength + 2);
+        w.write2(rawLength);
+        w.write(compressed, 0, compressedLength);
+    }
+
+    /**
+     * @return The varint type if the value is shorter that way, otherwise the type provided.
+     */
+    static ParameterType compactType(ParameterType parameterType, long value) {
+        if(parameterType == ParameterType.INTEGER) {
+            return ByteArrayBuilder.getVarintLength(value) < 2 ? ParameterType.VARINT : parameterType;
+        } else if(parameterType == ParameterType.LONG) {
+            return ByteArrayBuilder.getVarintLength(value) < 4 ? ParameterType.VARINT : parameterType;
+        } else if(parameterType == ParameterType.SIGNED_INTEGER) {
+            return ByteArrayBuilder.getVarintLength(ByteArrayBuilder.zigzag(value)) < 2 ? ParameterType.SIGNED_VARINT : parameterType;
+        } else if(parameterType == ParameterType.SIGNED_LONG) {
+            return ByteArrayBuilder.getVarintLength(ByteArrayBuilder.zigzag(value)) < 4 ? ParameterType.SIGNED_VARINT : parameterType;
+        }
+        return parameterType;
+    }
+
+    /**
+     * Writes a BOOLEAN, BYTE, CHAR, INTEGER, SIGNED_INTEGER, LONG, SIGNED_LONG, VARINT or SIGNED_VARINT parameter.
+     */
+    static void writeNumber(ByteArrayWriter w, char parameterName, ParameterType parameterType, long value) {
+        w.write(parameterName);
+        w.write(parameterType.getVisual());
+        if(parameterType == ParameterType.BOOLEAN) {
+            w.write(value != 0 ? '1' : '0');
+        } else if((parameterType == ParameterType.BYTE) || (parameterType == ParameterType.CHAR)) {
+            w.write1((int)value);
+        } else if((parameterType == ParameterType.INTEGER) || (parameterType == ParameterType.SIGNED_INTEGER)) {
+            w.write2((int)value);
+        } else if((parameterType == ParameterType.LONG) || (parameterType == ParameterType.SIGNED_LONG)) {
+            w.write4(value);
+        } else if(parameterType == ParameterType.VARINT) {
+            w.writeVarint(value);
+        } else if(parameterType == ParameterType.SIGNED_VARINT) {
+            w.writeVarint(ByteArrayBuilder.zigzag(value));
+        } else {
+            throw new IllegalArgumentException("Parameter type " + parameterType + " is not a number.");
+        }
+    }
+
+    /**
+     * Writes a string parameter, as STRING2 if it does not fit into STRING1.
+     */
+    static void writeString(ByteArrayWriter w, char parameterName, ParameterType parameterType, String value) {
+        int length = value.length() + 1;
+        if(length > 0xFFFF) {
+            throw new IllegalArgumentException("String '" + parameterName + "' is too long: " + value.length());
+        }
+        w.write(parameterName);
+        if((parameterType == ParameterType.STRING2) || (length > 0xFF)) {
+            w.write(ParameterType.STRING2.getVisual());
+            w.write2(length);
+        } else {
+            w.write(ParameterType.STRING1.getVisual());
+            w.write1(length);
+        }
+        w.writeChars(value);
+        w.write('\0');
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer as a blob parameter, as BLOB2 if it does not fit into BLOB1.
+     */
+    static void writeBlob(ByteArrayWriter w, char parameterName, ParameterType parameterType, ByteBuffer value) {
+        int length = value.remaining();
+        if(length > 0xFFFF) {
+            throw new IllegalArgumentException("Blob '" + parameterName + "' is too long: " + length);
+        }
+        w.write(parameterName);
+        if((parameterType == ParameterType.BLOB2) || (length > 0xFF)) {
+            w.write(ParameterType.BLOB2.getVisual());
+            w.write2(length);
+        } else {
+            w.write(ParameterType.BLOB1.getVisual());
+            w.write1(length);
+        }
+        w.write(value);
+    }
+
+    /**
+     * Writes the name and type of a struct parameter, and reserves its length and parameter count.
+     * The parameters are to be written next, followed by {@link #endStruct(ByteArrayWriter, int, ParameterType, int)}.
+     * @return Position of the struct length.
+     */
+    static int beginStruct(ByteArrayWriter w, char parameterName, ParameterType parameterType) {
+        w.write(parameterName);
+        w.write(parameterType.getVisual());
+        int lengthPosition = w.reserve(parameterType == ParameterType.STRUCT2 ? 2 : 1);
+        w.reserve(1);
+        return lengthPosition;
+    }
+
+    /**
+     * Fills in the parameter count and the length of the struct. A STRUCT1 is turned to STRUCT2 if its length
+     * does not fit into one byte.
+     */
+    static void endStruct(ByteArrayWriter w, int lengthPosition, ParameterType parameterType, int count) {
+        int countPosition = lengthPosition + (parameterType == ParameterType.STRUCT2 ? 2 : 1);
+        w.set1(countPosition, count);
+        int size = w.getPosition() - countPosition;
+        if(size > 0xFFFF) {
+            throw new IllegalArgumentException("Struct length " + size + " exceeds the maximal struct length.");
+        }
+        if(parameterType == ParameterType.STRUCT2) {
+            w.set2(lengthPosition, size);
+        } else if(size > 0xFF) {
+            // -- Does not fit, switch to 2 bytes of length.
+            w.insert(lengthPosition, 1);
+            w.set1(lengthPosition - 1, ParameterType.STRUCT2.getVisual());
+            w.set2(lengthPosition, size);
+        } else {
+            w.set1(lengthPosition, size);
+        }
+    }
+}
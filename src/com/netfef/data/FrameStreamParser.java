@@ -0,0 +1,249 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Push style parser cutting frames out of a byte stream as the bytes arrive.</p>
+ * <p>A frame is emitted as soon as its last byte is pushed, the 2 bytes length prefix tells where the frame ends.
+ * When the length is not plausible or the check sum does not match, the first byte is dropped and the parser tries
+ * to find a frame start in the following bytes, so noise on the line does not make the following frames lost.</p>
+ * <p>Both the additive check sum and the CRC-16 are updated as the bytes are pushed, the header of the frame
+ * tells which one to check. Dropping noise bytes takes constant time, the CRC is only calculated again when a
+ * candidate frame is complete.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/8/15</p>
+ */
+public class FrameStreamParser {
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(FrameStreamParser.class);
+
+    /** Length, addresses, parameter count, subject, command and check sum. */
+    public static final int MIN_FRAME_LENGTH = 12;
+
+    /**
+     * Called for each frame found in the stream.
+     */
+    public interface FrameListener {
+        /**
+         * @param frameView View of the frame. The view refers the internal buffer of the parser, that is only valid
+         *                  during this call. Use {@link FrameView#toFrame()} to keep the frame. Runtime exceptions
+         *                  are logged and counted, the frame is not emitted again.
+         */
+        void frameReceived(FrameView frameView);
+    }
+
+    private final byte[] buffer;
+    private final byte[] acceptAddress;
+    private final FrameListener listener;
+    /** Position of the first byte kept, bytes dropped from the front only move this. */
+    private int start = 0;
+    private int count = 0;
+    private int sum = 0;
+    /** CRC-16 of the bytes kept, or -1 after dropping bytes, calculated again only when a frame is complete. */
+    private int crc = Crc16.INITIAL;
+    private long framesReceived = 0;
+    private long bytesDropped = 0;
+    private long checkSumErrors = 0;
+    private long malformedFrames = 0;
+    private long listenerErrors = 0;
+
+    /**
+     * @param maxLen Maximal accepted frame length.
+     * @param acceptAddress Only frames for this address (or broadcast) are emitted. Null to emit all frames.
+     * @param listener Called for each frame found.
+     */
+    public FrameStreamParser(int maxLen, byte[] acceptAddress, FrameListener listener) {
+        this.buffer = new byte[maxLen];
+        this.acceptAddress = acceptAddress;
+        this.listener = listener;
+    }
+
+    public void push(byte[] bytes) {
+        push(bytes, 0, bytes.length);
+    }
+
+    public void push(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            push(bytes[i]);
+        }
+    }
+
+    public void push(byte aByte) {
+        if(start + count == buffer.length) {
+            // -- Move the kept bytes to the front, only when running out of space.
+            System.arraycopy(buffer, start, buffer, 0, count);
+            start = 0;
+        }
+        buffer[start + count] = aByte;
+        count += 1;
+        sum += aByte & 0xFF;
+        if(crc >= 0) {
+            crc = Crc16.update(crc, aByte);
+        }
+        scan();
+    }
+
+    private void scan() {
+        while(count >= 2) {
+            int len = ByteArrayReader.getInt2(buffer[start], buffer[start + 1]);
+            if((len < MIN_FRAME_LENGTH) || (len > buffer.length) || ((count >= 3) && ((buffer[start + 2] & NetFefDataHelper.ADDRESS_LENGTH_MASK) + 6 > len))) {
+                // -- Not a frame start.
+                dropFirst();
+                continue;
+            }
+            if(count < len) {
+                // -- Wait for more bytes.
+                return;
+            }
+            // -- Normally the frame is the whole buffer, except after dropping bytes.
+            boolean valid;
+            if(NetFefDataHelper.isCrc16(buffer, start)) {
+                // -- The CRC of a valid frame including its CRC is 0.
+                valid = ((count == len) && (crc >= 0) ? crc : Crc16.calculate(buffer, start, len)) == 0;
+            } else {
+                int frameSum = count == len ? sum : sumOf(len);
+                valid = (byte)(frameSum - (buffer[start + len - 1] & 0xFF)) == buffer[start + len - 1];
+            }
+            if(!valid) {
+                checkSumErrors += 1;
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Check sum error in frame of " + len + " bytes, searching for next frame start.");
+                }
+                dropFirst();
+                continue;
+            }
+            FrameView frameView = FrameView.parse(buffer, start, len);
+            if(frameView == null) {
+                malformedFrames += 1;
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Malformed parameters in frame of " + len + " bytes, searching for next frame start.");
+                }
+                dropFirst();
+                continue;
+            }
+            framesReceived += 1;
+            // -- Dropped before the listener is called, so a failing listener does not get the same frame again.
+            dropFrame(len);
+            emit(frameView);
+        }
+    }
+
+    /**
+     * @param frameView View of the bytes just dropped, they stay in place until the next push.
+     */
+    private void emit(FrameView frameView) {
+        if((acceptAddress != null) && !frameView.isTargetAddress(acceptAddress) && !frameView.isTargetAddress(NetFefDataHelper.BROADCAST_ADDRESS)) {
+            if(LOG.isTraceEnabled()) {
+                LOG.trace("Skipping frame for another peer.");
+            }
+            return;
+        }
+        try {
+            listener.frameReceived(frameView);
+        }
+        catch (RuntimeException e) {
+            listenerErrors += 1;
+            LOG.error("Error processing received frame, dropping it.", e);
+        }
+    }
+
+    private int sumOf(int len) {
+        int s = 0;
+        for (int i = start; i < start + len; i++) {
+            s += buffer[i] & 0xFF;
+        }
+        return s;
+    }
+
+    /**
+     * Drop a noise byte, in constant time.
+     */
+    private void dropFirst() {
+        sum -= buffer[start] & 0xFF;
+        start += 1;
+        count -= 1;
+        crc = count == 0 ? Crc16.INITIAL : -1;
+        bytesDropped += 1;
+    }
+
+    private void dropFrame(int len) {
+        for (int i = start; i < start + len; i++) {
+            sum -= buffer[i] & 0xFF;
+        }
+        start += len;
+        count -= len;
+        crc = count == 0 ? Crc16.INITIAL : -1;
+        if(count == 0) {
+            start = 0;
+        }
+    }
+
+    /**
+     * @return True if there are bytes received not yet forming a full frame.
+     */
+    public boolean hasPartialFrame() {
+        return count > 0;
+    }
+
+    /**
+     * The line was silent for too long, so the bytes kept can not be the start of a frame still arriving. The
+     * first byte is dropped again and again, emitting the frames found in the rest, e.g. a complete frame that was
+     * held back by a noise byte in front of it reading as a long length.
+     */
+    public void resynchronize() {
+        while(count > 0) {
+            dropFirst();
+            scan();
+        }
+        start = 0;
+    }
+
+    /**
+     * Drop the partially received bytes.
+     */
+    public void reset() {
+        bytesDropped += count;
+        start = 0;
+        count = 0;
+        sum = 0;
+        crc = Crc16.INITIAL;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public long getBytesDropped() {
+        return bytesDropped;
+    }
+
+    public long getCheckSumErrors() {
+        return checkSumErrors;
+    }
+
+    /**
+     * @return Number of frames with valid check sum, but parameters of unknown type or exceeding the frame.
+     */
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    /**
+     * @return Number of frames the listener failed to process.
+     */
+    public long getListenerErrors() {
+        return listenerErrors;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import java.util.Arrays;
+
+/**
+ * <p>Read only view of a received frame. Create with
+ * {@link NetFefDataHelper#buildFrameView(byte[], int, int, int, byte[])}.</p>
+ * <p>The view keeps a reference to the received bytes, so the bytes must not be reused while the view is in use.
+ * Call {@link #toFrame()} to get a detached {@link Frame}.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/4/15</p>
+ */
+public class FrameView extends StructView {
+    private final int offset;
+    private final int length;
+
+    FrameView(byte[] bytes, int offset, int length) {
+        super(bytes, countPosition(bytes, offset));
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Checks the addresses and the parameter headers of received bytes, the check sum is not checked here. The
+     * parameter offsets are indexed on the way, so reading the view later does not run into malformed bytes.
+     * @param length Length of the frame, including the check sum.
+     * @return The view, or null if the bytes do not form a frame.
+     */
+    static FrameView parse(byte[] bytes, int offset, int length) {
+        int end = offset + length - (NetFefDataHelper.isCrc16(bytes, offset) ? 2 : 1);
+        int senderAddressPosition = senderAddressPosition(bytes, offset);
+        if((senderAddressPosition > end) || (senderAddressPosition + (bytes[senderAddressPosition - 1] & 0xFF) >= end)) {
+            return null;
+        }
+        FrameView frameView = new FrameView(bytes, offset, length);
+        return frameView.indexParameters(end) ? frameView : null;
+    }
+
+    private static int countPosition(byte[] bytes, int offset) {
+        int position = senderAddressPosition(bytes, offset);
+        return position + (bytes[position - 1] & 0xFF);
+    }
+
+    private static int senderAddressPosition(byte[] bytes, int offset) {
+        int targetAddressLength = bytes[offset + 2] & NetFefDataHelper.ADDRESS_LENGTH_MASK;
+        return offset + 3 + targetAddressLength + 1;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public byte[] getTargetAddress() {
+        return Arrays.copyOfRange(bytes, offset + 3, offset + 3 + getTargetAddressLength());
+    }
+
+    public byte[] getSenderAddress() {
+        int position = senderAddressPosition(bytes, offset);
+        return Arrays.copyOfRange(bytes, position, position + (bytes[position - 1] & 0xFF));
+    }
+
+    /**
+     * Compare the target address without copying it.
+     */
+    public boolean isTargetAddress(byte[] address) {
+        return addressEquals(offset + 3, getTargetAddressLength(), address);
+    }
+
+    /**
+     * Compare the sender address without copying it.
+     */
+    public boolean isSenderAddress(byte[] address) {
+        int position = senderAddressPosition(bytes, offset);
+        return addressEquals(position, bytes[position - 1] & 0xFF, address);
+    }
+
+    private int getTargetAddressLength() {
+        return bytes[offset + 2] & NetFefDataHelper.ADDRESS_LENGTH_MASK;
+    }
+
+    /**
+     * @return True if the frame ends with a CRC-16 instead of the additive check sum.
+     */
+    public boolean isCrc16() {
+        return NetFefDataHelper.isCrc16(bytes, offset);
+    }
+
+    private boolean addressEquals(int position, int addressLength, byte[] address) {
+        if(address.length != addressLength) {
+            return false;
+        }
+        for (int i = 0; i < addressLength; i++) {
+            if(bytes[position + i] != address[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public char getSubject() {
+        return getChar('s');
+    }
+
+    public char getCommand() {
+        return getChar('c');
+    }
+
+    /**
+     * Materialize the frame with all its parameters.
+     */
+    public Frame toFrame() {
+        Frame frame = new Frame();
+        frame.setTargetAddress(getTargetAddress());
+        frame.setSenderAddress(getSenderAddress());
+        frame.setParameters(readParameters());
+        return frame;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+/**
+ * <p>Small LZ77 style compression for the {@link ParameterType#COMPRESSED} parameters, simple enough to be decoded
+ * on the Arduino side (see NetFefLz.cpp).</p>
+ * <p>The compressed data is a sequence of tokens:</p>
+ * <ul>
+ *     <li>0nnnnnnn: n+1 (1..128) literal bytes follow,</li>
+ *     <li>1nnnnnnn dddddddd: copy n+3 (3..130) bytes starting d+1 (1..256) bytes back in the output. The copy
+ *     may overlap the bytes being written.</li>
+ * </ul>
+ * <p>User: kelemenb
+ * <br/>Date: 6/22/15</p>
+ */
+public final class LzCompression {
+    public static final int MIN_MATCH = 3;
+    public static final int MAX_MATCH = 0x7F + MIN_MATCH;
+    public static final int MAX_LITERALS = 0x80;
+    public static final int WINDOW = 0x100;
+    private static final int HASH_BITS = 10;
+
+    private static final CompressionStatistics statistics = new CompressionStatistics();
+
+    private LzCompression() {
+    }
+
+    /**
+     * @return Compression counters of the whole process.
+     */
+    public static CompressionStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param maxLength Space available for the compressed data.
+     * @return Length of the compressed data, or -1 if it does not fit into maxLength.
+     */
+    public static int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int maxLength) {
+        int[] head = new int[1 << HASH_BITS];
+        for (int i = 0; i < head.length; i++) {
+            head[i] = -1;
+        }
+        int end = srcOffset + length;
+        int dstEnd = dstOffset + maxLength;
+        int op = dstOffset;
+        int ip = srcOffset;
+        int literalStart = srcOffset;
+        while(ip + MIN_MATCH <= end) {
+            int h = hash(src, ip);
+            int candidate = head[h];
+            head[h] = ip;
+            if((candidate >= 0) && (ip - candidate <= WINDOW)
+                    && (src[candidate] == src[ip]) && (src[candidate + 1] == src[ip + 1]) && (src[candidate + 2] == src[ip + 2])) {
+                int matchLength = MIN_MATCH;
+                while((ip + matchLength < end) && (matchLength < MAX_MATCH) && (src[candidate + matchLength] == src[ip + matchLength])) {
+                    matchLength += 1;
+                }
+                op = writeLiterals(src, literalStart, ip, dst, op, dstEnd);
+                if((op < 0) || (op + 2 > dstEnd)) {
+                    return -1;
+                }
+                dst[op++] = (byte)(0x80 | (matchLength - MIN_MATCH));
+                dst[op++] = (byte)(ip - candidate - 1);
+                for (int k = ip + 1; (k < ip + matchLength) && (k + MIN_MATCH <= end); k++) {
+                    head[hash(src, k)] = k;
+                }
+                ip += matchLength;
+                literalStart = ip;
+            } else {
+                ip += 1;
+            }
+        }
+        op = writeLiterals(src, literalStart, end, dst, op, dstEnd);
+        return op < 0 ? -1 : op - dstOffset;
+    }
+
+    private static int hash(byte[] src, int position) {
+        int v = (src[position] & 0xFF) << 16 | (src[position + 1] & 0xFF) << 8 | (src[position + 2] & 0xFF);
+        return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * @return Next output position, or -1 if there is no space.
+     */
+    private static int writeLiterals(byte[] src, int from, int to, byte[] dst, int op, int dstEnd) {
+        while(from < to) {
+            int n = Math.min(MAX_LITERALS, to - from);
+            if(op + 1 + n > dstEnd) {
+                return -1;
+            }
+            dst[op++] = (byte)(n - 1);
+            System.arraycopy(src, from, dst, op, n);
+            op += n;
+            from += n;
+        }
+        return op;
+    }
+
+    /**
+     * @param rawLength Exact length of the uncompressed data.
+     * @throws IllegalArgumentException If the compressed data is corrupt.
+     */
+    public static void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int rawLength) {
+        int end = srcOffset + length;
+        int ip = srcOffset;
+        int op = 0;
+        while(ip < end) {
+            int token = src[ip++] & 0xFF;
+            if(token < 0x80) {
+                int n = token + 1;
+                if((ip + n > end) || (op + n > rawLength)) {
+                    throw new IllegalArgumentException("Compressed literals exceed the data at position " + (ip - srcOffset) + ".");
+                }
+                System.arraycopy(src, ip, dst, dstOffset + op, n);
+                ip += n;
+                op += n;
+            } else {
+                if(ip >= end) {
+                    throw new IllegalArgumentException("Compressed match is truncated.");
+                }
+                int n = (token & 0x7F) + MIN_MATCH;
+                int distance = (src[ip++] & 0xFF) + 1;
+                if((distance > op) || (op + n > rawLength)) {
+                    throw new IllegalArgumentException("Compressed match exceeds the data at position " + (ip - srcOffset) + ".");
+                }
+                for (int i = 0; i < n; i++) {
+                    dst[dstOffset + op] = dst[dstOffset + op - distance];
+                    op += 1;
+                }
+            }
+        }
+        if(op != rawLength) {
+            throw new IllegalArgumentException("Decompressed " + op + " bytes instead of " + rawLength + ".");
+        }
+    }
+}
@@ -15,8 +15,8 @@ import com.netfef.util.FormatHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -30,13 +30,63 @@ public class NetFefDataHelper {
 
     public static byte[] BROADCAST_ADDRESS = new byte[] { 0x00, 0x00 };
     public static byte[] MASTER_ADDRESS = new byte[] { 0x00, 0x01 };
+    /** Set in the target address length byte, when the frame ends with a CRC-16 instead of the additive check sum. */
+    public static final int CRC16_FLAG = 0x80;
+    public static final int ADDRESS_LENGTH_MASK = 0x7F;
+
+    private static volatile StringInterner stringInterner;
+
+    /**
+     * Decode received strings through the cache, or stop caching with null.
+     */
+    public static void setStringInterner(StringInterner stringInterner) {
+        NetFefDataHelper.stringInterner = stringInterner;
+    }
+
+    public static StringInterner getStringInterner() {
+        return stringInterner;
+    }
+
+    /**
+     * @param length Number of characters, without the ending '\0'.
+     */
+    static String decodeString(byte[] bytes, int offset, int length) {
+        StringInterner interner = stringInterner;
+        if(interner != null) {
+            return interner.intern(bytes, offset, length);
+        }
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * BOOLEAN values are written as '1' or '0', but a raw zero byte is also accepted as false.
+     */
+    static boolean decodeBoolean(byte value) {
+        return (value != 0) && (value != '0');
+    }
 
     public static Frame buildFrameObject(byte[] bytes, int maxLen, byte[] acceptAddress) {
-        ByteArrayReader bar = new ByteArrayReader(bytes);
-        Frame frame = new Frame();
-        int len = bar.readInt2();
-        if(bytes.length != len) {
-            LOG.warn("Frame length consistency mismatch. Provided length: " + len + ", actual length: " + bytes.length);
+        FrameView frameView = buildFrameView(bytes, 0, bytes.length, maxLen, acceptAddress);
+        return frameView == null ? null : frameView.toFrame();
+    }
+
+    /**
+     * Validates the received bytes, and provides a view reading the values in place.
+     * @param bytes Received bytes.
+     * @param offset Position of the frame within the array.
+     * @param length Number of bytes received for the frame.
+     * @param maxLen Maximal accepted frame length.
+     * @param acceptAddress Only accept frames for this address (or broadcast). Null to accept any frame.
+     * @return The frame view or null if the bytes does not form a valid frame for us.
+     */
+    public static FrameView buildFrameView(byte[] bytes, int offset, int length, int maxLen, byte[] acceptAddress) {
+        if(length < 3) {
+            LOG.warn("Frame is too short: " + length);
+            return null;
+        }
+        int len = ByteArrayReader.getInt2(bytes[offset], bytes[offset + 1]);
+        if(length != len) {
+            LOG.warn("Frame length consistency mismatch. Provided length: " + len + ", actual length: " + length);
             return null;
         }
         if(len > maxLen) {
@@ -46,43 +96,35 @@ public class NetFefDataHelper {
         }
 
         // -- Check sum
-        if (checkSum(bytes, bytes[len - 1])) {
+        if(isCrc16(bytes, offset)) {
+            if(checkCrc16(bytes, offset, len)) {
+                return null;
+            }
+        } else if (checkSum(bytes, offset, len)) {
             return null;
         }
 
-        int targetAddressLength = bar.readInt1();
-        byte[] targetAddress = new byte[targetAddressLength];
-        for (int i = 0; i < targetAddressLength; i++) {
-            targetAddress[i] = bar.readByte();
+        FrameView frameView = FrameView.parse(bytes, offset, len);
+        if(frameView == null) {
+            LOG.warn("Frame with valid check sum has malformed parameters, dropping it.");
+            return null;
         }
-        if((acceptAddress != null) && !Arrays.equals(targetAddress, acceptAddress) && !Arrays.equals(targetAddress, BROADCAST_ADDRESS)) {
+        if((acceptAddress != null) && !frameView.isTargetAddress(acceptAddress) && !frameView.isTargetAddress(BROADCAST_ADDRESS)) {
             // -- Frame is not for us.
-            LOG.info("Skipping frame as it is for " + FormatHelper.byteArrayToString3(targetAddress) + " (and we are looking for address " + FormatHelper.byteArrayToString3(acceptAddress) + ")");
+            LOG.info("Skipping frame as it is for " + FormatHelper.byteArrayToString3(frameView.getTargetAddress()) + " (and we are looking for address " + FormatHelper.byteArrayToString3(acceptAddress) + ")");
             return null;
         }
-        frame.setTargetAddress(targetAddress);
 
-        int senderAddressLength = bar.readInt1();
-        byte[] senderAddress = new byte[senderAddressLength];
-        for (int i = 0; i < senderAddressLength; i++) {
-            senderAddress[i] = bar.readByte();
-        }
-        frame.setSenderAddress(senderAddress);
-
-        List<Parameter> parameters = readStructParameters(bar);
-
-        frame.setParameters(parameters);
-
-        return frame;
+        return frameView;
     }
 
-    private static boolean checkSum(byte[] bytes, byte aByte) {
+    private static boolean checkSum(byte[] bytes, int offset, int length) {
         int sum = 0;
-        for (int i = 0; i < (bytes.length-1); i++) {
+        for (int i = offset; i < (offset + length - 1); i++) {
             sum += Byte.toUnsignedInt(bytes[i]);
         }
         byte calculated = (byte)sum;
-        byte provided = aByte;
+        byte provided = bytes[offset + length - 1];
         if(calculated != provided) {
             // -- Check sum mismatch
             LOG.warn("Check sum error. Expected: " + FormatHelper.toHexString3(calculated) + " Provided: " + FormatHelper.toHexString3(provided) + " Dropping frame.");
@@ -91,7 +133,24 @@ public class NetFefDataHelper {
         return false;
     }
 
-    private static List<Parameter> readStructParameters(ByteArrayReader bar) {
+    private static boolean checkCrc16(byte[] bytes, int offset, int length) {
+        if(Crc16.calculate(bytes, offset, length) != 0) {
+            // -- CRC mismatch
+            LOG.warn("CRC error. Provided: 0x" + FormatHelper.toHexString2(bytes[offset + length - 2]) + FormatHelper.toHexString2(bytes[offset + length - 1]) + " Dropping frame.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param offset Position of the frame, having at least 3 bytes.
+     * @return True if the frame ends with a CRC-16, false if it ends with the additive check sum.
+     */
+    public static boolean isCrc16(byte[] bytes, int offset) {
+        return (bytes[offset + 2] & CRC16_FLAG) != 0;
+    }
+
+    static List<Parameter> readStructParameters(ByteArrayReader bar) {
         int parameterCount = bar.readInt1();
 
         List<Parameter> parameters = new ArrayList<>(parameterCount);
@@ -114,10 +173,10 @@ public class NetFefDataHelper {
         Parameter parameter = new Parameter(parameterName, parameterType);
 
         if(parameterType == ParameterType.BOOLEAN) {
-            boolean value = bar.readChar() != 0;
+            boolean value = decodeBoolean((byte)bar.readChar());
             parameter.setValue(value);
         } else if(parameterType == ParameterType.BYTE) {
-            int value = bar.readChar();
+            int value = bar.readInt1();
             parameter.setValue(value);
         } else if(parameterType == ParameterType.INTEGER) {
             int value = bar.readInt2();
@@ -131,6 +190,12 @@ public class NetFefDataHelper {
         } else if(parameterType == ParameterType.SIGNED_LONG) {
             long value = bar.readSignedInt4();
             parameter.setValue(value);
+        } else if(parameterType == ParameterType.VARINT) {
+            long value = bar.readVarint();
+            parameter.setValue(value);
+        } else if(parameterType == ParameterType.SIGNED_VARINT) {
+            long value = bar.readSignedVarint();
+            parameter.setValue(value);
         } else if(parameterType == ParameterType.CHAR) {
             char value = bar.readChar();
             parameter.setValue(value);
@@ -152,96 +217,108 @@ public class NetFefDataHelper {
             List<Parameter> parameters = readStructParameters(bar);
             Struct value = new Struct(parameters);
             parameter.setValue(value);
+        } else if(parameterType == ParameterType.BLOB1) {
+            int length = bar.readInt1();
+            parameter.setValue(bar.readBlobCopy(length));
+        } else if(parameterType == ParameterType.BLOB2) {
+            int length = bar.readInt2();
+            parameter.setValue(bar.readBlobCopy(length));
+        } else if(parameterType == ParameterType.COMPRESSED) {
+            int position = bar.getPosition() - 2;
+            int length = bar.readInt2();
+            bar.skip(length);
+            // -- The original parameter is returned instead.
+            byte[] expanded = expandCompressed(bar.getArray(), position);
+            return readParameter(new ByteArrayReader(expanded, 1, expanded.length - 1));
         }
 
         return parameter;
     }
 
 
-    public static byte[] buildFrameBytes(Frame frame, byte[] myAddress) {
-        if(myAddress != null) {
-            frame.setSenderAddress(myAddress);
+    /**
+     * @return Number of bytes the parameter at the position occupies, including its name and type.
+     */
+    static int getParameterSpace(byte[] bytes, int position) {
+        char parameterTypeVisual = (char)Byte.toUnsignedInt(bytes[position + 1]);
+        ParameterType parameterType = ParameterType.getByVisual(parameterTypeVisual);
+        if((parameterType == ParameterType.BOOLEAN) || (parameterType == ParameterType.BYTE) || (parameterType == ParameterType.CHAR)) {
+            return 3;
+        } else if((parameterType == ParameterType.INTEGER) || (parameterType == ParameterType.SIGNED_INTEGER)) {
+            return 4;
+        } else if((parameterType == ParameterType.LONG) || (parameterType == ParameterType.SIGNED_LONG)) {
+            return 6;
+        } else if((parameterType == ParameterType.VARINT) || (parameterType == ParameterType.SIGNED_VARINT)) {
+            return 2 + ByteArrayReader.getVarintLength(bytes, position + 2, bytes.length);
+        } else if((parameterType == ParameterType.STRING1) || (parameterType == ParameterType.STRUCT1) || (parameterType == ParameterType.BLOB1)) {
+            return 3 + Byte.toUnsignedInt(bytes[position + 2]);
+        } else if((parameterType == ParameterType.STRING2) || (parameterType == ParameterType.STRUCT2) || (parameterType == ParameterType.BLOB2)
+                || (parameterType == ParameterType.COMPRESSED)) {
+            return 4 + ByteArrayReader.getInt2(bytes[position + 2], bytes[position + 3]);
         }
-        ByteArrayBuilder bab = new ByteArrayBuilder();
+        throw new UnsupportedOperationException("Parameter type " + parameterTypeVisual + " is not implemented.");
+    }
 
-        bab.append1(frame.getTargetAddress().length);
-        bab.append(frame.getTargetAddress());
-        bab.append1(frame.getSenderAddress().length);
-        bab.append(frame.getSenderAddress());
-        bab.append1(frame.getParameters().size() + 2);
-        buildParameterBytes(bab, frame.getSubject());
-        buildParameterBytes(bab, frame.getCommand());
-        for (Parameter parameter : frame.getParameters()) {
-            buildParameterBytes(bab, parameter);
+    /**
+     * Checked variant of {@link #getParameterSpace(byte[], int)} for received bytes.
+     * @param end Position after the last byte the parameter may occupy.
+     * @return Number of bytes the parameter occupies, or -1 if the type is not known or the parameter does not end
+     *         before the end position.
+     */
+    static int getParameterSpace(byte[] bytes, int position, int end) {
+        // -- Each parameter has a name, a type and at least one byte of value or length.
+        if(position + 3 > end) {
+            return -1;
         }
-
-        bab.insertToBeginning(bab.getSize() + 2 + 1);
-
-        // -- Calculate sum
-        byte[] bytes = bab.getBytes();
-        int sum = 0;
-        for (byte aByte : bytes) {
-            sum += Byte.toUnsignedInt(aByte);
+        ParameterType parameterType = ParameterType.getByVisual((char)Byte.toUnsignedInt(bytes[position + 1]));
+        if(parameterType == null) {
+            return -1;
         }
-        byte sumByte = (byte)sum;
-        bab.append(new byte[] {sumByte});
-
-        return bab.getBytes();
-    }
-
-    private static ByteArrayBuilder buildParameterBytes(ByteArrayBuilder bab, Parameter parameter) {
-        bab.append(parameter.getParameterName());
-        // -- TODO: Should automatically switch between s/S and t/T types according to the size.
-        ParameterType parameterType = parameter.getParameterType();
-        bab.append(parameterType.getVisual());
-        if(parameterType == ParameterType.BOOLEAN) {
-            bab.append(parameter.getBooleanValue() ? '1' : '0');
-        } else if(parameterType == ParameterType.BYTE) {
-            bab.append1(parameter.getIntValue());
-        } else if(parameterType == ParameterType.INTEGER) {
-            bab.append2(parameter.getIntValue());
-        } else if(parameterType == ParameterType.SIGNED_INTEGER) {
-            bab.append2(parameter.getIntValue());
-        } else if(parameterType == ParameterType.LONG) {
-            bab.append4(parameter.getLongValue());
-        } else if(parameterType == ParameterType.SIGNED_LONG) {
-            bab.append4(parameter.getLongValue());
-        } else if(parameterType == ParameterType.CHAR) {
-            bab.append(parameter.getStringValue().getBytes());
-        } else if(parameterType == ParameterType.STRING1) {
-            String stringValue = parameter.getStringValue();
-            bab.append1(stringValue.length() + 1);
-            bab.append(stringValue.getBytes());
-            bab.append('\0');
-        } else if(parameterType == ParameterType.STRING2) {
-            String stringValue = parameter.getStringValue();
-            bab.append2(stringValue.length() + 1);
-            bab.append(stringValue.getBytes());
-            bab.append('\0');
-        } else if(parameterType == ParameterType.STRUCT1) {
-            Struct structValue = parameter.getStructValue();
-            ByteArrayBuilder structBytes = getStructBytes(structValue);
-            bab.append1(structBytes.getSize());
-            bab.append(structBytes.getBytes());
-        } else if(parameterType == ParameterType.STRUCT2) {
-            Struct structValue = parameter.getStructValue();
-            ByteArrayBuilder structBytes = getStructBytes(structValue);
-            bab.append2(structBytes.getSize());
-            bab.append(structBytes.getBytes());
+        if(((parameterType == ParameterType.STRING2) || (parameterType == ParameterType.STRUCT2) || (parameterType == ParameterType.BLOB2)
+                || (parameterType == ParameterType.COMPRESSED)) && (position + 4 > end)) {
+            return -1;
+        }
+        int space;
+        if((parameterType == ParameterType.VARINT) || (parameterType == ParameterType.SIGNED_VARINT)) {
+            try {
+                space = 2 + ByteArrayReader.getVarintLength(bytes, position + 2, end);
+            }
+            catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                return -1;
+            }
         } else {
-            throw new UnsupportedOperationException("Parameter type " + parameterType + " is not implemented.");
+            space = getParameterSpace(bytes, position);
         }
+        return position + space <= end ? space : -1;
+    }
 
-        return bab;
+    /**
+     * Decompresses a COMPRESSED parameter.
+     * @param position Position of the compressed parameter.
+     * @return Struct bytes (parameter count of 1, then the parameter) holding the original parameter.
+     * @throws IllegalArgumentException If the compressed data is corrupt.
+     */
+    static byte[] expandCompressed(byte[] bytes, int position) {
+        int length = ByteArrayReader.getInt2(bytes[position + 2], bytes[position + 3]);
+        int rawLength = ByteArrayReader.getInt2(bytes[position + 4], bytes[position + 5]);
+        byte[] expanded = new byte[2 + rawLength];
+        expanded[0] = 1;
+        expanded[1] = bytes[position];
+        long startNanos = System.nanoTime();
+        LzCompression.decompress(bytes, position + 6, length - 2, expanded, 2, rawLength);
+        LzCompression.getStatistics().recordDecompression(rawLength, System.nanoTime() - startNanos);
+        return expanded;
     }
 
-    private static ByteArrayBuilder getStructBytes(Struct struct) {
-        ByteArrayBuilder bab = new ByteArrayBuilder();
-        bab.append1(struct.getParameters().size()); // -- Param count
-        for (Parameter parameter : struct.getParameters()) {
-            buildParameterBytes(bab, parameter);
+    /**
+     * Builds a new byte array for the frame. Frames sent frequently should rather be encoded with a reused
+     * {@link FrameEncoder}, that writes straight into a buffer owned by the caller.
+     */
+    public static byte[] buildFrameBytes(Frame frame, byte[] myAddress) {
+        if(myAddress != null) {
+            frame.setSenderAddress(myAddress);
         }
-        return bab;
+        return new FrameEncoder().encode(frame, null);
     }
 
 }
@@ -11,6 +11,10 @@
 
 package com.netfef.data;
 
+import com.netfef.util.FormatHelper;
+
+import java.nio.ByteBuffer;
+
 /**
  * <p>A parameter in the Frame</p>
  * <p>User: kelemenb
@@ -20,11 +24,12 @@ public class Parameter {
     private char parameterName;
     private ParameterType parameterType;
     private Integer length;
-    private String stringValue;
-    private Integer intValue;
-    private boolean booleanValue;
-    private long longValue;
-    private Struct structValue;
+    /** Value of the boolean, char and number types. */
+    private long primitiveValue;
+    /** Value of the string, struct and blob types. */
+    private Object referenceValue;
+    /** String form of a primitive value, rendered on first request. */
+    private String renderedValue;
 
     public Parameter(char parameterName, ParameterType parameterType, char value) {
         this.parameterName = parameterName;
@@ -40,7 +45,7 @@ public class Parameter {
     public Parameter(char parameterName, ParameterType parameterType, String value) {
         this.parameterName = parameterName;
         this.parameterType = parameterType;
-        stringValue = value;
+        this.setValue(value);
     }
 
     public Parameter(char parameterName, ParameterType parameterType, int value) {
@@ -61,6 +66,18 @@ public class Parameter {
         this.setValue(value);
     }
 
+    public Parameter(char parameterName, ParameterType parameterType, byte[] value) {
+        this.parameterName = parameterName;
+        this.parameterType = parameterType;
+        this.setValue(value);
+    }
+
+    public Parameter(char parameterName, ParameterType parameterType, ByteBuffer value) {
+        this.parameterName = parameterName;
+        this.parameterType = parameterType;
+        this.setValue(value);
+    }
+
     public char getParameterName() {
         return parameterName;
     }
@@ -73,63 +90,121 @@ public class Parameter {
         return length;
     }
 
+    /**
+     * @return The string value, or the string form of other values. Struct values are rendered on every call.
+     */
     public String getStringValue() {
-        return stringValue;
-    }
-
-    public Integer getIntValue() {
-        return intValue;
+        if(referenceValue instanceof String) {
+            return (String)referenceValue;
+        }
+        if(referenceValue instanceof ByteBuffer) {
+            ByteBuffer blob = getBlobValue();
+            byte[] bytes = new byte[blob.remaining()];
+            blob.get(bytes);
+            return FormatHelper.byteArrayToString(bytes);
+        }
+        if(referenceValue != null) {
+            return referenceValue.toString();
+        }
+        if(renderedValue == null) {
+            if(parameterType == ParameterType.BOOLEAN) {
+                renderedValue = String.valueOf(getBooleanValue());
+            } else if(parameterType == ParameterType.CHAR) {
+                renderedValue = String.valueOf((char)primitiveValue);
+            } else {
+                renderedValue = String.valueOf(primitiveValue);
+            }
+        }
+        return renderedValue;
+    }
+
+    public int getIntValue() {
+        return (int)primitiveValue;
     }
 
     public boolean getBooleanValue() {
-        return booleanValue;
+        return primitiveValue != 0;
     }
 
-    public Long getLongValue() {
-        return longValue;
+    public long getLongValue() {
+        return primitiveValue;
     }
 
     @Override
     public String toString() {
-        return String.valueOf(parameterName) + "(" + parameterType.getVisual() + ")" + stringValue;
+        return String.valueOf(parameterName) + "(" + parameterType.getVisual() + ")" + getStringValue();
     }
 
     public void setValue(char value) {
-        this.stringValue = String.valueOf(value);
+        setPrimitiveValue(value);
     }
 
     public void setStringValue(String stringValue) {
-        this.stringValue = stringValue;
+        this.setValue(stringValue);
     }
 
     public void setValue(String value) {
-        this.stringValue = value;
+        if((parameterType == ParameterType.CHAR) && (value != null)) {
+            setPrimitiveValue(value.isEmpty() ? 0 : value.charAt(0));
+        } else {
+            this.referenceValue = value;
+            this.renderedValue = null;
+        }
     }
 
     public void setValue(boolean value) {
-        this.booleanValue = value;
-        this.stringValue = String.valueOf(value);
+        setPrimitiveValue(value ? 1 : 0);
     }
     public void setValue(int value) {
-        this.intValue = value;
-        this.longValue = value;
-        this.stringValue = String.valueOf(value);
+        setPrimitiveValue(value);
     }
     public void setValue(long value) {
-        this.longValue = value;
-        this.stringValue = String.valueOf(value);
+        setPrimitiveValue(value);
+    }
+
+    private void setPrimitiveValue(long value) {
+        this.primitiveValue = value;
+        this.referenceValue = null;
+        this.renderedValue = null;
     }
 
     public char getChar() {
-        return stringValue == null ? 0 : stringValue.charAt(0);
+        if(parameterType == ParameterType.CHAR) {
+            return (char)primitiveValue;
+        }
+        String stringValue = getStringValue();
+        return stringValue.isEmpty() ? 0 : stringValue.charAt(0);
     }
 
     public void setValue(Struct value) {
-        this.structValue = value;
-        this.setStringValue(value.toString());
+        this.referenceValue = value;
+        this.renderedValue = null;
     }
 
     public Struct getStructValue() {
-        return this.structValue;
+        return referenceValue instanceof Struct ? (Struct)referenceValue : null;
+    }
+
+    /**
+     * The array is not copied, it should not be changed while the parameter is in use.
+     */
+    public void setValue(byte[] value) {
+        setValue(ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Keeps the remaining bytes of the buffer, without copying them.
+     */
+    public void setValue(ByteBuffer value) {
+        this.referenceValue = value.slice().asReadOnlyBuffer();
+        this.renderedValue = null;
+    }
+
+    /**
+     * @return Read only buffer of the blob value, or null if this is not a blob. Received blobs are slices of the
+     * received bytes.
+     */
+    public ByteBuffer getBlobValue() {
+        return referenceValue instanceof ByteBuffer ? ((ByteBuffer)referenceValue).duplicate() : null;
     }
 }
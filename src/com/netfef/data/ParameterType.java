@@ -32,6 +32,10 @@ public enum ParameterType {
     LONG('l'),
     /** 32 bit signed number */
     SIGNED_LONG('L'),
+    /** 32 bit unsigned number in 1 to 5 bytes, 7 bits per byte, high bit set when more bytes follow. */
+    VARINT('v'),
+    /** 32 bit signed number zigzag encoded (0, -1, 1, -2, ... to 0, 1, 2, 3, ...) as a VARINT. */
+    SIGNED_VARINT('V'),
     CHAR('c'),
     /** String with followed by 1 byte of length. */
     STRING1('s'),
@@ -41,6 +45,14 @@ public enum ParameterType {
     STRUCT1('t'),
     /** Struct with followed by 2 bytes of length. */
     STRUCT2('T'),
+    /** Raw bytes with followed by 1 byte of length. */
+    BLOB1('x'),
+    /** Raw bytes with followed by 2 bytes of length. */
+    BLOB2('X'),
+    /** Compressed STRING2 or STRUCT2, followed by 2 bytes of length, 2 bytes of uncompressed length, then the
+     * {@link LzCompression} compressed type and value of the parameter. Only appears on the wire, decoded to the
+     * original parameter. */
+    COMPRESSED('z'),
     ;
 
     private char visual;
@@ -0,0 +1,104 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Bounded cache of decoded strings keyed by their ISO-8859-1 bytes, so the strings peers send again and again
+ * (descriptions, versions, statuses) decode to the same String instance without allocation.</p>
+ * <p>The cache is a fixed size table, a string replaces the one in its slot on a miss. Strings longer than
+ * {@link #MAX_INTERNED_LENGTH} are not cached. Install with {@link NetFefDataHelper#setStringInterner(StringInterner)}.
+ * Thread safe.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/17/15</p>
+ */
+public class StringInterner {
+    public static final int MAX_INTERNED_LENGTH = 64;
+
+    private final String[] table;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity Number of strings kept, rounded up to a power of two.
+     */
+    public StringInterner(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.table = new String[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return The ISO-8859-1 string of the bytes, the cached instance if there is one.
+     */
+    public String intern(byte[] bytes, int offset, int length) {
+        if(length > MAX_INTERNED_LENGTH) {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + (bytes[i] & 0xFF);
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String cached = table[slot];
+        if((cached != null) && sameContent(cached, bytes, offset, length)) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        String value = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        table[slot] = value;
+        return value;
+    }
+
+    private static boolean sameContent(String value, byte[] bytes, int offset, int length) {
+        if(value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if(value.charAt(i) != (char)(bytes[offset + i] & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Ratio of the lookups served from the cache, between 0 and 1.
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "StringInterner{size=" + table.length + ", hits=" + getHits() + ", misses=" + getMisses() + ", hitRate=" + String.format("%.1f%%", getHitRate() * 100) + "}";
+    }
+}
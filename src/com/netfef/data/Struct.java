@@ -11,18 +11,28 @@
 
 package com.netfef.data;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * <p>Complex data structure</p>
+ * <p>Parameters are kept in arrival order. Parameters with ASCII names are found through a table indexed by the name,
+ * parameters with the same name are chained after each other.</p>
  * <p>User: kelemenb
  * <br/>Date: 5/11/15</p>
  */
 public class Struct {
-    private Map<Character, List<Parameter>> parameters = new HashMap<>();
+    private static final int NAME_TABLE_SIZE = 128;
+
+    private Parameter[] parameters = new Parameter[4];
+    /** Index of the next parameter having the same name, or -1. */
+    private short[] nextSameName = new short[4];
+    /** Index of the first parameter by name, or -1. */
+    private short[] firstByName;
+    private int count = 0;
+    private List<Parameter> parameterListView;
 
     public Struct() {
     }
@@ -31,12 +41,38 @@ public class Struct {
         this.setParameters(parameters);
     }
 
+    /**
+     * @return Read only view of the parameters in arrival order.
+     */
     public List<Parameter> getParameters() {
-        List<Parameter> retVal = new ArrayList<>();
-        for (List<Parameter> parameterList : parameters.values()) {
-            retVal.addAll(parameterList);
+        if(parameterListView == null) {
+            parameterListView = new AbstractList<Parameter>() {
+                @Override
+                public Parameter get(int index) {
+                    return getParameterAt(index);
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+        return parameterListView;
+    }
+
+    public int getParameterCount() {
+        return count;
+    }
+
+    /**
+     * Use this with {@link #getParameterCount()} to walk through the parameters without allocating an iterator.
+     */
+    public Parameter getParameterAt(int index) {
+        if((index < 0) || (index >= count)) {
+            throw new IndexOutOfBoundsException("Parameter index " + index + " is out of range, parameter count is " + count + ".");
         }
-        return retVal;
+        return parameters[index];
     }
 
 
@@ -44,30 +80,45 @@ public class Struct {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("[");
-        boolean first = true;
-        for (Parameter parameter : getParameters()) {
-            if(first) {
-                first = false;
-            } else {
+        appendParameters(sb);
+        sb.append("]");
+        return sb.toString();
+    }
+
+    void appendParameters(StringBuilder sb) {
+        for (int i = 0; i < count; i++) {
+            if(i > 0) {
                 sb.append(",");
             }
-            sb.append(parameter.toString());
+            sb.append(parameters[i].toString());
         }
-        sb.append("]");
-        return sb.toString();
     }
 
     public void addParameter(Parameter parameter) {
-        char parameterName = parameter.getParameterName();
-        List<Parameter> list;
-        if (parameters.containsKey(parameterName)) {
-            list = parameters.get(parameterName);
+        if(count == parameters.length) {
+            parameters = Arrays.copyOf(parameters, count * 2);
+            nextSameName = Arrays.copyOf(nextSameName, count * 2);
         }
-        else {
-            list = new ArrayList<>();
-            parameters.put(parameterName, list);
+        int index = count++;
+        parameters[index] = parameter;
+        nextSameName[index] = -1;
+
+        char parameterName = parameter.getParameterName();
+        if(parameterName < NAME_TABLE_SIZE) {
+            if(firstByName == null) {
+                firstByName = new short[NAME_TABLE_SIZE];
+                Arrays.fill(firstByName, (short)-1);
+            }
+            int i = firstByName[parameterName];
+            if(i < 0) {
+                firstByName[parameterName] = (short)index;
+                return;
+            }
+            while(nextSameName[i] >= 0) {
+                i = nextSameName[i];
+            }
+            nextSameName[i] = (short)index;
         }
-        list.add(parameter);
     }
 
     public void setParameters(List<Parameter> parameters) {
@@ -77,15 +128,47 @@ public class Struct {
     }
 
     public boolean hasParameter(char paramName) {
-        return this.parameters.containsKey(paramName);
+        return indexOf(paramName) >= 0;
     }
 
     public Parameter getParameter(char parameterName) {
-        List<Parameter> list = parameters.get(parameterName);
-        return list == null ? null : list.get(0);
+        int index = indexOf(parameterName);
+        return index < 0 ? null : parameters[index];
     }
+
+    /**
+     * @return All the parameters with the name in arrival order, or null if there is no such parameter.
+     */
     public List<Parameter> getParameterList(char parameterName) {
-        return parameters.get(parameterName);
+        int index = indexOf(parameterName);
+        if(index < 0) {
+            return null;
+        }
+        List<Parameter> list = new ArrayList<>();
+        if(parameterName < NAME_TABLE_SIZE) {
+            for (int i = index; i >= 0; i = nextSameName[i]) {
+                list.add(parameters[i]);
+            }
+        } else {
+            for (int i = index; i < count; i++) {
+                if(parameters[i].getParameterName() == parameterName) {
+                    list.add(parameters[i]);
+                }
+            }
+        }
+        return list;
+    }
+
+    private int indexOf(char parameterName) {
+        if(parameterName < NAME_TABLE_SIZE) {
+            return firstByName == null ? -1 : firstByName[parameterName];
+        }
+        for (int i = 0; i < count; i++) {
+            if(parameters[i].getParameterName() == parameterName) {
+                return i;
+            }
+        }
+        return -1;
     }
 
 }
@@ -0,0 +1,305 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.data;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * <p>Read only view of a struct, reading the values in place from the received bytes.</p>
+ * <p>Parameter offsets of received frames are indexed and checked when the view is built, of other structs on first
+ * access. No {@link Parameter} objects are created.
+ * Similar to the NetFefStructReader of the Arduino implementation. COMPRESSED parameters are decompressed on
+ * access by {@link #getStringAt(int)} and {@link #getStructAt(int)}.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/4/15</p>
+ */
+public class StructView {
+    final byte[] bytes;
+    final int paramsPosition;
+    private final int parameterCount;
+    private int[] offsets;
+
+    /**
+     * @param bytes The received bytes.
+     * @param countPosition Position of the parameter count byte.
+     */
+    StructView(byte[] bytes, int countPosition) {
+        this.bytes = bytes;
+        this.parameterCount = bytes[countPosition] & 0xFF;
+        this.paramsPosition = countPosition + 1;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * @return Index of the first parameter with the name, or -1 if there is no such parameter.
+     */
+    public int indexOf(char parameterName) {
+        return indexOf(parameterName, 0);
+    }
+
+    /**
+     * Use this to walk through parameters having the same name.
+     * @return Index of the first parameter with the name starting from the index, or -1 if there is no more.
+     */
+    public int indexOf(char parameterName, int fromIndex) {
+        int[] o = getOffsets();
+        for (int i = fromIndex; i < parameterCount; i++) {
+            if(bytes[o[i]] == (byte)parameterName) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean hasParameter(char parameterName) {
+        return indexOf(parameterName) >= 0;
+    }
+
+    public char getParameterNameAt(int index) {
+        return (char)(bytes[offset(index)] & 0xFF);
+    }
+
+    public ParameterType getParameterTypeAt(int index) {
+        return ParameterType.getByVisual((char)(bytes[offset(index) + 1] & 0xFF));
+    }
+
+    public ParameterType getParameterType(char parameterName) {
+        return getParameterTypeAt(requireIndex(parameterName));
+    }
+
+    public int getInt(char parameterName) {
+        return getIntAt(requireIndex(parameterName));
+    }
+
+    public long getLong(char parameterName) {
+        return getLongAt(requireIndex(parameterName));
+    }
+
+    public char getChar(char parameterName) {
+        return getCharAt(requireIndex(parameterName));
+    }
+
+    public boolean getBoolean(char parameterName) {
+        return getBooleanAt(requireIndex(parameterName));
+    }
+
+    public String getString(char parameterName) {
+        return getStringAt(requireIndex(parameterName));
+    }
+
+    public StructView getStruct(char parameterName) {
+        return getStructAt(requireIndex(parameterName));
+    }
+
+    public ByteBuffer getBlob(char parameterName) {
+        return getBlobAt(requireIndex(parameterName));
+    }
+
+    /**
+     * Integer value of BOOLEAN, BYTE, CHAR, INTEGER and SIGNED_INTEGER parameters, and of varints fitting into int.
+     */
+    public int getIntAt(int index) {
+        int pos = offset(index);
+        ParameterType parameterType = typeAt(pos);
+        int v = pos + 2;
+        if(parameterType == ParameterType.BOOLEAN) {
+            return NetFefDataHelper.decodeBoolean(bytes[v]) ? 1 : 0;
+        } else if((parameterType == ParameterType.BYTE) || (parameterType == ParameterType.CHAR)) {
+            return bytes[v] & 0xFF;
+        } else if(parameterType == ParameterType.INTEGER) {
+            return ByteArrayReader.getInt2(bytes[v], bytes[v + 1]);
+        } else if(parameterType == ParameterType.SIGNED_INTEGER) {
+            return ByteArrayReader.getSignedInt2(bytes[v], bytes[v + 1]);
+        } else if((parameterType == ParameterType.VARINT) || (parameterType == ParameterType.SIGNED_VARINT)) {
+            return (int)getLongAt(index);
+        }
+        throw typeMismatch(pos, "int");
+    }
+
+    /**
+     * Long value of LONG, SIGNED_LONG, VARINT and SIGNED_VARINT parameters, and of all parameters supported by
+     * {@link #getIntAt(int)}.
+     */
+    public long getLongAt(int index) {
+        int pos = offset(index);
+        ParameterType parameterType = typeAt(pos);
+        int v = pos + 2;
+        if(parameterType == ParameterType.LONG) {
+            return ByteArrayReader.getInt4(bytes[v], bytes[v + 1], bytes[v + 2], bytes[v + 3]);
+        } else if(parameterType == ParameterType.SIGNED_LONG) {
+            return ByteArrayReader.getSignedInt4(bytes[v], bytes[v + 1], bytes[v + 2], bytes[v + 3]);
+        } else if(parameterType == ParameterType.VARINT) {
+            return ByteArrayReader.getVarint(bytes, v);
+        } else if(parameterType == ParameterType.SIGNED_VARINT) {
+            return ByteArrayReader.unzigzag(ByteArrayReader.getVarint(bytes, v));
+        }
+        return getIntAt(index);
+    }
+
+    public char getCharAt(int index) {
+        int pos = offset(index);
+        if(typeAt(pos) != ParameterType.CHAR) {
+            throw typeMismatch(pos, "char");
+        }
+        return (char)(bytes[pos + 2] & 0xFF);
+    }
+
+    public boolean getBooleanAt(int index) {
+        int pos = offset(index);
+        if(typeAt(pos) != ParameterType.BOOLEAN) {
+            throw typeMismatch(pos, "boolean");
+        }
+        return NetFefDataHelper.decodeBoolean(bytes[pos + 2]);
+    }
+
+    public String getStringAt(int index) {
+        int pos = offset(index);
+        ParameterType parameterType = typeAt(pos);
+        if(parameterType == ParameterType.STRING1) {
+            return NetFefDataHelper.decodeString(bytes, pos + 3, (bytes[pos + 2] & 0xFF) - 1);
+        } else if(parameterType == ParameterType.STRING2) {
+            return NetFefDataHelper.decodeString(bytes, pos + 4, ByteArrayReader.getInt2(bytes[pos + 2], bytes[pos + 3]) - 1);
+        } else if(parameterType == ParameterType.COMPRESSED) {
+            return expand(pos).getStringAt(0);
+        }
+        throw typeMismatch(pos, "String");
+    }
+
+    public StructView getStructAt(int index) {
+        int pos = offset(index);
+        ParameterType parameterType = typeAt(pos);
+        if(parameterType == ParameterType.STRUCT1) {
+            return new StructView(bytes, pos + 3);
+        } else if(parameterType == ParameterType.STRUCT2) {
+            return new StructView(bytes, pos + 4);
+        } else if(parameterType == ParameterType.COMPRESSED) {
+            return expand(pos).getStructAt(0);
+        }
+        throw typeMismatch(pos, "Struct");
+    }
+
+    /**
+     * @return Read only slice of the bytes, valid as long as the view is.
+     */
+    public ByteBuffer getBlobAt(int index) {
+        int pos = offset(index);
+        ParameterType parameterType = typeAt(pos);
+        if(parameterType == ParameterType.BLOB1) {
+            return ByteBuffer.wrap(bytes, pos + 3, bytes[pos + 2] & 0xFF).slice().asReadOnlyBuffer();
+        } else if(parameterType == ParameterType.BLOB2) {
+            return ByteBuffer.wrap(bytes, pos + 4, ByteArrayReader.getInt2(bytes[pos + 2], bytes[pos + 3])).slice().asReadOnlyBuffer();
+        }
+        throw typeMismatch(pos, "ByteBuffer");
+    }
+
+    /**
+     * Materialize the struct with all its parameters.
+     */
+    public Struct toStruct() {
+        return new Struct(readParameters());
+    }
+
+    /**
+     * Reads the parameters straight from the viewed bytes. Blob values are copied, so they stay valid after the
+     * viewed bytes are reused.
+     */
+    List<Parameter> readParameters() {
+        int start = paramsPosition - 1;
+        int end = paramsPosition;
+        if(parameterCount > 0) {
+            int last = getOffsets()[parameterCount - 1];
+            end = last + NetFefDataHelper.getParameterSpace(bytes, last);
+        }
+        return NetFefDataHelper.readStructParameters(new ByteArrayReader(bytes, start, end - start));
+    }
+
+    private int requireIndex(char parameterName) {
+        int index = indexOf(parameterName);
+        if(index < 0) {
+            throw new IllegalArgumentException("Parameter '" + parameterName + "' not found.");
+        }
+        return index;
+    }
+
+    /**
+     * @return Position of the parameter (its name) in the bytes.
+     */
+    int getParameterPosition(int index) {
+        return offset(index);
+    }
+
+    private int offset(int index) {
+        if((index < 0) || (index >= parameterCount)) {
+            throw new IndexOutOfBoundsException("Parameter index " + index + " is out of range, parameter count is " + parameterCount + ".");
+        }
+        return getOffsets()[index];
+    }
+
+    /**
+     * @return View of a single parameter struct, holding the decompressed parameter at the position.
+     */
+    private StructView expand(int pos) {
+        return new StructView(NetFefDataHelper.expandCompressed(bytes, pos), 0);
+    }
+
+    private ParameterType typeAt(int pos) {
+        return ParameterType.getByVisual((char)(bytes[pos + 1] & 0xFF));
+    }
+
+    private IllegalStateException typeMismatch(int pos, String requested) {
+        return new IllegalStateException("Parameter '" + (char)bytes[pos] + "' of type " + typeAt(pos) + " cannot be read as " + requested + ".");
+    }
+
+    /**
+     * Index the parameter offsets of received bytes, checking that all the parameters, also of the nested structs,
+     * are of known type and end before the end position.
+     * @return False if the bytes do not form valid parameters.
+     */
+    boolean indexParameters(int end) {
+        int[] o = new int[parameterCount];
+        int pos = paramsPosition;
+        for (int i = 0; i < parameterCount; i++) {
+            int space = NetFefDataHelper.getParameterSpace(bytes, pos, end);
+            if(space < 0) {
+                return false;
+            }
+            ParameterType parameterType = typeAt(pos);
+            if((parameterType == ParameterType.STRUCT1) || (parameterType == ParameterType.STRUCT2)) {
+                int countPosition = pos + (parameterType == ParameterType.STRUCT1 ? 3 : 4);
+                if((countPosition >= pos + space) || !new StructView(bytes, countPosition).indexParameters(pos + space)) {
+                    return false;
+                }
+            }
+            o[i] = pos;
+            pos += space;
+        }
+        offsets = o;
+        return true;
+    }
+
+    private int[] getOffsets() {
+        if(offsets == null) {
+            int[] o = new int[parameterCount];
+            int pos = paramsPosition;
+            for (int i = 0; i < parameterCount; i++) {
+                o[i] = pos;
+                pos += NetFefDataHelper.getParameterSpace(bytes, pos);
+            }
+            offsets = o;
+        }
+        return offsets;
+    }
+}
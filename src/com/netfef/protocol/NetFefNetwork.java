@@ -12,9 +12,14 @@
 package com.netfef.protocol;
 
 import com.netfef.data.Frame;
+import com.netfef.protocol.obsidian.FanOutListener;
+import com.netfef.protocol.obsidian.FanOutResult;
 import com.netfef.protocol.obsidian.ReplyListener;
+import com.netfef.protocol.obsidian.RequestOptions;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>Network is a group of devices connected together.</p>
@@ -30,5 +35,28 @@ public interface NetFefNetwork {
     void sendData(Frame frame);
     void sendData(Frame frame, ReplyListener replyListener);
 
+    /**
+     * Send the same frame to each of the peers, expecting a reply from all of them.
+     * @param frame Frame to send, its target address is ignored.
+     * @param targetAddresses Peers to send to.
+     * @param listener Receives the replies and the aggregated result.
+     */
+    void sendFanOut(Frame frame, Collection<byte[]> targetAddresses, FanOutListener listener);
+
+    /**
+     * Send the frame expecting a reply.
+     * @param options Options of the request, null for {@link RequestOptions#defaults()}.
+     * @return Completed with the replied frame, or exceptionally with a
+     *  {@link java.util.concurrent.TimeoutException} if the peer did not reply.
+     */
+    CompletableFuture<Frame> request(Frame frame, RequestOptions options);
+
+    /**
+     * Send the same frame to each of the peers, expecting a reply from all of them.
+     * @param options Options of the requests, null for {@link RequestOptions#defaults()}.
+     * @return Completed when all the peers have replied or failed.
+     */
+    CompletableFuture<FanOutResult> requestAll(Frame frame, Collection<byte[]> targetAddresses, RequestOptions options);
+
     void shutdown();
 }
@@ -11,9 +11,11 @@
 
 package com.netfef.protocol;
 
+import com.netfef.data.EncodedFrame;
 import com.netfef.data.Frame;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * <p>Network is a group of devices connected together.</p>
@@ -30,5 +32,19 @@ public interface NetFefPhysicalLayer {
 
     void sendData(Frame frame, byte[] myAddress);
 
+    /**
+     * Send an already encoded frame. The same encoded frame can be sent multiple times.
+     */
+    void sendData(EncodedFrame encodedFrame);
+
+    /**
+     * Send the frames back to back, without giving up the bus between them (e.g. fragments of a frame).
+     */
+    default void sendBurst(List<EncodedFrame> encodedFrames) {
+        for (EncodedFrame encodedFrame : encodedFrames) {
+            sendData(encodedFrame);
+        }
+    }
+
     NetFefNetworkConfig getConfig(Class<? extends NetFefNetwork> networkClass);
 }
@@ -12,6 +12,7 @@
 package com.netfef.protocol;
 
 import com.netfef.data.Frame;
+import com.netfef.data.FrameView;
 
 import java.io.IOException;
 import java.util.EventListener;
@@ -25,5 +26,13 @@ public interface NetFefReceiveListener {
 
     void dataReceived(Frame frame);
 
+    /**
+     * Called by physical layers that decode frames in place. The view is only valid during this call, by default
+     * it is materialized and passed to {@link #dataReceived(Frame)}.
+     */
+    default void frameReceived(FrameView frameView) {
+        dataReceived(frameView.toFrame());
+    }
+
     void handleError(IOException e);
 }
@@ -11,6 +11,7 @@
 
 package com.netfef.protocol;
 
+import com.netfef.protocol.obsidian.TimingWheel;
 import com.netfef.util.FormatHelper;
 
 import java.util.Arrays;
@@ -22,13 +23,27 @@ import java.util.Date;
  * <br/>Date: 4/30/15</p>
  */
 public class Peer {
+    /** Feature bit advertised in the join reply: the peer decodes COMPRESSED parameters. */
+    public static final int FEATURE_COMPRESSION = 0x01;
+    /** Feature bit advertised in the join reply: the peer reassembles fragmented frames. */
+    public static final int FEATURE_FRAGMENTATION = 0x02;
+    /** Feature bit advertised in the join reply: the peer unpacks envelope frames. */
+    public static final int FEATURE_ENVELOPE = 0x04;
+    /** Feature bit advertised in the join reply: the peer checks and sends frames ending with a CRC-16. */
+    public static final int FEATURE_CRC16 = 0x08;
+    /** Last seen time of a peer not seen yet. */
+    public static final long NEVER = Long.MIN_VALUE;
+
     byte[] address;
     long registrationId;
     boolean active = true;
-    public Date lastSeen;
-    public Date nextPollTime = new Date();
+    /** Times of the monotonic clock {@link TimingWheel#currentTimeMillis()}, converted to Date only on request. */
+    private long lastSeenMillis = NEVER;
+    private long nextPollTimeMillis = TimingWheel.currentTimeMillis();
     private String description;
     private String version;
+    private int features;
+    private int maxFrameLength;
 
     public Peer(byte[] address, long registrationId) {
         this.address = address;
@@ -59,24 +74,56 @@ public class Peer {
         this.active = active;
     }
 
+    /**
+     * @return Monotonic time the peer was last heard from, {@link #NEVER} if not seen yet.
+     */
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    public void setLastSeenMillis(long lastSeenMillis) {
+        this.lastSeenMillis = lastSeenMillis;
+    }
+
+    /**
+     * @return Monotonic time of the next poll.
+     */
+    public long getNextPollTimeMillis() {
+        return nextPollTimeMillis;
+    }
+
+    public void setNextPollTimeMillis(long nextPollTimeMillis) {
+        this.nextPollTimeMillis = nextPollTimeMillis;
+    }
+
+    /**
+     * For persistence and display.
+     */
     public Date getLastSeen() {
-        return lastSeen;
+        return lastSeenMillis == NEVER ? null : toDate(lastSeenMillis);
     }
 
     public void setLastSeen(Date lastSeen) {
-        this.lastSeen = lastSeen;
+        this.lastSeenMillis = lastSeen == null ? NEVER : toMonotonic(lastSeen);
     }
 
+    /**
+     * For persistence and display.
+     */
     public Date getNextPollTime() {
-        return nextPollTime;
+        return toDate(nextPollTimeMillis);
     }
 
     public void setNextPollTime(Date nextPollTime) {
-        this.nextPollTime = nextPollTime;
+        this.nextPollTimeMillis = toMonotonic(nextPollTime);
+    }
+
+    private static Date toDate(long monotonicMillis) {
+        return new Date(System.currentTimeMillis() + (monotonicMillis - TimingWheel.currentTimeMillis()));
     }
 
-    public void setNextPollTimeAfterSecs(int secs) {
-        setNextPollTime(new Date(new Date().getTime() + secs*1000));
+    private static long toMonotonic(Date date) {
+        return TimingWheel.currentTimeMillis() + (date.getTime() - System.currentTimeMillis());
     }
 
     @Override
@@ -127,4 +174,42 @@ public class Peer {
     public String getVersion() {
         return version;
     }
+
+    /**
+     * @param features Bits of the feature parameter of the join reply.
+     */
+    public void setFeatures(int features) {
+        this.features = features;
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    public boolean supportsCompression() {
+        return (features & FEATURE_COMPRESSION) != 0;
+    }
+
+    public boolean supportsEnvelope() {
+        return (features & FEATURE_ENVELOPE) != 0;
+    }
+
+    public boolean supportsFragmentation() {
+        return (features & FEATURE_FRAGMENTATION) != 0;
+    }
+
+    public boolean supportsCrc16() {
+        return (features & FEATURE_CRC16) != 0;
+    }
+
+    /**
+     * @param maxFrameLength Receive buffer length advertised in the join reply, 0 if unknown.
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
 }
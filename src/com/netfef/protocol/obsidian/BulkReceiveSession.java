@@ -0,0 +1,154 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.EncodedFrame;
+import com.netfef.data.Frame;
+import com.netfef.data.Parameter;
+import com.netfef.data.ParameterType;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Receiving side of a bulk transfer. Chunks are kept in any order, and acknowledged when the sender asks for
+ * it, or when all of them arrived.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/26/15</p>
+ */
+class BulkReceiveSession extends BulkTransferSession {
+    private final long idleTimeoutMs;
+    private byte[][] chunks;
+    /** Chunks before this are all received. */
+    private int received;
+    private long lastChunkTime;
+
+    /**
+     * @param idleTimeoutMs The session fails when no chunk arrives for this long.
+     */
+    BulkReceiveSession(char subject, int sessionId, byte[] peerAddress, byte[] myAddress, long idleTimeoutMs,
+                       BulkTransferListener listener, long now) {
+        super(subject, sessionId, peerAddress, myAddress, listener, now);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.lastChunkTime = now;
+    }
+
+    @Override
+    public boolean isSending() {
+        return false;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return (chunks != null) && (received >= chunks.length);
+    }
+
+    /**
+     * Kept for a while after completion, to acknowledge the chunks sent again when our acknowledge was lost.
+     */
+    @Override
+    boolean isDisposable(long now) {
+        return failed || (isComplete() && (endTime + idleTimeoutMs < now));
+    }
+
+    @Override
+    synchronized List<EncodedFrame> poll(long now) {
+        if(!isFinished() && (lastChunkTime + idleTimeoutMs < now)) {
+            finish(now, true);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    synchronized long getNextDeadline() {
+        if(failed) {
+            return 0;
+        }
+        // -- Checks are exclusive, so one more millisecond.
+        return (isComplete() ? endTime : lastChunkTime) + idleTimeoutMs + 1;
+    }
+
+    /**
+     * @param chunk A received 'b' frame of this session.
+     * @return Acknowledge frame to be sent, or null.
+     */
+    synchronized EncodedFrame onChunk(Frame chunk, long now) {
+        int index = chunk.getParameter(PARAM_NAME_INDEX).getIntValue();
+        int count = chunk.getParameter(PARAM_NAME_COUNT).getIntValue();
+        ByteBuffer data = chunk.getParameter(PARAM_NAME_DATA).getBlobValue();
+        if(chunks == null) {
+            chunks = new byte[count][];
+        }
+        if((count != chunks.length) || (index >= count) || (data == null)) {
+            return null;
+        }
+        lastChunkTime = now;
+        if(chunks[index] == null) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            chunks[index] = bytes;
+            transferredBytes += bytes.length;
+        } else {
+            retransmitCount += 1;
+        }
+        while((received < chunks.length) && (chunks[received] != null)) {
+            received += 1;
+        }
+        boolean wasFinished = isFinished();
+        if(isComplete() && !wasFinished) {
+            finish(now, false);
+        }
+        if(!chunk.hasParameter(PARAM_NAME_ACK_REQUEST) && !isComplete()) {
+            return null;
+        }
+        long selective = 0;
+        for (int i = 0; (i < SELECTIVE_BITS) && (received + 1 + i < chunks.length); i++) {
+            if(chunks[received + 1 + i] != null) {
+                selective |= 1L << i;
+            }
+        }
+        Frame ack = new Frame(peerAddress, subject, COMMAND_ACK);
+        ack.addParameter(new Parameter(PARAM_NAME_SESSION, ParameterType.INTEGER, sessionId));
+        ack.addParameter(new Parameter(PARAM_NAME_RECEIVED, ParameterType.INTEGER, received));
+        ack.addParameter(new Parameter(PARAM_NAME_SELECTIVE, ParameterType.LONG, selective));
+        return EncodedFrame.encode(ack, myAddress);
+    }
+
+    /**
+     * @return All the received bytes, null if the transfer is not complete.
+     */
+    synchronized ByteBuffer getData() {
+        if(!isComplete()) {
+            return null;
+        }
+        byte[] bytes = new byte[(int)transferredBytes];
+        int position = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, bytes, position, chunk.length);
+            position += chunk.length;
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    @Override
+    void notifyListener() {
+        if(listener == null) {
+            return;
+        }
+        if(failed) {
+            listener.onError(this);
+        } else {
+            listener.onComplete(this, getData());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.EncodedFrame;
+import com.netfef.data.Frame;
+import com.netfef.data.Parameter;
+import com.netfef.data.ParameterType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Sending side of a bulk transfer. At most window size chunks are unacknowledged, they are sent as one burst
+ * with an acknowledge requested on the last one. Chunks reported missing, or all unacknowledged ones after a
+ * timeout, are sent again.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/26/15</p>
+ */
+class BulkSendSession extends BulkTransferSession {
+    private final ByteBuffer data;
+    private final int chunkLength;
+    private final int chunkCount;
+    private final int windowSize;
+    private final long ackTimeoutMs;
+    private final long maxTimeouts;
+    private final BitSet acknowledged = new BitSet();
+    /** Chunks before this are all acknowledged. */
+    private int base;
+    /** Chunks from this on were never sent. */
+    private int nextToSend;
+    private boolean awaitingAck;
+    private long burstSentTime;
+    private int timeouts;
+
+    /**
+     * @param maxFrameLength Maximal length of a chunk frame accepted by the peer.
+     */
+    BulkSendSession(char subject, int sessionId, byte[] peerAddress, byte[] myAddress, ByteBuffer data, int maxFrameLength,
+                    int windowSize, long ackTimeoutMs, long maxTimeouts, BulkTransferListener listener, long now) {
+        super(subject, sessionId, peerAddress, myAddress, listener, now);
+        this.data = data.slice().asReadOnlyBuffer();
+        this.chunkLength = maxFrameLength - getChunkOverhead(peerAddress.length, myAddress.length);
+        if(chunkLength <= 0) {
+            throw new IllegalArgumentException("Frame length " + maxFrameLength + " is too short for bulk transfer.");
+        }
+        // -- Even empty data is sent in one chunk, so the receiver knows about it.
+        this.chunkCount = Math.max(1, (this.data.remaining() + chunkLength - 1) / chunkLength);
+        if(chunkCount > 0xFFFF) {
+            throw new IllegalArgumentException("Data of " + this.data.remaining() + " bytes would need " + chunkCount + " chunks.");
+        }
+        this.windowSize = windowSize;
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.maxTimeouts = maxTimeouts;
+    }
+
+    @Override
+    public boolean isSending() {
+        return true;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return base >= chunkCount;
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    synchronized List<EncodedFrame> poll(long now) {
+        if(isFinished()) {
+            return Collections.emptyList();
+        }
+        List<EncodedFrame> burst = new ArrayList<>();
+        if(awaitingAck) {
+            if(now < burstSentTime + ackTimeoutMs) {
+                return burst;
+            }
+            timeouts += 1;
+            if(timeouts > maxTimeouts) {
+                finish(now, true);
+                return burst;
+            }
+        }
+        // -- Missing chunks first, then the new ones the window allows.
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = acknowledged.nextClearBit(base); i < nextToSend; i = acknowledged.nextClearBit(i + 1)) {
+            indexes.add(i);
+            retransmitCount += 1;
+        }
+        while((nextToSend < chunkCount) && (nextToSend < base + windowSize)) {
+            indexes.add(nextToSend);
+            nextToSend += 1;
+        }
+        for (int i = 0; i < indexes.size(); i++) {
+            burst.add(buildChunk(indexes.get(i), i == indexes.size() - 1));
+        }
+        if(!burst.isEmpty()) {
+            awaitingAck = true;
+            burstSentTime = now;
+        }
+        return burst;
+    }
+
+    @Override
+    synchronized long getNextDeadline() {
+        if(!isFinished() && awaitingAck) {
+            return burstSentTime + ackTimeoutMs;
+        }
+        // -- Chunks to be sent, or the session is to be disposed.
+        return 0;
+    }
+
+    /**
+     * @param received Number of chunks received in order.
+     * @param selective Bits of the chunks received after the first missing one.
+     */
+    synchronized void onAck(int received, long selective, long now) {
+        if(isFinished()) {
+            return;
+        }
+        received = Math.min(received, nextToSend);
+        if(received > base) {
+            timeouts = 0;
+        }
+        acknowledged.set(0, Math.max(received, base));
+        for (int i = 0; i < SELECTIVE_BITS; i++) {
+            int index = received + 1 + i;
+            if(((selective >> i) & 1) != 0 && (index < nextToSend)) {
+                acknowledged.set(index);
+            }
+        }
+        base = acknowledged.nextClearBit(base);
+        // -- Only the last chunk may be shorter.
+        transferredBytes = (long)acknowledged.cardinality() * chunkLength;
+        if(acknowledged.get(chunkCount - 1)) {
+            transferredBytes -= chunkLength - getChunkSize(chunkCount - 1);
+        }
+        awaitingAck = false;
+        if(isComplete()) {
+            finish(now, false);
+        }
+    }
+
+    @Override
+    void notifyListener() {
+        if(listener == null) {
+            return;
+        }
+        if(failed) {
+            listener.onError(this);
+        } else {
+            listener.onComplete(this, null);
+        }
+    }
+
+    private int getChunkSize(int index) {
+        return Math.min(chunkLength, data.limit() - index * chunkLength);
+    }
+
+    private EncodedFrame buildChunk(int index, boolean ackRequest) {
+        ByteBuffer slice = data.duplicate();
+        slice.position(index * chunkLength);
+        slice.limit(index * chunkLength + getChunkSize(index));
+        Frame chunk = new Frame(peerAddress, subject, COMMAND_CHUNK);
+        chunk.addParameter(new Parameter(PARAM_NAME_SESSION, ParameterType.INTEGER, sessionId));
+        chunk.addParameter(new Parameter(PARAM_NAME_INDEX, ParameterType.INTEGER, index));
+        chunk.addParameter(new Parameter(PARAM_NAME_COUNT, ParameterType.INTEGER, chunkCount));
+        if(ackRequest) {
+            Parameter parameter = new Parameter(PARAM_NAME_ACK_REQUEST, ParameterType.BOOLEAN);
+            parameter.setValue(true);
+            chunk.addParameter(parameter);
+        }
+        chunk.addParameter(new Parameter(PARAM_NAME_DATA, ParameterType.BLOB2, slice));
+        return EncodedFrame.encode(chunk, myAddress);
+    }
+}
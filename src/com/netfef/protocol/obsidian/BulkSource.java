@@ -0,0 +1,26 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Provides the data requested by a peer with a bulk transfer get.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/26/15</p>
+ */
+public interface BulkSource {
+    /**
+     * @return The data to be sent, or null if there is no such resource.
+     */
+    ByteBuffer open(byte[] requesterAddress, String resource);
+}
@@ -0,0 +1,28 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import java.nio.ByteBuffer;
+import java.util.EventListener;
+
+/**
+ * <p>Called when a bulk transfer is finished.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/26/15</p>
+ */
+public abstract class BulkTransferListener implements EventListener {
+    /**
+     * @param data The received bytes, or null if we were the sender.
+     */
+    public abstract void onComplete(BulkTransferSession session, ByteBuffer data);
+    public void onError(BulkTransferSession session) {};
+}
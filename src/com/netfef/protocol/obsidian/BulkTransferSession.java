@@ -0,0 +1,158 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.EncodedFrame;
+import com.netfef.util.FormatHelper;
+
+import java.util.List;
+
+/**
+ * <p>Transfer of a large block of bytes to or from one peer, in chunks sent with a sliding window.</p>
+ * <p>Frames of a session (all of them network management frames):</p>
+ * <ul>
+ *     <li>'b' chunk: 'i' session id, 'q' chunk index, 'k' chunk count, 'd' blob data, and 'a' when the receiver
+ *     is to acknowledge (last chunk of a burst).</li>
+ *     <li>'a' acknowledge: 'i' session id, 'u' number of chunks received in order, 'm' bits of the chunks
+ *     received after the first missing one (bit 0 is the chunk after it).</li>
+ *     <li>'g' get: 'i' session id, 'o' resource name, 'l' maximal frame length and 'w' window size of the
+ *     requester. The peer answers by sending the resource in chunks.</li>
+ * </ul>
+ * <p>User: kelemenb
+ * <br/>Date: 6/26/15</p>
+ */
+public abstract class BulkTransferSession {
+    public static final char COMMAND_CHUNK = 'b';
+    public static final char COMMAND_ACK = 'a';
+    public static final char COMMAND_GET = 'g';
+    static final char PARAM_NAME_SESSION = 'i';
+    static final char PARAM_NAME_INDEX = 'q';
+    static final char PARAM_NAME_COUNT = 'k';
+    static final char PARAM_NAME_ACK_REQUEST = 'a';
+    static final char PARAM_NAME_DATA = 'd';
+    static final char PARAM_NAME_RECEIVED = 'u';
+    static final char PARAM_NAME_SELECTIVE = 'm';
+    static final char PARAM_NAME_RESOURCE = 'o';
+    static final char PARAM_NAME_MAX_LENGTH = 'l';
+    static final char PARAM_NAME_WINDOW = 'w';
+    /** Number of chunks the selective acknowledge covers. */
+    static final int SELECTIVE_BITS = 32;
+
+    final char subject;
+    final int sessionId;
+    final byte[] peerAddress;
+    final byte[] myAddress;
+    final BulkTransferListener listener;
+    final long startTime;
+    long endTime;
+    long transferredBytes;
+    int retransmitCount;
+    boolean failed;
+    boolean notified;
+
+    BulkTransferSession(char subject, int sessionId, byte[] peerAddress, byte[] myAddress, BulkTransferListener listener, long now) {
+        this.subject = subject;
+        this.sessionId = sessionId;
+        this.peerAddress = peerAddress;
+        this.myAddress = myAddress;
+        this.listener = listener;
+        this.startTime = now;
+    }
+
+    /**
+     * @return Frames to be sent now as a burst, possibly none. Also detects the session timing out.
+     */
+    abstract List<EncodedFrame> poll(long now);
+
+    /**
+     * @return Time {@link #poll(long)} has something to do, 0 if right away, Long.MAX_VALUE if nothing is scheduled.
+     */
+    abstract long getNextDeadline();
+
+    /**
+     * Call the listener, after the session is complete or failed.
+     */
+    abstract void notifyListener();
+
+    /**
+     * @return True if the finished session is no longer needed to answer the peer.
+     */
+    boolean isDisposable(long now) {
+        return isFinished();
+    }
+
+    public abstract boolean isSending();
+
+    public abstract boolean isComplete();
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public byte[] getPeerAddress() {
+        return peerAddress;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public boolean isFinished() {
+        return failed || isComplete();
+    }
+
+    /**
+     * @return Bytes of data (without frame overhead) acknowledged or received so far.
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * @return Number of chunks sent more than once.
+     */
+    public int getRetransmitCount() {
+        return retransmitCount;
+    }
+
+    public long getElapsedMs() {
+        return (endTime > 0 ? endTime : TimingWheel.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return Effective throughput of the data in bytes per second.
+     */
+    public double getThroughput() {
+        long elapsed = getElapsedMs();
+        return elapsed <= 0 ? 0 : transferredBytes * 1000.0 / elapsed;
+    }
+
+    void finish(long now, boolean failed) {
+        this.failed = failed;
+        this.endTime = now;
+    }
+
+    /**
+     * @return Bytes of a chunk frame not used by the data.
+     */
+    static int getChunkOverhead(int targetAddressLength, int senderAddressLength) {
+        // -- Frame length, address lengths, parameter count, subject, command, 'i', 'q', 'k', 'a', 'd' header and check sum.
+        return 2 + 1 + targetAddressLength + 1 + senderAddressLength + 1 + 3 + 3 + 4 + 4 + 4 + 3 + 4 + 1;
+    }
+
+    @Override
+    public String toString() {
+        return (isSending() ? "Send" : "Receive") + " session " + sessionId + " with " + FormatHelper.byteArrayToString3(peerAddress)
+                + ": " + transferredBytes + " bytes in " + getElapsedMs() + "ms (" + String.format("%.1f", getThroughput()) + " B/s), "
+                + retransmitCount + " retransmit(s)" + (failed ? ", failed" : "");
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.Frame;
+
+import java.util.EventListener;
+
+/**
+ * <p>Called when the same frame is sent to a set of peers, see {@link NetFefObsidian#sendFanOut}.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/20/15</p>
+ */
+public abstract class FanOutListener implements EventListener {
+    /**
+     * Called for each reply as it arrives.
+     */
+    public void onReply(byte[] peerAddress, Frame repliedFrame) {};
+
+    /**
+     * Called once, when all the peers have replied or failed.
+     */
+    public abstract void onComplete(FanOutResult result);
+}
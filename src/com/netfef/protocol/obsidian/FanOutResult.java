@@ -0,0 +1,107 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.Frame;
+import com.netfef.util.FormatHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Outcome of a fan-out send: the replies and the peers that did not reply.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/20/15</p>
+ */
+public class FanOutResult {
+    private final int peerCount;
+    private final List<byte[]> repliedAddresses = new ArrayList<>();
+    private final List<Frame> replies = new ArrayList<>();
+    private final List<byte[]> failedAddresses = new ArrayList<>();
+
+    FanOutResult(int peerCount) {
+        this.peerCount = peerCount;
+    }
+
+    /**
+     * @return True if this was the last peer to be answered.
+     */
+    synchronized boolean addReply(byte[] peerAddress, Frame repliedFrame) {
+        repliedAddresses.add(peerAddress);
+        replies.add(repliedFrame);
+        return isComplete();
+    }
+
+    /**
+     * @return True if this was the last peer to be answered.
+     */
+    synchronized boolean addFailure(byte[] peerAddress) {
+        failedAddresses.add(peerAddress);
+        return isComplete();
+    }
+
+    synchronized boolean isComplete() {
+        return replies.size() + failedAddresses.size() >= peerCount;
+    }
+
+    public int getPeerCount() {
+        return peerCount;
+    }
+
+    public synchronized int getReplyCount() {
+        return replies.size();
+    }
+
+    public synchronized int getFailureCount() {
+        return failedAddresses.size();
+    }
+
+    public synchronized boolean isAllReplied() {
+        return replies.size() == peerCount;
+    }
+
+    /**
+     * @return The replied frame of the peer, or null if it did not reply.
+     */
+    public synchronized Frame getReply(byte[] peerAddress) {
+        for (int i = 0; i < repliedAddresses.size(); i++) {
+            if(Arrays.equals(repliedAddresses.get(i), peerAddress)) {
+                return replies.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Replied frames in the order of arrival.
+     */
+    public synchronized List<Frame> getReplies() {
+        return new ArrayList<>(replies);
+    }
+
+    public synchronized List<byte[]> getFailedAddresses() {
+        return Collections.unmodifiableList(new ArrayList<>(failedAddresses));
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("FanOutResult{replied=" + replies.size() + "/" + peerCount + ", failed=[");
+        for (int i = 0; i < failedAddresses.size(); i++) {
+            if(i > 0) {
+                sb.append(", ");
+            }
+            sb.append(FormatHelper.byteArrayToString3(failedAddresses.get(i)));
+        }
+        return sb.append("]}").toString();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.EncodedFrame;
+import com.netfef.data.Frame;
+import com.netfef.data.NetFefDataHelper;
+import com.netfef.data.Parameter;
+import com.netfef.data.ParameterType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Packs several frames into one envelope frame, so they are sent in one transmission. The envelope is an
+ * 'n','e' network management frame with an 'e' blob parameter for the wire bytes of each packed frame.</p>
+ * <p>The envelope is sent to the common target of the packed frames, or broadcast if they have different targets.
+ * Each receiver processes the packed frames addressed to it. Not thread safe.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/29/15</p>
+ */
+public class FrameBatcher {
+    public static final char ENVELOPE_COMMAND = 'e';
+    public static final char PARAM_NAME_FRAME = 'e';
+
+    private final char subject;
+    private final byte[] myAddress;
+    private final List<EncodedFrame> pending = new ArrayList<>();
+    private byte[] targetAddress;
+    private int length;
+    private int limit;
+    private long firstAddedTime;
+
+    /**
+     * @param subject Subject of the envelope frames (the network management subject).
+     */
+    public FrameBatcher(char subject, byte[] myAddress) {
+        this.subject = subject;
+        this.myAddress = myAddress;
+    }
+
+    /**
+     * @return Bytes of the envelope not used by the packed frames.
+     */
+    private int getOverhead(int targetAddressLength) {
+        // -- Frame length, address lengths, parameter count, subject, command and check sum.
+        return 2 + 1 + targetAddressLength + 1 + myAddress.length + 1 + 3 + 3 + 1;
+    }
+
+    private static int getSpace(EncodedFrame frame) {
+        return (frame.getLength() > 0xFF ? 4 : 3) + frame.getLength();
+    }
+
+    /**
+     * @param maxLength Maximal envelope length accepted by the target of the frame.
+     * @return False if the frame does not fit besides the pending ones. Send the pending ones with
+     * {@link #drain()}, and add the frame again.
+     */
+    public boolean add(EncodedFrame frame, int maxLength, long now) {
+        byte[] frameTarget = frame.getTargetAddress();
+        byte[] newTarget = (targetAddress == null) || Arrays.equals(targetAddress, frameTarget) ? frameTarget : NetFefDataHelper.BROADCAST_ADDRESS;
+        int newLimit = pending.isEmpty() ? maxLength : Math.min(limit, maxLength);
+        int newLength = length + getSpace(frame);
+        if(!pending.isEmpty() && (getOverhead(newTarget.length) + newLength > newLimit)) {
+            return false;
+        }
+        if(pending.isEmpty()) {
+            firstAddedTime = now;
+        }
+        pending.add(frame);
+        targetAddress = newTarget;
+        length = newLength;
+        limit = newLimit;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * @return True if the first pending frame waited long enough for others to join.
+     */
+    public boolean isDue(long now, long lingerMs) {
+        return !pending.isEmpty() && (firstAddedTime + lingerMs <= now);
+    }
+
+    /**
+     * @return Time the pending frames are due, Long.MAX_VALUE if there is none.
+     */
+    public long getDueTime(long lingerMs) {
+        return pending.isEmpty() ? Long.MAX_VALUE : firstAddedTime + lingerMs;
+    }
+
+    /**
+     * @return The envelope of the pending frames, the frame itself if only one is pending, or null if none.
+     */
+    public EncodedFrame drain() {
+        EncodedFrame result;
+        if(pending.isEmpty()) {
+            return null;
+        } else if(pending.size() == 1) {
+            result = pending.get(0);
+        } else {
+            Frame envelope = new Frame(targetAddress, subject, ENVELOPE_COMMAND);
+            for (EncodedFrame frame : pending) {
+                envelope.addParameter(new Parameter(PARAM_NAME_FRAME, ParameterType.BLOB1, frame.asReadOnlyBuffer()));
+            }
+            result = EncodedFrame.encode(envelope, myAddress);
+        }
+        pending.clear();
+        targetAddress = null;
+        length = 0;
+        return result;
+    }
+
+    /**
+     * @param acceptAddress Only the frames for this address (or broadcast) are returned.
+     * @return The valid frames packed into the envelope for us.
+     */
+    public static List<Frame> unpack(Frame envelope, byte[] acceptAddress) {
+        List<Frame> frames = new ArrayList<>();
+        for (Parameter parameter : envelope.getParameterList(PARAM_NAME_FRAME)) {
+            ByteBuffer blob = parameter.getBlobValue();
+            if(blob == null) {
+                continue;
+            }
+            byte[] bytes = new byte[blob.remaining()];
+            blob.get(bytes);
+            Frame frame = NetFefDataHelper.buildFrameObject(bytes, bytes.length, acceptAddress);
+            if(frame != null) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+}
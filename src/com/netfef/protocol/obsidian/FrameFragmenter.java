@@ -0,0 +1,100 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.EncodedFrame;
+import com.netfef.data.Frame;
+import com.netfef.data.Parameter;
+import com.netfef.data.ParameterType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Splits a frame too long for the receiver into fragment frames. A fragment is an 'n','f' network management
+ * frame carrying a slice of the wire bytes of the original frame:</p>
+ * <ul>
+ *     <li>'i' INTEGER: message id, the same for all fragments of a frame,</li>
+ *     <li>'q' BYTE: index of the fragment,</li>
+ *     <li>'k' BYTE: number of fragments,</li>
+ *     <li>'d' BLOB1/BLOB2: the slice.</li>
+ * </ul>
+ * <p>The original frame is validated by its own check sum after reassembly, see {@link FrameReassembler}.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/24/15</p>
+ */
+public class FrameFragmenter {
+    public static final char FRAGMENT_COMMAND = 'f';
+    public static final char PARAM_NAME_MESSAGE_ID = 'i';
+    public static final char PARAM_NAME_INDEX = 'q';
+    public static final char PARAM_NAME_COUNT = 'k';
+    public static final char PARAM_NAME_DATA = 'd';
+    public static final int MAX_FRAGMENT_COUNT = 0xFF;
+
+    private final char subject;
+    private final AtomicInteger nextMessageId = new AtomicInteger();
+
+    /**
+     * @param subject Subject of the fragment frames (the network management subject).
+     */
+    public FrameFragmenter(char subject) {
+        this.subject = subject;
+    }
+
+    /**
+     * @return Bytes of a fragment frame not used by the slice.
+     */
+    static int getOverhead(int targetAddressLength, int senderAddressLength) {
+        // -- Frame length, address lengths, parameter count, subject, command, 'i', 'q', 'k', 'd' header and check sum.
+        return 2 + 1 + targetAddressLength + 1 + senderAddressLength + 1 + 3 + 3 + 4 + 3 + 3 + 4 + 1;
+    }
+
+    /**
+     * @param frame Frame to be split.
+     * @param maxFragmentLength Maximal length of a fragment frame.
+     * @return Fragment frames to be sent in order, or the frame itself if it fits.
+     * @throws IllegalArgumentException If the frame would need more than {@link #MAX_FRAGMENT_COUNT} fragments.
+     */
+    public List<EncodedFrame> fragment(EncodedFrame frame, int maxFragmentLength) {
+        List<EncodedFrame> fragments = new ArrayList<>();
+        if(frame.getLength() <= maxFragmentLength) {
+            fragments.add(frame);
+            return fragments;
+        }
+        byte[] targetAddress = frame.getTargetAddress();
+        byte[] senderAddress = frame.getView().getSenderAddress();
+        int sliceLength = maxFragmentLength - getOverhead(targetAddress.length, senderAddress.length);
+        if(sliceLength <= 0) {
+            throw new IllegalArgumentException("Fragment length " + maxFragmentLength + " is too short.");
+        }
+        int count = (frame.getLength() + sliceLength - 1) / sliceLength;
+        if(count > MAX_FRAGMENT_COUNT) {
+            throw new IllegalArgumentException("Frame of " + frame.getLength() + " bytes would need " + count + " fragments of " + maxFragmentLength + " bytes.");
+        }
+        int messageId = nextMessageId.getAndIncrement() & 0xFFFF;
+        ByteBuffer bytes = frame.asReadOnlyBuffer();
+        for (int i = 0; i < count; i++) {
+            int start = i * sliceLength;
+            bytes.limit(Math.min(start + sliceLength, frame.getLength()));
+            bytes.position(start);
+            Frame fragment = new Frame(targetAddress, subject, FRAGMENT_COMMAND);
+            fragment.addParameter(new Parameter(PARAM_NAME_MESSAGE_ID, ParameterType.INTEGER, messageId));
+            fragment.addParameter(new Parameter(PARAM_NAME_INDEX, ParameterType.BYTE, i));
+            fragment.addParameter(new Parameter(PARAM_NAME_COUNT, ParameterType.BYTE, count));
+            fragment.addParameter(new Parameter(PARAM_NAME_DATA, ParameterType.BLOB1, bytes));
+            fragments.add(EncodedFrame.encode(fragment, senderAddress));
+        }
+        return fragments;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.data.Frame;
+import com.netfef.data.NetFefDataHelper;
+import com.netfef.util.FormatHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Collects the fragments made by {@link FrameFragmenter} and rebuilds the original frame.</p>
+ * <p>The number of frames under reassembly is bounded, the oldest one is dropped to make room for a new one.
+ * Frames not completed within the timeout are dropped as well.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/24/15</p>
+ */
+public class FrameReassembler {
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(FrameReassembler.class);
+
+    private final int maxEntries;
+    private final long timeoutMs;
+    /** In order of the first fragment received. */
+    private final Map<Key, Entry> entries = new LinkedHashMap<>();
+    private long droppedCount;
+
+    public FrameReassembler(int maxEntries, long timeoutMs) {
+        this.maxEntries = maxEntries;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @param fragment A received 'n','f' frame.
+     * @param now Current time in ms, of a monotonic clock like {@link TimingWheel#currentTimeMillis()}.
+     * @return The original frame when this was its last missing fragment, otherwise null.
+     */
+    public synchronized Frame accept(Frame fragment, long now) {
+        expire(now);
+        int messageId = fragment.getParameter(FrameFragmenter.PARAM_NAME_MESSAGE_ID).getIntValue();
+        int index = fragment.getParameter(FrameFragmenter.PARAM_NAME_INDEX).getIntValue();
+        int count = fragment.getParameter(FrameFragmenter.PARAM_NAME_COUNT).getIntValue();
+        ByteBuffer data = fragment.getParameter(FrameFragmenter.PARAM_NAME_DATA).getBlobValue();
+        if((index >= count) || (data == null)) {
+            LOG.warn("Invalid fragment " + index + "/" + count + " from " + FormatHelper.byteArrayToString3(fragment.getSenderAddress()));
+            return null;
+        }
+
+        Key key = new Key(fragment.getSenderAddress(), messageId);
+        Entry entry = entries.get(key);
+        if((entry != null) && (entry.slices.length != count)) {
+            // -- Message id reused by the sender.
+            entries.remove(key);
+            entry = null;
+        }
+        if(entry == null) {
+            if(entries.size() >= maxEntries) {
+                Iterator<Map.Entry<Key, Entry>> oldest = entries.entrySet().iterator();
+                LOG.warn("Reassembly table is full, dropping incomplete frame from " + oldest.next().getKey());
+                oldest.remove();
+                droppedCount += 1;
+            }
+            entry = new Entry(count, now);
+            entries.put(key, entry);
+        }
+        if(entry.slices[index] == null) {
+            byte[] slice = new byte[data.remaining()];
+            data.get(slice);
+            entry.slices[index] = slice;
+            entry.receivedCount += 1;
+            entry.length += slice.length;
+        }
+        if(entry.receivedCount < count) {
+            return null;
+        }
+
+        entries.remove(key);
+        byte[] bytes = new byte[entry.length];
+        int position = 0;
+        for (byte[] slice : entry.slices) {
+            System.arraycopy(slice, 0, bytes, position, slice.length);
+            position += slice.length;
+        }
+        // -- The original frame has its own length and check sum.
+        Frame frame = NetFefDataHelper.buildFrameObject(bytes, bytes.length, null);
+        if(frame == null) {
+            droppedCount += 1;
+        }
+        return frame;
+    }
+
+    /**
+     * Drop the frames not completed in time.
+     */
+    public synchronized void expire(long now) {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<Key, Entry> e = iterator.next();
+            if(e.getValue().startTime + timeoutMs >= now) {
+                // -- The rest is younger.
+                break;
+            }
+            LOG.debug("Reassembly of frame from " + e.getKey() + " timed out.");
+            iterator.remove();
+            droppedCount += 1;
+        }
+    }
+
+    /**
+     * @return Time {@link #expire(long)} drops the oldest incomplete frame, Long.MAX_VALUE if there is none.
+     */
+    public synchronized long getNextExpiry() {
+        return entries.isEmpty() ? Long.MAX_VALUE : entries.values().iterator().next().startTime + timeoutMs + 1;
+    }
+
+    public synchronized int getPendingCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of frames dropped by timeout, by lack of space or as invalid after reassembly.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private static class Key {
+        final byte[] senderAddress;
+        final int messageId;
+
+        Key(byte[] senderAddress, int messageId) {
+            this.senderAddress = senderAddress;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key)o;
+            return (messageId == key.messageId) && Arrays.equals(senderAddress, key.senderAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(senderAddress) + messageId;
+        }
+
+        @Override
+        public String toString() {
+            return FormatHelper.byteArrayToString3(senderAddress) + "#" + messageId;
+        }
+    }
+
+    private static class Entry {
+        final byte[][] slices;
+        final long startTime;
+        int receivedCount;
+        int length;
+
+        Entry(int count, long startTime) {
+            this.slices = new byte[count][];
+            this.startTime = startTime;
+        }
+    }
+}
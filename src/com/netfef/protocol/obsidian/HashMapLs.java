@@ -27,17 +27,6 @@ public class HashMapLs<T, U> implements Map<T, U> {
         return values.size() <= 0 ? null : values.get(0);
     }
 
-    public synchronized U getNextAfter(U value) {
-        if((value == null) || (!values.contains(value))) {
-            return getFirst();
-        }
-        int i = values.indexOf(value) + 1;
-        if(i >= values.size()) {
-            i = 0;
-        }
-        return values.get(i);
-    }
-
     @Override
     public synchronized int size() {
         return internalMap.size();
@@ -11,7 +11,10 @@
 
 package com.netfef.protocol.obsidian;
 
+import com.netfef.data.EncodedFrame;
 import com.netfef.data.Frame;
+import com.netfef.data.FrameEncoder;
+import com.netfef.data.FrameView;
 import com.netfef.data.NetFefDataHelper;
 import com.netfef.data.Parameter;
 import com.netfef.data.ParameterType;
@@ -21,9 +24,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * <p>Obsidian is a protocol implementation based on NetFef core components.</p>
@@ -35,24 +47,44 @@ public class NetFefObsidian implements NetFefNetwork {
     private static final Logger LOG = LoggerFactory.getLogger(NetFefObsidian.class);
     private static final char NETWORK_MANAGEMENT_MESSAGE_SUBJECT = 'n';
     public static final char PARAM_NAME_REPLY = 'r';
+    private static final char PARAM_NAME_REPLY_REFERENCE = 'R';
+    private static final int NO_REPLY_REFERENCE = -1;
 
     private NetFefPhysicalLayer physicalLayer;
     private byte[] myAddress;
     private PeerPersister peerPersister;
     private NetFefReceiveListener listener;
-    private Queue<Frame> sendQueue = new ConcurrentLinkedQueue<>();
-    private Queue<OnGoingSend> onGoingSendQueue = new ConcurrentLinkedQueue<>();
-    private Map<Frame, OnGoingSend> onGoingSendLookup = new ConcurrentHashMap<>();
+    private Queue<QueuedFrame> sendQueue = new ConcurrentLinkedQueue<>();
+    /** Sent before the frames of the send queue. */
+    private Queue<QueuedFrame> prioritySendQueue = new ConcurrentLinkedQueue<>();
+    /** Requests sent and waiting for reply. Only used by the send thread. */
+    private List<InFlight> inFlight = new ArrayList<>();
     private Thread sendThread;
-    private boolean running = true;
-    private Frame waitingReplyFor;
-    private long waitStartTime;
+    private volatile boolean running = true;
+    private final Object sendSignal = new Object();
+    private boolean sendSignalled;
+    private long transmitCount;
+    private final SendEngineStatistics sendStatistics = new SendEngineStatistics();
     private NetFefObsidianConfig config;
-    private Thread joinOfferThread;
-    private Thread pollThread;
+    /** Deadlines of the reply timeouts, peer inactivity and join offers, run by the send thread. */
+    private final TimingWheel timingWheel = new TimingWheel(512, 10, TimingWheel.currentTimeMillis());
+    /** Next polls of the active peers, taken by the send thread. */
+    private final PollScheduler pollScheduler = new PollScheduler();
+    private Map<Address, PeerTimers> peerTimers = new ConcurrentHashMap<>();
     private HashMapLs<Address, Peer> registrationLookup = new HashMapLs<>();
-    private Map<Integer, ReplyInfo> replyMap = new ConcurrentHashMap<>();
+    private ReplyTable<ReplyInfo> replyTable = new ReplyTable<>(new Random().nextInt(ReplyTable.SIZE));
     private long networkIdentity;
+    /** Poll frame encoded once, only the target address and the reply reference is patched for each poll. */
+    private EncodedFrame pollTemplate;
+    /** Poll frame template for peers using CRC-16. */
+    private EncodedFrame pollTemplateCrc16;
+    private FrameFragmenter fragmenter;
+    private FrameReassembler reassembler;
+    private FrameBatcher batcher;
+    private Map<SessionKey, BulkTransferSession> bulkSessions = new ConcurrentHashMap<>();
+    private AtomicInteger nextBulkSessionId = new AtomicInteger(new Random().nextInt(1 << 16));
+    private BulkSource bulkSource;
+    private BulkTransferListener bulkReceiveListener;
 
     public void init(NetFefPhysicalLayer physicalLayer, long networkIdentity, byte[] myAddress, PeerPersister peerPersister) {
         this.physicalLayer = physicalLayer;
@@ -60,6 +92,9 @@ public class NetFefObsidian implements NetFefNetwork {
         this.peerPersister = peerPersister;
         this.networkIdentity = networkIdentity;
         config = (NetFefObsidianConfig)physicalLayer.getConfig(this.getClass());
+        fragmenter = new FrameFragmenter(NETWORK_MANAGEMENT_MESSAGE_SUBJECT);
+        reassembler = new FrameReassembler(config.getReassemblyMaxFrames(), config.getReassemblyTimeoutMs());
+        batcher = new FrameBatcher(NETWORK_MANAGEMENT_MESSAGE_SUBJECT, myAddress);
         try {
             physicalLayer.init();
         }
@@ -74,6 +109,11 @@ public class NetFefObsidian implements NetFefNetwork {
                 }
             }
 
+            @Override
+            public void frameReceived(FrameView frameView) {
+                processReceivedFrame(frameView);
+            }
+
             @Override
             public void handleError(IOException e) {
                 LOG.error("Network error occurred.", e);
@@ -85,153 +125,522 @@ public class NetFefObsidian implements NetFefNetwork {
 
         this.sendData(new Frame(NetFefDataHelper.BROADCAST_ADDRESS, NETWORK_MANAGEMENT_MESSAGE_SUBJECT, 'r'));
 
+        Frame pollFrame = new Frame(NetFefDataHelper.BROADCAST_ADDRESS, NETWORK_MANAGEMENT_MESSAGE_SUBJECT, 'p');
+        pollFrame.addParameter(new Parameter(PARAM_NAME_REPLY, ParameterType.INTEGER, 0));
+        pollTemplate = EncodedFrame.encode(pollFrame, myAddress);
+        FrameEncoder crc16Encoder = new FrameEncoder();
+        crc16Encoder.setCrc16(true);
+        pollTemplateCrc16 = EncodedFrame.encode(pollFrame, myAddress, crc16Encoder);
+
         sendThread = new Thread(this::sending);
         sendThread.start();
 
-        joinOfferThread = new Thread(this::joinOffer);
-        joinOfferThread.start();
-
-        pollThread = new Thread(this::poll);
-        pollThread.start();
-
+        Frame joinOffer = new Frame(NetFefDataHelper.BROADCAST_ADDRESS, NETWORK_MANAGEMENT_MESSAGE_SUBJECT, 'j');
+        joinOffer.addParameter(new Parameter('n', ParameterType.LONG, this.networkIdentity));
+        joinOffer.addParameter(new Parameter('w', ParameterType.INTEGER, 10)); // -- TODO: config
+        // -- The offer never changes, it is encoded only once.
+        EncodedFrame encodedJoinOffer = EncodedFrame.encode(joinOffer, myAddress);
+        TimingWheel.Timeout[] joinOfferTimeout = new TimingWheel.Timeout[1];
+        joinOfferTimeout[0] = new TimingWheel.Timeout(() -> {
+            this.sendEncoded(encodedJoinOffer, joinOffer, null, null);
+            timingWheel.schedule(joinOfferTimeout[0], TimingWheel.currentTimeMillis() + config.getJoinOfferRepeatSecs() * 1000);
+        });
+        timingWheel.schedule(joinOfferTimeout[0], TimingWheel.currentTimeMillis());
+        wakeUpSending();
     }
 
-    private void poll() {
-        Peer currentPeer = null;
-        while(this.running) {
-            currentPeer = registrationLookup.getNextAfter(currentPeer);
-            if(currentPeer == null) {
-                sleep(500);
-            } else if(currentPeer.isActive()) {
-                Date now = new Date();
-                if((currentPeer.lastSeen.getTime() + 2*config.getNextPollMaxSecs()*1000) < now.getTime()) {
-                    currentPeer.setActive(false);
-                    LOG.info("Peer " + currentPeer + " is marked as inactive.");
-                    peerPersister.persist(currentPeer);
+    /**
+     * Send a poll to the peer, when taken from the poll scheduler.
+     * @param dueTime Time the poll was due, the poll lag is recorded when the poll is transmitted.
+     */
+    private void pollPeer(Peer peer, long dueTime) {
+        if(!peer.isActive()) {
+            return;
+        }
+        // -- Retried, unless the reply tells the next poll time.
+        schedulePoll(peer, config.getPollRetryDelaySecs());
+        ReplyInfo replyInfo = registerRequest(null, new ReplyListener() {
+            @Override
+            public void onReply(Frame originalFrame, Frame repliedFrame) {
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Peer " + peer + " is still active.");
                 }
-
-                if(currentPeer.isActive() && currentPeer.nextPollTime.before(now)) {
-                    currentPeer.setNextPollTimeAfterSecs(config.getPollRetryDelaySecs());
-                    Frame frame = new Frame(currentPeer.getAddress(),'n', 'p');
-                    final Peer finalCurrentRegistration = currentPeer;
-                    this.sendData(frame, new ReplyListener() {
-                        @Override
-                        public void onReply(Frame originalFrame, Frame repliedFrame) {
-                            if(LOG.isDebugEnabled()) {
-                                LOG.debug("Peer " + finalCurrentRegistration + " is still active.");
-                            }
-                            updatePeer(repliedFrame, finalCurrentRegistration);
-                            if (repliedFrame.getSubject().getChar() != 'n') {
-                                // -- Not a network frame, forward it to listener.
-                                listener.dataReceived(repliedFrame);
-                            }
-                        }
-
-                        @Override
-                        public void onError(Frame originalFrame) {
-                            LOG.info("Peer " + finalCurrentRegistration + " does not replied Poll.");
-                            super.onError(originalFrame);
-                        }
-                    });
+                updatePeer(repliedFrame, peer);
+                if (repliedFrame.getSubject().getChar() != 'n') {
+                    // -- Not a network frame, forward it to listener.
+                    listener.dataReceived(repliedFrame);
                 }
             }
-            sleep(50);
-        }
+
+            @Override
+            public void onError(Frame originalFrame) {
+                LOG.info("Peer " + peer + " does not replied Poll.");
+                super.onError(originalFrame);
+            }
+        }, null);
+        replyInfo.pollDueTime = dueTime;
+        EncodedFrame template = useCrc16(peer) ? pollTemplateCrc16 : pollTemplate;
+        EncodedFrame pollFrame = template.withTargetAddressAndIntValue(peer.getAddress(), PARAM_NAME_REPLY, replyInfo.replyReference);
+        this.sendEncoded(pollFrame, null, replyInfo, null);
+    }
+
+    /**
+     * Mark the peer inactive, run by the inactivity timer of the peer when nothing is heard from it for long.
+     */
+    private void markInactive(Peer peer) {
+        peer.setActive(false);
+        pollScheduler.cancel(peer);
+        LOG.info("Peer " + peer + " is marked as inactive.");
+        peerPersister.persist(peer);
     }
 
     private void updatePeer(Frame repliedFrame, Peer peer) {
-        peer.lastSeen = new Date();
-        Integer nextPollInterval = repliedFrame.hasParameter('n') ? repliedFrame.getParameter('n').getIntValue() : config.getNextPollMinSecs();
+        peer.setLastSeenMillis(TimingWheel.currentTimeMillis());
+        scheduleInactivity(peer);
+        int nextPollInterval = repliedFrame.hasParameter('n') ? repliedFrame.getParameter('n').getIntValue() : config.getNextPollMinSecs();
         if(nextPollInterval < config.getNextPollMinSecs()) {
             nextPollInterval = config.getNextPollMinSecs();
         }
         else if(nextPollInterval > config.getNextPollMaxSecs()) {
             nextPollInterval = config.getNextPollMaxSecs();
         }
-        peer.setNextPollTimeAfterSecs(nextPollInterval);
+        schedulePoll(peer, nextPollInterval);
+        // -- The send thread might sleep longer than the new deadline.
+        wakeUpSending();
     }
 
-    private void joinOffer() {
-        while(this.running) {
-            Frame joinOffer = new Frame(NetFefDataHelper.BROADCAST_ADDRESS, NETWORK_MANAGEMENT_MESSAGE_SUBJECT, 'j');
-            joinOffer.addParameter(new Parameter('n', ParameterType.LONG, this.networkIdentity));
-            joinOffer.addParameter(new Parameter('w', ParameterType.INTEGER, 10)); // -- TODO: config
-            this.sendData(joinOffer);
+    private void schedulePoll(Peer peer, int secs) {
+        long dueTime = TimingWheel.currentTimeMillis() + secs * 1000L;
+        peer.setNextPollTimeMillis(dueTime);
+        pollScheduler.schedule(peer, dueTime);
+    }
 
-            sleep(config.getJoinOfferRepeatSecs() * 1000);
-        }
+    private void scheduleInactivity(Peer peer) {
+        timingWheel.schedule(getPeerTimers(peer).inactivity, TimingWheel.currentTimeMillis() + 2 * config.getNextPollMaxSecs() * 1000L);
+    }
 
+    /**
+     * @return The timers of the peer, created on the first use.
+     */
+    private PeerTimers getPeerTimers(Peer peer) {
+        Address address = new Address(peer.getAddress());
+        PeerTimers timers = peerTimers.computeIfAbsent(address, a -> new PeerTimers(peer));
+        if(timers.peer != peer) {
+            // -- Another peer joined with the address.
+            pollScheduler.cancel(timers.peer);
+            timingWheel.cancel(timers.inactivity);
+            timers = new PeerTimers(peer);
+            peerTimers.put(address, timers);
+        }
+        return timers;
     }
 
+    /**
+     * Sends the queued frames one by one, waiting for the reply of each frame requesting it. The thread only wakes
+     * up when a frame is queued, a reply arrives or a deadline (a timeout of the timing wheel, envelope linger, bulk
+     * transfer) passes. The timeouts of the timing wheel are run on this thread.
+     */
     private void sending() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        boolean cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
         while(this.running) {
-            long now = new Date().getTime();
-
-            // -- Test for finished waiting.
-            if((waitingReplyFor != null) && (waitStartTime + config.getReplyMaxDelayMs() < now)) {
-                OnGoingSend onGoingSend = onGoingSendLookup.get(waitingReplyFor);
-                if(onGoingSend == null) {
-                    // -- Did not replied within the MaxDelay time, we need to retry the send.
-                    onGoingSend = new OnGoingSend(waitingReplyFor);
-                    onGoingSendQueue.add(onGoingSend);
-                    onGoingSendLookup.put(waitingReplyFor, onGoingSend);
+            long roundStart = cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime();
+            long transmittedBefore = transmitCount;
+            long now = TimingWheel.currentTimeMillis();
+
+            // -- Requests never answered.
+            for (ReplyInfo expired : replyTable.expire(now)) {
+                LOG.info("Request expired without reply: " + expired.getOriginalFrame());
+                expired.replyListener.onError(expired.getOriginalFrame());
+            }
+
+            // -- Requests replied, cancelled or expired meanwhile.
+            Iterator<InFlight> inFlightIterator = inFlight.iterator();
+            while(inFlightIterator.hasNext()) {
+                InFlight request = inFlightIterator.next();
+                if(replyTable.get(request.replyInfo.replyReference) != request.replyInfo) {
+                    timingWheel.cancel(request.timeout);
+                    inFlightIterator.remove();
                 }
-                if(onGoingSend.retryCount >= config.getReplyRepeatCount()) {
-                    // -- We already retried the send, we will not try it any more.
-                    if(LOG.isTraceEnabled()) {
-                        LOG.trace("Failed to send frame, as no reply received: " + onGoingSend.frame);
-                    }
-                    onGoingSendQueue.remove(onGoingSend);
-                    onGoingSendLookup.remove(waitingReplyFor);
-                    Parameter replyReferenceParameter = waitingReplyFor.getParameter(PARAM_NAME_REPLY);
-                    Integer replyReference = replyReferenceParameter.getIntValue();
-                    ReplyInfo replyInfo = replyMap.get(replyReference);
-                    replyMap.remove(replyReference);
-                    if(replyInfo != null) {
-                        replyInfo.replyListener.onError(waitingReplyFor);
-                    }
+            }
+
+            // -- Reply timeouts, peer inactivity, join offers.
+            timingWheel.advance(now);
+
+            // -- Frames whose missing fragments never arrive.
+            reassembler.expire(now);
+
+            boolean pollsHeldBack = pollDuePeers(now);
+
+            Set<Address> blockedPeers = new HashSet<>();
+            sendQueued(prioritySendQueue, blockedPeers, now);
+            sendQueued(sendQueue, blockedPeers, now);
+
+            if(batcher.isDue(now, config.getEnvelopeLingerMs())) {
+                flushBatch();
+            }
+
+            serviceBulkSessions(now);
+
+            long roundTime = (cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime()) - roundStart;
+            sendStatistics.recordRound(transmitCount == transmittedBefore, roundTime);
+            awaitWork(getNextDeadline(now, pollsHeldBack));
+        }
+
+    }
+
+    /**
+     * Send the frames of the queue, except the ones to peers having too many requests in flight.
+     * @param blockedPeers Peers with frames left waiting. Later frames to them wait as well, to keep their order.
+     */
+    private void sendQueued(Queue<QueuedFrame> queue, Set<Address> blockedPeers, long now) {
+        Iterator<QueuedFrame> iterator = queue.iterator();
+        while(iterator.hasNext()) {
+            QueuedFrame queued = iterator.next();
+            EncodedFrame frameToSend = queued.frame;
+            Address peerAddress = new Address(frameToSend.getTargetAddress());
+            if(blockedPeers.contains(peerAddress)) {
+                continue;
+            }
+            ReplyInfo replyInfo = queued.replyInfo;
+            if(replyInfo != null) {
+                if(replyTable.get(replyInfo.replyReference) != replyInfo) {
+                    // -- Cancelled or expired before sent.
+                    iterator.remove();
+                    continue;
+                }
+                if(!canSendRequest(peerAddress)) {
+                    blockedPeers.add(peerAddress);
+                    continue;
+                }
+            }
+            iterator.remove();
+            sendStatistics.recordQueueLatency(System.nanoTime() - queued.queuedNanos);
+            if(LOG.isTraceEnabled()) {
+                LOG.trace("Sending message: " + frameToSend);
+            }
+            if(replyInfo != null) {
+                // -- Registered before sending, as the reply may arrive any time after.
+                InFlight request = new InFlight(replyInfo, frameToSend, peerAddress, this::replyTimedOut);
+                inFlight.add(request);
+                timingWheel.schedule(request.timeout, Math.min(now + config.getReplyMaxDelayMs(), replyInfo.deadline));
+            }
+            if(canBatch(frameToSend)) {
+                batch(frameToSend, now);
+            } else {
+                // -- Keep the order of the frames.
+                flushBatch();
+                transmit(frameToSend);
+                if((replyInfo != null) && (replyInfo.pollDueTime >= 0)) {
+                    pollScheduler.recordPoll(replyInfo.pollDueTime, TimingWheel.currentTimeMillis());
                 }
-                waitingReplyFor = null;
             }
+        }
+    }
 
-            if(!sendQueue.isEmpty()) {
-                if(waitingReplyFor == null) {
-                    // -- Send the message
-                    Frame frameToSend = sendQueue.poll();
-                    if(LOG.isTraceEnabled()) {
-                        LOG.trace("Sending message: " + frameToSend);
-                    }
-                    physicalLayer.sendData(frameToSend, myAddress);
-                    if(frameToSend.hasParameter(PARAM_NAME_REPLY)) {
-                        this.waitingReplyFor = frameToSend;
-                        this.waitStartTime = now;
+    /**
+     * Poll the peers due, back to back, as long as there is room for more requests in flight.
+     * @return True if peers due are left for later, when a request in flight is finished.
+     */
+    private boolean pollDuePeers(long now) {
+        int room = config.getMaxInFlight() - inFlight.size();
+        while(room > 0) {
+            PollScheduler.Entry due = pollScheduler.takeDue(now);
+            if(due == null) {
+                return false;
+            }
+            pollPeer(due.getPeer(), due.getDueTime());
+            room -= 1;
+        }
+        return pollScheduler.getNextDueTime() <= now;
+    }
+
+    /**
+     * Retry the request or give it up, run by the reply timeout of the request.
+     */
+    private void replyTimedOut(InFlight request) {
+        ReplyInfo replyInfo = request.replyInfo;
+        long now = TimingWheel.currentTimeMillis();
+        if(replyTable.get(replyInfo.replyReference) != replyInfo) {
+            // -- Replied, cancelled or expired meanwhile.
+            inFlight.remove(request);
+        } else if((request.retryCount >= replyInfo.retryCount) || (now >= replyInfo.deadline)) {
+            // -- We already retried the send, we will not try it any more.
+            if(LOG.isTraceEnabled()) {
+                LOG.trace("Failed to send frame, as no reply received: " + request.frame);
+            }
+            inFlight.remove(request);
+            if(replyTable.remove(replyInfo.replyReference, replyInfo)) {
+                replyInfo.replyListener.onError(replyInfo.getOriginalFrame());
+            }
+        } else {
+            // -- Did not replied within the MaxDelay time, we need to retry the send.
+            request.retryCount += 1;
+            timingWheel.schedule(request.timeout, Math.min(now + config.getReplyMaxDelayMs(), replyInfo.deadline));
+            if(LOG.isTraceEnabled()) {
+                LOG.trace("Resending message: " + request.frame);
+            }
+            flushBatch();
+            transmit(request.frame);
+        }
+    }
+
+    /**
+     * @return Time the sending loop has something to do, without being woken up. 0 if right away.
+     */
+    private long getNextDeadline(long now, boolean pollsHeldBack) {
+        // -- Frames and polls left waiting for a reply, which wakes the loop up.
+        long deadline = timingWheel.getNextDeadline();
+        if(!pollsHeldBack) {
+            deadline = Math.min(deadline, pollScheduler.getNextDueTime());
+        }
+        deadline = Math.min(deadline, replyTable.getNextExpiry());
+        deadline = Math.min(deadline, reassembler.getNextExpiry());
+        deadline = Math.min(deadline, batcher.getDueTime(config.getEnvelopeLingerMs()));
+        for (BulkTransferSession session : bulkSessions.values()) {
+            deadline = Math.min(deadline, session.isFinished() && !session.notified ? 0 : session.getNextDeadline());
+        }
+        return deadline;
+    }
+
+    /**
+     * Block the send thread until woken up or the deadline passes.
+     */
+    private void awaitWork(long deadline) {
+        long blockStart = System.nanoTime();
+        synchronized (sendSignal) {
+            try {
+                while(!sendSignalled && this.running) {
+                    long waitMs = 0;
+                    if(deadline != Long.MAX_VALUE) {
+                        waitMs = deadline - TimingWheel.currentTimeMillis();
+                        if(waitMs <= 0) {
+                            break;
+                        }
                     }
+                    sendSignal.wait(waitMs);
                 }
-            } else if(!onGoingSendQueue.isEmpty() && (this.waitingReplyFor == null)) {
-                // -- Resend an unreplied message
-                OnGoingSend onGoingSend = onGoingSendQueue.poll();
-                Frame frameToSend = onGoingSend.frame;
-                onGoingSend.retryCount += 1;
-                if(LOG.isTraceEnabled()) {
-                    LOG.trace("Resending message: " + frameToSend);
-                }
-                physicalLayer.sendData(frameToSend, myAddress);
-                this.waitingReplyFor = frameToSend;
-                this.waitStartTime = now;
-                onGoingSendQueue.add(onGoingSend);
             }
+            catch (InterruptedException e) {
+                // -- Shutting down.
+            }
+            sendSignalled = false;
+        }
+        sendStatistics.recordBlocked(System.nanoTime() - blockStart);
+    }
 
-            sleep(10);
+    /**
+     * Wake up the send thread, as there might be something to do.
+     */
+    private void wakeUpSending() {
+        synchronized (sendSignal) {
+            sendSignalled = true;
+            sendSignal.notify();
         }
+    }
 
+    /**
+     * @return True if one more request expecting a reply can be sent to the peer now.
+     */
+    private boolean canSendRequest(Address peerAddress) {
+        if(inFlight.size() >= config.getMaxInFlight()) {
+            return false;
+        }
+        int count = 0;
+        for (InFlight request : inFlight) {
+            if(request.peerAddress.equals(peerAddress)) {
+                count += 1;
+            }
+        }
+        return count < config.getMaxInFlightPerPeer();
     }
 
-    private void sleep(long ms) {
-        try {
-            Thread.sleep(ms);
+    /**
+     * @return The poll schedule of the peers, reporting the poll lag.
+     */
+    public PollScheduler getPollScheduler() {
+        return pollScheduler;
+    }
+
+    /**
+     * @return Counters of the send thread.
+     */
+    public SendEngineStatistics getSendStatistics() {
+        return sendStatistics;
+    }
+
+    /**
+     * Hand the frame to the physical layer, as a burst of fragments if it is too long for the receiver.
+     */
+    private void transmit(EncodedFrame frame) {
+        byte[] targetAddress = frame.getTargetAddress();
+        int maxLength = getMaxFrameLength(targetAddress);
+        Peer peer = registrationLookup.get(new Address(targetAddress));
+        // -- Peers not knowing fragments ignore them on broadcast.
+        boolean canFragment = peer == null ? Arrays.equals(targetAddress, NetFefDataHelper.BROADCAST_ADDRESS) : peer.supportsFragmentation();
+        transmitCount += 1;
+        if(frame.getLength() <= maxLength) {
+            physicalLayer.sendData(frame);
+        } else if(canFragment) {
+            try {
+                physicalLayer.sendBurst(fragmenter.fragment(frame, maxLength));
+            }
+            catch (IllegalArgumentException e) {
+                LOG.error("Cannot fragment frame: " + e.getMessage());
+            }
+        } else {
+            LOG.error("Frame of " + frame.getLength() + " bytes is longer than " + maxLength + " bytes accepted by " + peer + ", dropping it.");
         }
-        catch (InterruptedException e) {
-            // -- Ignore interrupt.
+    }
+
+    /**
+     * @return True if the frame can be sent in an envelope: no reply is expected, and the target unpacks envelopes.
+     */
+    private boolean canBatch(EncodedFrame frame) {
+        if((frame == null) || (config.getMaxEnvelopeLength() <= 0) || frame.hasParameter(PARAM_NAME_REPLY)) {
+            return false;
+        }
+        Peer peer = registrationLookup.get(new Address(frame.getTargetAddress()));
+        return (peer != null) && peer.supportsEnvelope();
+    }
+
+    private void batch(EncodedFrame frame, long now) {
+        int maxLength = Math.min(config.getMaxEnvelopeLength(), getMaxFrameLength(frame.getTargetAddress()));
+        if(!batcher.add(frame, maxLength, now)) {
+            flushBatch();
+            batcher.add(frame, maxLength, now);
+        }
+    }
+
+    private void flushBatch() {
+        EncodedFrame envelope = batcher.drain();
+        if(envelope != null) {
+            transmit(envelope);
+        }
+    }
+
+    /**
+     * @return Maximal frame length accepted by the peer with the address.
+     */
+    private int getMaxFrameLength(byte[] address) {
+        int maxLength = config.getMaxFrameLength();
+        Peer peer = registrationLookup.get(new Address(address));
+        if((peer != null) && (peer.getMaxFrameLength() > 0)) {
+            maxLength = Math.min(maxLength, peer.getMaxFrameLength());
+        }
+        return maxLength;
+    }
+
+    /**
+     * Send the bursts of the bulk transfers, and notify about the finished ones.
+     */
+    private void serviceBulkSessions(long now) {
+        Iterator<BulkTransferSession> iterator = bulkSessions.values().iterator();
+        while(iterator.hasNext()) {
+            BulkTransferSession session = iterator.next();
+            List<EncodedFrame> burst = session.poll(now);
+            if(!burst.isEmpty()) {
+                physicalLayer.sendBurst(burst);
+            }
+            if(session.isFinished() && !session.notified) {
+                session.notified = true;
+                LOG.debug(session.toString());
+                session.notifyListener();
+            }
+            if(session.isDisposable(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private long getBulkIdleTimeoutMs() {
+        return config.getReplyMaxDelayMs() * (config.getReplyRepeatCount() + 1);
+    }
+
+    /**
+     * Send a large block of bytes to a peer, with a sliding window of chunks.
+     * @param data The remaining bytes of the buffer are sent. The buffer must not be changed during the transfer.
+     * @return The session, for following the progress.
+     */
+    public BulkTransferSession pushBulk(byte[] targetAddress, ByteBuffer data, BulkTransferListener listener) {
+        int sessionId = nextBulkSessionId.getAndIncrement() & 0xFFFF;
+        BulkSendSession session = new BulkSendSession(NETWORK_MANAGEMENT_MESSAGE_SUBJECT, sessionId, targetAddress, myAddress, data,
+                getMaxFrameLength(targetAddress), config.getBulkWindowSize(), config.getReplyMaxDelayMs(), config.getReplyRepeatCount(),
+                listener, TimingWheel.currentTimeMillis());
+        bulkSessions.put(new SessionKey(targetAddress, sessionId, true), session);
+        wakeUpSending();
+        return session;
+    }
+
+    /**
+     * Request a resource from a peer, that sends it with a sliding window of chunks.
+     * @return The session, for following the progress.
+     */
+    public BulkTransferSession pullBulk(byte[] targetAddress, String resource, BulkTransferListener listener) {
+        int sessionId = nextBulkSessionId.getAndIncrement() & 0xFFFF;
+        BulkReceiveSession session = new BulkReceiveSession(NETWORK_MANAGEMENT_MESSAGE_SUBJECT, sessionId, targetAddress, myAddress,
+                getBulkIdleTimeoutMs(), listener, TimingWheel.currentTimeMillis());
+        bulkSessions.put(new SessionKey(targetAddress, sessionId, false), session);
+        Frame getFrame = new Frame(targetAddress, NETWORK_MANAGEMENT_MESSAGE_SUBJECT, BulkTransferSession.COMMAND_GET);
+        getFrame.addParameter(new Parameter(BulkTransferSession.PARAM_NAME_SESSION, ParameterType.INTEGER, sessionId));
+        getFrame.addParameter(new Parameter(BulkTransferSession.PARAM_NAME_RESOURCE, ParameterType.STRING1, resource));
+        getFrame.addParameter(new Parameter(BulkTransferSession.PARAM_NAME_MAX_LENGTH, ParameterType.INTEGER, config.getMaxFrameLength()));
+        getFrame.addParameter(new Parameter(BulkTransferSession.PARAM_NAME_WINDOW, ParameterType.BYTE, config.getBulkWindowSize()));
+        this.sendData(getFrame);
+        return session;
+    }
+
+    /**
+     * @param bulkSource Serves the bulk transfer requests of the peers, null to ignore them.
+     */
+    public void setBulkSource(BulkSource bulkSource) {
+        this.bulkSource = bulkSource;
+    }
+
+    /**
+     * @param bulkReceiveListener Notified about the bulk transfers started by peers, null to ignore them.
+     */
+    public void setBulkReceiveListener(BulkTransferListener bulkReceiveListener) {
+        this.bulkReceiveListener = bulkReceiveListener;
+    }
+
+    private void processBulkFrame(Frame frame) {
+        char command = frame.getCommand().getChar();
+        byte[] peerAddress = frame.getSenderAddress();
+        int sessionId = frame.getParameter(BulkTransferSession.PARAM_NAME_SESSION).getIntValue();
+        long now = TimingWheel.currentTimeMillis();
+        if(command == BulkTransferSession.COMMAND_CHUNK) {
+            SessionKey key = new SessionKey(peerAddress, sessionId, false);
+            BulkTransferSession session = bulkSessions.get(key);
+            if((session == null) && (bulkReceiveListener != null)) {
+                session = new BulkReceiveSession(NETWORK_MANAGEMENT_MESSAGE_SUBJECT, sessionId, peerAddress, myAddress,
+                        getBulkIdleTimeoutMs(), bulkReceiveListener, now);
+                bulkSessions.put(key, session);
+            }
+            if(session instanceof BulkReceiveSession) {
+                EncodedFrame ack = ((BulkReceiveSession)session).onChunk(frame, now);
+                if(ack != null) {
+                    sendEncoded(ack, null, null, null);
+                }
+            }
+        } else if(command == BulkTransferSession.COMMAND_ACK) {
+            BulkTransferSession session = bulkSessions.get(new SessionKey(peerAddress, sessionId, true));
+            if(session instanceof BulkSendSession) {
+                ((BulkSendSession)session).onAck(frame.getParameter(BulkTransferSession.PARAM_NAME_RECEIVED).getIntValue(),
+                        frame.getParameter(BulkTransferSession.PARAM_NAME_SELECTIVE).getLongValue(), now);
+            }
+        } else if(command == BulkTransferSession.COMMAND_GET) {
+            String resource = frame.getParameter(BulkTransferSession.PARAM_NAME_RESOURCE).getStringValue();
+            ByteBuffer data = bulkSource == null ? null : bulkSource.open(peerAddress, resource);
+            if(data == null) {
+                LOG.warn("Bulk resource '" + resource + "' requested by " + FormatHelper.byteArrayToString3(peerAddress) + " is not available.");
+                return;
+            }
+            int maxLength = Math.min(getMaxFrameLength(peerAddress), frame.getParameter(BulkTransferSession.PARAM_NAME_MAX_LENGTH).getIntValue());
+            BulkSendSession session = new BulkSendSession(NETWORK_MANAGEMENT_MESSAGE_SUBJECT, sessionId, peerAddress, myAddress, data,
+                    maxLength, frame.getParameter(BulkTransferSession.PARAM_NAME_WINDOW).getIntValue(), config.getReplyMaxDelayMs(),
+                    config.getReplyRepeatCount(), null, now);
+            bulkSessions.put(new SessionKey(peerAddress, sessionId, true), session);
         }
     }
 
@@ -239,48 +648,81 @@ public class NetFefObsidian implements NetFefNetwork {
         if(LOG.isTraceEnabled()) {
             LOG.trace("Frame received: " + frame);
         }
-        if(registrationLookup.containsKey(new Address(frame.getSenderAddress()))) {
-            Peer peer = registrationLookup.get(new Address(frame.getSenderAddress()));
-            if(!peer.isActive()) {
+        int replyReference = frame.hasParameter(PARAM_NAME_REPLY_REFERENCE)
+                ? frame.getParameter(PARAM_NAME_REPLY_REFERENCE).getIntValue() : NO_REPLY_REFERENCE;
+        processReceived(frame.getSenderAddress(), frame.getSubject().getChar(), frame.getCommand().getChar(), replyReference,
+                () -> frame);
+    }
+
+    /**
+     * Frames are dispatched straight from the received bytes, only frames consumed as objects are materialized.
+     */
+    private void processReceivedFrame(FrameView frameView) {
+        if(LOG.isTraceEnabled()) {
+            LOG.trace("Frame received: " + frameView.toFrame());
+        }
+        int replyIndex = frameView.indexOf(PARAM_NAME_REPLY_REFERENCE);
+        int replyReference = replyIndex < 0 ? NO_REPLY_REFERENCE : frameView.getIntAt(replyIndex);
+        processReceived(frameView.getSenderAddress(), frameView.getSubject(), frameView.getCommand(), replyReference,
+                frameView::toFrame);
+    }
+
+    /**
+     * @param frame Materializes the received frame, only valid during this call.
+     */
+    private void processReceived(byte[] senderAddress, char subject, char command, int replyReference, Supplier<Frame> frame) {
+        Address sender = new Address(senderAddress);
+        Peer sendingPeer = registrationLookup.get(sender);
+        if(sendingPeer != null) {
+            if(!sendingPeer.isActive()) {
                 LOG.warn("Received message from inactive peer.");
             }
-            peer.setLastSeen(new Date());
+            sendingPeer.setLastSeenMillis(TimingWheel.currentTimeMillis());
+            if(sendingPeer.isActive()) {
+                scheduleInactivity(sendingPeer);
+            }
+        }
+        if((NETWORK_MANAGEMENT_MESSAGE_SUBJECT == subject) && (FrameFragmenter.FRAGMENT_COMMAND == command)) {
+            Frame reassembled = reassembler.accept(frame.get(), TimingWheel.currentTimeMillis());
+            if(reassembled != null) {
+                processReceivedFrame(reassembled);
+            }
+            return;
         }
-        if(frame.hasParameter('R')) {
+        if(replyReference != NO_REPLY_REFERENCE) {
             // -- A reply received, call the listener
-            Parameter replyReferenceParameter = frame.getParameter('R');
-            Integer replyReference = replyReferenceParameter.getIntValue();
-            ReplyInfo replyInfo = replyMap.get(replyReference);
+            ReplyInfo replyInfo = replyTable.remove(replyReference);
             if(replyInfo != null) {
                 if(LOG.isTraceEnabled()) {
-                    LOG.trace("Reply arrived for original message:" + replyInfo.originalFrame);
-                }
-                replyMap.remove(replyReference);
-                Frame originalFrame = replyInfo.originalFrame;
-                waitingReplyFor = null;
-                OnGoingSend onGoingSend = onGoingSendLookup.get(originalFrame);
-                if(onGoingSend != null) {
-                    onGoingSendLookup.remove(originalFrame);
-                    onGoingSendQueue.remove(onGoingSend);
+                    LOG.trace("Reply arrived for original message:" + replyInfo.getOriginalFrame());
                 }
-                sendQueue.remove(originalFrame);
-                replyInfo.replyListener.onReply(originalFrame, frame);
+                // -- The send thread drops the request from the ones in flight.
+                wakeUpSending();
+                replyInfo.replyListener.onReply(replyInfo.getOriginalFrame(), frame.get());
             } else {
                 LOG.warn("Replied for an unknown reference number.");
             }
         }
-        else if(NETWORK_MANAGEMENT_MESSAGE_SUBJECT == frame.getSubject().getChar()) {
-            if('j' == frame.getCommand().getChar()) {
-                processJoinRequest(frame);
+        else if(NETWORK_MANAGEMENT_MESSAGE_SUBJECT == subject) {
+            if('j' == command) {
+                processJoinRequest(frame.get());
+            } else if(FrameBatcher.ENVELOPE_COMMAND == command) {
+                for (Frame packedFrame : FrameBatcher.unpack(frame.get(), myAddress)) {
+                    processReceivedFrame(packedFrame);
+                }
+            } else if((BulkTransferSession.COMMAND_CHUNK == command) || (BulkTransferSession.COMMAND_ACK == command)
+                    || (BulkTransferSession.COMMAND_GET == command)) {
+                processBulkFrame(frame.get());
+                wakeUpSending();
             }
         } else {
-            this.listener.dataReceived(frame);
+            this.listener.dataReceived(frame.get());
         }
     }
 
     private void processJoinRequest(Frame joinRequest) {
         byte[] senderAddress = joinRequest.getSenderAddress();
-        Long registrationId = joinRequest.getParameter('i').getLongValue();
+        long registrationId = joinRequest.getParameter('i').getLongValue();
 
         Address address = new Address(senderAddress);
         Peer registeredPeer;
@@ -301,6 +743,9 @@ public class NetFefObsidian implements NetFefNetwork {
                     peer.setActive(true);
                     peer.setDescription(repliedFrame.getParameter('d').getStringValue());
                     peer.setVersion(repliedFrame.getParameter('v').getStringValue());
+                    // -- Older peers do not send features.
+                    peer.setFeatures(repliedFrame.hasParameter('f') ? repliedFrame.getParameter('f').getIntValue() : 0);
+                    peer.setMaxFrameLength(repliedFrame.hasParameter('m') ? repliedFrame.getParameter('m').getIntValue() : 0);
                     LOG.debug("Peer " + peer + " joined the network.");
                     updatePeer(repliedFrame, peer);
                     registrationLookup.put(address, peer);
@@ -338,64 +783,243 @@ public class NetFefObsidian implements NetFefNetwork {
     }
     @Override
     public void sendData(Frame frame, ReplyListener replyListener) {
+        sendData(frame, replyListener, null);
+    }
+
+    /**
+     * @param options Options of the request, or null to use the configured values.
+     * @return The registered request, or null if no reply listener provided.
+     */
+    private ReplyInfo sendData(Frame frame, ReplyListener replyListener, RequestOptions options) {
         if(frame.hasParameter(PARAM_NAME_REPLY)) {
             throw new IllegalStateException("Parameter '" + PARAM_NAME_REPLY + "' is occupied by the network protocol. Please don't use this parameter.");
         }
+        ReplyInfo replyInfo = null;
         if(replyListener != null) {
-            int replyReference = generateReplyReference();
-            frame.addParameter(new Parameter(PARAM_NAME_REPLY, ParameterType.INTEGER, replyReference));
-            replyMap.put(replyReference, new ReplyInfo(frame, replyListener));
+            replyInfo = registerRequest(frame, replyListener, options);
+            frame.addParameter(new Parameter(PARAM_NAME_REPLY, ParameterType.INTEGER, replyInfo.replyReference));
         }
-        if(LOG.isTraceEnabled()) {
-            LOG.trace("Preparing frame to send" + (replyListener == null ? "" : " with reply") + ": " + frame);
+        Peer peer = registrationLookup.get(new Address(frame.getTargetAddress()));
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.setCompression((peer != null) && peer.supportsCompression());
+        encoder.setCrc16(useCrc16(peer));
+        sendEncoded(EncodedFrame.encode(frame, myAddress, encoder), frame, replyInfo, options);
+        return replyInfo;
+    }
+
+    /**
+     * Cancelling the future drops the request, even if it is waiting in the send queue.
+     */
+    @Override
+    public CompletableFuture<Frame> request(Frame frame, RequestOptions options) {
+        if(options == null) {
+            options = RequestOptions.defaults();
         }
-        sendQueue.add(frame);
+        CompletableFuture<Frame> future = new CompletableFuture<>();
+        Executor executor = options.getExecutor();
+        ReplyInfo replyInfo = sendData(frame, new ReplyListener() {
+            @Override
+            public void onReply(Frame originalFrame, Frame repliedFrame) {
+                executor.execute(() -> future.complete(repliedFrame));
+            }
+
+            @Override
+            public void onError(Frame originalFrame) {
+                executor.execute(() -> future.completeExceptionally(new TimeoutException(
+                        "No reply from " + FormatHelper.byteArrayToString3(originalFrame.getTargetAddress()) + ".")));
+            }
+        }, options);
+        future.whenComplete((repliedFrame, throwable) -> {
+            if(future.isCancelled()) {
+                cancelRequest(replyInfo);
+            }
+        });
+        return future;
     }
 
-    private int generateReplyReference() {
-        while(true) {
-            Random random = new Random();
-            int nextInt = random.nextInt(1<<16);
-            if(!replyMap.containsKey(nextInt)) {
-                return nextInt;
+    @Override
+    public CompletableFuture<FanOutResult> requestAll(Frame frame, Collection<byte[]> targetAddresses, RequestOptions options) {
+        if(options == null) {
+            options = RequestOptions.defaults();
+        }
+        CompletableFuture<FanOutResult> future = new CompletableFuture<>();
+        Executor executor = options.getExecutor();
+        List<ReplyInfo> requests = sendFanOut(frame, targetAddresses, new FanOutListener() {
+            @Override
+            public void onComplete(FanOutResult result) {
+                executor.execute(() -> future.complete(result));
+            }
+        }, options);
+        future.whenComplete((result, throwable) -> {
+            if(future.isCancelled()) {
+                requests.forEach(this::cancelRequest);
             }
+        });
+        return future;
+    }
+
+    /**
+     * Forget the request, the listener will not be called. The frame is dropped from the queue or from the retries
+     * by the send thread.
+     */
+    private void cancelRequest(ReplyInfo replyInfo) {
+        if(replyTable.remove(replyInfo.replyReference, replyInfo)) {
+            wakeUpSending();
         }
     }
 
+    /**
+     * The frame is encoded only once, the copy for each peer is made by patching the target address and the reply
+     * reference into the encoded bytes. Frames for peers supporting compression are not compressed this way.
+     */
+    @Override
+    public void sendFanOut(Frame frame, Collection<byte[]> targetAddresses, FanOutListener listener) {
+        sendFanOut(frame, targetAddresses, listener, null);
+    }
+
+    /**
+     * @return The registered requests.
+     */
+    private List<ReplyInfo> sendFanOut(Frame frame, Collection<byte[]> targetAddresses, FanOutListener listener, RequestOptions options) {
+        if(frame.hasParameter(PARAM_NAME_REPLY)) {
+            throw new IllegalStateException("Parameter '" + PARAM_NAME_REPLY + "' is occupied by the network protocol. Please don't use this parameter.");
+        }
+        FanOutResult result = new FanOutResult(targetAddresses.size());
+        List<ReplyInfo> requests = new ArrayList<>(targetAddresses.size());
+        if(targetAddresses.isEmpty()) {
+            listener.onComplete(result);
+            return requests;
+        }
+        frame.setTargetAddress(targetAddresses.iterator().next());
+        frame.addParameter(new Parameter(PARAM_NAME_REPLY, ParameterType.INTEGER, 0));
+        // -- One template for each check mode in use.
+        EncodedFrame[] templates = new EncodedFrame[2];
+        for (byte[] targetAddress : targetAddresses) {
+            boolean crc16 = useCrc16(registrationLookup.get(new Address(targetAddress)));
+            int mode = crc16 ? 1 : 0;
+            if(templates[mode] == null) {
+                FrameEncoder encoder = new FrameEncoder();
+                encoder.setCrc16(crc16);
+                templates[mode] = EncodedFrame.encode(frame, myAddress, encoder);
+            }
+            ReplyInfo replyInfo = registerRequest(null, new ReplyListener() {
+                @Override
+                public void onReply(Frame originalFrame, Frame repliedFrame) {
+                    listener.onReply(targetAddress, repliedFrame);
+                    if(result.addReply(targetAddress, repliedFrame)) {
+                        listener.onComplete(result);
+                    }
+                }
+
+                @Override
+                public void onError(Frame originalFrame) {
+                    LOG.info("No reply from " + FormatHelper.byteArrayToString3(targetAddress) + " for fan-out frame.");
+                    if(result.addFailure(targetAddress)) {
+                        listener.onComplete(result);
+                    }
+                }
+            }, options);
+            EncodedFrame encodedFrame = templates[mode].withTargetAddressAndIntValue(targetAddress, PARAM_NAME_REPLY, replyInfo.replyReference);
+            sendEncoded(encodedFrame, null, replyInfo, options);
+            requests.add(replyInfo);
+        }
+        return requests;
+    }
+
+    /**
+     * @return True if frames to the peer should end with a CRC-16.
+     */
+    private boolean useCrc16(Peer peer) {
+        return config.isCrc16() && (peer != null) && peer.supportsCrc16();
+    }
+
+    /**
+     * Allocate a reply reference for a request, to be placed into the frame before it is encoded.
+     * @param originalFrame The frame to be sent, or null to decode it when a listener needs it.
+     * @param options Options of the request, or null to use the configured values.
+     */
+    private ReplyInfo registerRequest(Frame originalFrame, ReplyListener replyListener, RequestOptions options) {
+        int retryCount = (options == null) || (options.getRetryCount() < 0) ? (int)config.getReplyRepeatCount() : options.getRetryCount();
+        long now = TimingWheel.currentTimeMillis();
+        long deadline = (options == null) || (options.getDeadlineMs() <= 0) ? Long.MAX_VALUE : now + options.getDeadlineMs();
+        ReplyInfo replyInfo = new ReplyInfo(originalFrame, replyListener, retryCount, deadline);
+        // -- Without a deadline, a request stuck in the queue is given up after the expiry time.
+        replyInfo.replyReference = replyTable.add(replyInfo, deadline == Long.MAX_VALUE ? now + config.getReplyExpiryMs() : deadline);
+        return replyInfo;
+    }
+
+    /**
+     * Queue an encoded frame. The same encoded frame is used for the retries.
+     * @param originalFrame The frame that was encoded, or null to decode it when needed.
+     * @param replyInfo The registered request, with its reply reference already placed into the encoded frame. Null
+     *                  if no reply expected.
+     * @param options Options of the request, or null to use the configured values.
+     */
+    private void sendEncoded(EncodedFrame encodedFrame, Frame originalFrame, ReplyInfo replyInfo, RequestOptions options) {
+        if(replyInfo != null) {
+            replyInfo.encodedFrame = encodedFrame;
+        }
+        if(LOG.isTraceEnabled()) {
+            LOG.trace("Preparing frame to send" + (replyInfo == null ? "" : " with reply") + ": " + (originalFrame != null ? originalFrame : encodedFrame));
+        }
+        boolean priority = (options != null) && (options.getPriority() == RequestOptions.Priority.HIGH);
+        (priority ? prioritySendQueue : sendQueue).add(new QueuedFrame(encodedFrame, replyInfo, System.nanoTime()));
+        wakeUpSending();
+    }
+
     @Override
     public void shutdown() {
         physicalLayer.shutdown();
 
         running = false;
+        wakeUpSending();
         sendThread.interrupt();
-        joinOfferThread.interrupt();
-        pollThread.interrupt();
         try {
             sendThread.join();
         }
         catch (InterruptedException e) {
             LOG.error("Thread couldn't be stopped.", e);
         }
-        try {
-            joinOfferThread.join();
-        }
-        catch (InterruptedException e) {
-            LOG.error("Thread couldn't be stopped.", e);
-        }
-        try {
-            pollThread.join();
-        }
-        catch (InterruptedException e) {
-            LOG.error("Thread couldn't be stopped.", e);
+    }
+
+    private static class QueuedFrame {
+        final EncodedFrame frame;
+        /** The request waiting for reply, null if no reply expected. */
+        final ReplyInfo replyInfo;
+        final long queuedNanos;
+
+        QueuedFrame(EncodedFrame frame, ReplyInfo replyInfo, long queuedNanos) {
+            this.frame = frame;
+            this.replyInfo = replyInfo;
+            this.queuedNanos = queuedNanos;
         }
     }
 
-    private static class OnGoingSend {
-        Frame frame;
+    private static class InFlight {
+        final ReplyInfo replyInfo;
+        final EncodedFrame frame;
+        final Address peerAddress;
+        final TimingWheel.Timeout timeout;
         int retryCount = 0;
 
-        public OnGoingSend(Frame frame) {
+        InFlight(ReplyInfo replyInfo, EncodedFrame frame, Address peerAddress, Consumer<InFlight> onTimeout) {
+            this.replyInfo = replyInfo;
             this.frame = frame;
+            this.peerAddress = peerAddress;
+            this.timeout = new TimingWheel.Timeout(() -> onTimeout.accept(this));
+        }
+    }
+
+    /**
+     * Timers of a joined peer, created once and scheduled again on each frame heard from it.
+     */
+    private class PeerTimers {
+        final Peer peer;
+        final TimingWheel.Timeout inactivity;
+
+        PeerTimers(Peer peer) {
+            this.peer = peer;
+            this.inactivity = new TimingWheel.Timeout(() -> markInactive(peer));
         }
     }
 
@@ -435,14 +1059,59 @@ public class NetFefObsidian implements NetFefNetwork {
         }
     }
 
+    private static class SessionKey {
+        final Address address;
+        final int sessionId;
+        final boolean sending;
+
+        SessionKey(byte[] address, int sessionId, boolean sending) {
+            this.address = new Address(address);
+            this.sessionId = sessionId;
+            this.sending = sending;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            SessionKey that = (SessionKey)o;
+            return (sessionId == that.sessionId) && (sending == that.sending) && address.equals(that.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * address.hashCode() + sessionId) * 2 + (sending ? 1 : 0);
+        }
+    }
+
     private static class ReplyInfo {
+        int replyReference;
         Frame originalFrame;
+        EncodedFrame encodedFrame;
         ReplyListener replyListener;
-//        Date creationTime = new Date();
+        /** Number of retries allowed. */
+        final int retryCount;
+        /** Time the request fails, even if retries are left. */
+        final long deadline;
+        /** Time the poll was due, -1 if the request is not a poll. */
+        long pollDueTime = -1;
 
-        public ReplyInfo(Frame originalFrame, ReplyListener replyListener) {
+        public ReplyInfo(Frame originalFrame, ReplyListener replyListener, int retryCount, long deadline) {
             this.originalFrame = originalFrame;
             this.replyListener = replyListener;
+            this.retryCount = retryCount;
+            this.deadline = deadline;
+        }
+
+        Frame getOriginalFrame() {
+            if(originalFrame == null) {
+                originalFrame = encodedFrame.toFrame();
+            }
+            return originalFrame;
         }
     }
 
@@ -25,6 +25,24 @@ public abstract class NetFefObsidianConfig implements NetFefNetworkConfig {
     protected int nextPollMinSecs;
     protected int nextPollMaxSecs;
     protected int pollRetryDelaySecs;
+    /** Longer frames are fragmented, if the receiver supports it. */
+    protected int maxFrameLength = 1024;
+    protected int reassemblyMaxFrames = 16;
+    protected long reassemblyTimeoutMs = 10000;
+    /** Number of chunks a bulk transfer sends without waiting for acknowledge. */
+    protected int bulkWindowSize = 8;
+    /** Frames without reply requested are packed into envelopes up to this length, 0 to disable. */
+    protected int maxEnvelopeLength = 1024;
+    /** Time a frame may wait for others to share its envelope. */
+    protected long envelopeLingerMs = 0;
+    /** Frames to peers advertising the CRC-16 feature end with a CRC-16 instead of the additive check sum. */
+    protected boolean crc16 = true;
+    /** Requests waiting for reply at the same time, to different peers. */
+    protected int maxInFlight = 4;
+    /** Requests waiting for reply from the same peer at the same time. */
+    protected int maxInFlightPerPeer = 1;
+    /** Requests without deadline, not answered within this time are given up, even if never sent. */
+    protected long replyExpiryMs = 60000;
 
     public long getReplyMaxDelayMs() {
         return replyMaxDelayMs;
@@ -48,4 +66,44 @@ public abstract class NetFefObsidianConfig implements NetFefNetworkConfig {
     public int getPollRetryDelaySecs() {
         return pollRetryDelaySecs;
     }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public int getReassemblyMaxFrames() {
+        return reassemblyMaxFrames;
+    }
+
+    public long getReassemblyTimeoutMs() {
+        return reassemblyTimeoutMs;
+    }
+
+    public int getBulkWindowSize() {
+        return bulkWindowSize;
+    }
+
+    public int getMaxEnvelopeLength() {
+        return maxEnvelopeLength;
+    }
+
+    public long getEnvelopeLingerMs() {
+        return envelopeLingerMs;
+    }
+
+    public boolean isCrc16() {
+        return crc16;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getMaxInFlightPerPeer() {
+        return maxInFlightPerPeer;
+    }
+
+    public long getReplyExpiryMs() {
+        return replyExpiryMs;
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+
+package com.netfef.protocol.obsidian;
+
+import com.netfef.protocol.Peer;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * <p>Peers in the order of their next poll time.</p>
+ * <p>The peers due are taken one after the other, earliest first, so the poll loop can poll them back to back and
+ * sleep until the next one is due. The poll lag, the time a poll was transmitted after it was due, is measured
+ * with {@link #recordPoll(long, long)}.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 7/9/15</p>
+ */
+public class PollScheduler {
+    private final TreeSet<Entry> schedule = new TreeSet<>();
+    private final Map<Peer, Entry> entries = new IdentityHashMap<>();
+    /** Keeps the order of peers due at the same time. */
+    private long sequence;
+    private long pollCount;
+    private long totalLagMs;
+    private long maxLagMs;
+
+    /**
+     * Schedule the next poll of the peer, replacing the one already scheduled.
+     */
+    public synchronized void schedule(Peer peer, long dueTime) {
+        Entry entry = entries.get(peer);
+        if(entry == null) {
+            entry = new Entry(peer);
+            entries.put(peer, entry);
+        } else {
+            schedule.remove(entry);
+        }
+        entry.dueTime = dueTime;
+        entry.sequence = sequence++;
+        schedule.add(entry);
+    }
+
+    /**
+     * @return True if the peer had a poll scheduled.
+     */
+    public synchronized boolean cancel(Peer peer) {
+        Entry entry = entries.remove(peer);
+        return (entry != null) && schedule.remove(entry);
+    }
+
+    /**
+     * @return Due time of the earliest poll, Long.MAX_VALUE if no poll is scheduled.
+     */
+    public synchronized long getNextDueTime() {
+        return schedule.isEmpty() ? Long.MAX_VALUE : schedule.first().dueTime;
+    }
+
+    /**
+     * Take the earliest peer due, it is not scheduled any more.
+     * @return The peer with its due time, or null if no peer is due by now.
+     */
+    public synchronized Entry takeDue(long now) {
+        if(schedule.isEmpty() || (schedule.first().dueTime > now)) {
+            return null;
+        }
+        Entry entry = schedule.pollFirst();
+        entries.remove(entry.peer);
+        return entry;
+    }
+
+    /**
+     * Count a poll transmitted, for the lag statistics.
+     * @param dueTime Time the poll was due.
+     * @param sentTime Time the poll was handed to the physical layer.
+     */
+    public synchronized void recordPoll(long dueTime, long sentTime) {
+        long lag = Math.max(0, sentTime - dueTime);
+        pollCount += 1;
+        totalLagMs += lag;
+        maxLagMs = Math.max(maxLagMs, lag);
+    }
+
+    public synchronized int size() {
+        return schedule.size();
+    }
+
+    public synchronized long getPollCount() {
+        return pollCount;
+    }
+
+    public synchronized double getAverageLagMs() {
+        return pollCount == 0 ? 0 : (double)totalLagMs / pollCount;
+    }
+
+    public synchronized long getMaxLagMs() {
+        return maxLagMs;
+    }
+
+    public synchronized void resetStatistics() {
+        pollCount = 0;
+        totalLagMs = 0;
+        maxLagMs = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PollScheduler{scheduled=" + schedule.size() + ", polls=" + pollCount + ", avgLagMs=" + getAverageLagMs()
+                + ", maxLagMs=" + maxLagMs + "}";
+    }
+
+    public static class Entry implements Comparable<Entry> {
+        private final Peer peer;
+        private long dueTime;
+        private long sequence;
+
+        private Entry(Peer peer) {
+            this.peer = peer;
+        }
+
+        public Peer getPeer() {
+            return peer;
+        }
+
+        public long getDueTime() {
+            return dueTime;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if(dueTime != o.dueTime) {
+                return Long.compare(dueTime, o.dueTime);
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
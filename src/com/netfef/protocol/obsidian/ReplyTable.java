@@ -0,0 +1,177 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+
+package com.netfef.protocol.obsidian;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Requests waiting for reply, in a slot for each of the 16 bit reply references.</p>
+ * <p>References are handed out in sequence, wrapping around and skipping the ones still in use, so a reference
+ * is only reused after all the others. Each entry has an expiry time, entries never answered are reclaimed by
+ * {@link #expire(long)}.</p>
+ * <p>The references in use are also kept in a binary heap ordered by expiry time, so expiring visits only the
+ * expired entries. The heap is an index array over the slots, adding and removing entries allocates nothing.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 7/2/15</p>
+ */
+public class ReplyTable<T> {
+    public static final int SIZE = 1 << 16;
+    private static final int MASK = SIZE - 1;
+
+    private final Object[] values = new Object[SIZE];
+    private final long[] expiryTimes = new long[SIZE];
+    /** References in use, the first {@link #size} elements form a heap with the earliest expiry first. */
+    private final int[] heap = new int[SIZE];
+    /** Position of each reference in use within the heap. */
+    private final int[] heapPositions = new int[SIZE];
+    private int nextReference;
+    private int size;
+
+    /**
+     * @param firstReference Reference to start with. Should be random, so replies to a previous run are not taken
+     *                       for replies of this one.
+     */
+    public ReplyTable(int firstReference) {
+        this.nextReference = firstReference & MASK;
+    }
+
+    /**
+     * @param expiryTime Time the entry is dropped by {@link #expire(long)}, if not removed before.
+     * @return The reference allocated for the value.
+     * @throws IllegalStateException If all the references are in use.
+     */
+    public synchronized int add(T value, long expiryTime) {
+        if(size >= SIZE) {
+            throw new IllegalStateException("All the " + SIZE + " reply references are in use.");
+        }
+        while(values[nextReference] != null) {
+            nextReference = (nextReference + 1) & MASK;
+        }
+        int reference = nextReference;
+        values[reference] = value;
+        expiryTimes[reference] = expiryTime;
+        heap[size] = reference;
+        siftUp(size);
+        size += 1;
+        nextReference = (reference + 1) & MASK;
+        return reference;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized T get(int reference) {
+        return (T)values[reference & MASK];
+    }
+
+    /**
+     * @return The removed value, or null if the reference was not in use.
+     */
+    public synchronized T remove(int reference) {
+        T value = get(reference);
+        if(value != null) {
+            removeSlot(reference & MASK);
+        }
+        return value;
+    }
+
+    /**
+     * Remove the entry only if the reference still belongs to the value.
+     * @return True if removed.
+     */
+    public synchronized boolean remove(int reference, T value) {
+        if((value == null) || (values[reference & MASK] != value)) {
+            return false;
+        }
+        removeSlot(reference & MASK);
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Time to call {@link #expire(long)} next, Long.MAX_VALUE if there is nothing to expire.
+     */
+    public synchronized long getNextExpiry() {
+        return size == 0 ? Long.MAX_VALUE : expiryTimes[heap[0]];
+    }
+
+    /**
+     * Remove the entries expired by now.
+     * @return The removed values, for the caller to notify outside of the lock.
+     */
+    public synchronized List<T> expire(long now) {
+        List<T> expired = Collections.emptyList();
+        while((size > 0) && (expiryTimes[heap[0]] <= now)) {
+            if(expired.isEmpty()) {
+                expired = new ArrayList<>();
+            }
+            expired.add(remove(heap[0]));
+        }
+        return expired;
+    }
+
+    private void removeSlot(int reference) {
+        values[reference] = null;
+        int position = heapPositions[reference];
+        size -= 1;
+        if(position < size) {
+            // -- The last one of the heap takes the place, and moves either way.
+            heap[position] = heap[size];
+            siftDown(position);
+            siftUp(heapPositions[heap[size]]);
+        }
+    }
+
+    private void siftUp(int position) {
+        int reference = heap[position];
+        long expiryTime = expiryTimes[reference];
+        while(position > 0) {
+            int parent = (position - 1) >>> 1;
+            int parentReference = heap[parent];
+            if(expiryTimes[parentReference] <= expiryTime) {
+                break;
+            }
+            heap[position] = parentReference;
+            heapPositions[parentReference] = position;
+            position = parent;
+        }
+        heap[position] = reference;
+        heapPositions[reference] = position;
+    }
+
+    private void siftDown(int position) {
+        int reference = heap[position];
+        long expiryTime = expiryTimes[reference];
+        while(true) {
+            int child = 2 * position + 1;
+            if(child >= size) {
+                break;
+            }
+            if((child + 1 < size) && (expiryTimes[heap[child + 1]] < expiryTimes[heap[child]])) {
+                child += 1;
+            }
+            int childReference = heap[child];
+            if(expiryTime <= expiryTimes[childReference]) {
+                break;
+            }
+            heap[position] = childReference;
+            heapPositions[childReference] = position;
+            position = child;
+        }
+        heap[position] = reference;
+        heapPositions[reference] = position;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+package com.netfef.protocol.obsidian;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>Options of a single request sent with {@link NetFefObsidian#request}.</p>
+ * <p>Values not set fall back to the {@link NetFefObsidianConfig}. The future is completed on the executor, so the
+ * code waiting for the reply never runs on the protocol threads.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/24/15</p>
+ */
+public class RequestOptions {
+    public enum Priority {
+        NORMAL,
+        /** Sent before the frames of normal priority already queued. */
+        HIGH
+    }
+
+    private long deadlineMs = 0;
+    private int retryCount = -1;
+    private Priority priority = Priority.NORMAL;
+    private Executor executor = ForkJoinPool.commonPool();
+
+    public static RequestOptions defaults() {
+        return new RequestOptions();
+    }
+
+    /**
+     * @param deadlineMs Time allowed for the reply, counted from the call, including the time spent in the queue
+     *                   and the retries. Deadlines longer than {@link NetFefObsidianConfig#getReplyExpiryMs()} are
+     *                   honored. 0 for no limit other than the retries and the reply expiry.
+     */
+    public RequestOptions setDeadlineMs(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+        return this;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    /**
+     * @param retryCount Number of times the request is sent again without reply, -1 to use the configured value.
+     */
+    public RequestOptions setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+        return this;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public RequestOptions setPriority(Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @param executor Completes the futures. Use {@code Runnable::run} to complete them right on the protocol thread.
+     */
+    public RequestOptions setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+}
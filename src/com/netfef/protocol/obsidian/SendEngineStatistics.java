@@ -0,0 +1,115 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+package com.netfef.protocol.obsidian;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Counters of the send thread of {@link NetFefObsidian}: how often it wakes up, the CPU time it spends when
+ * there is nothing to send, and how long the frames wait in the queue before handed to the physical layer.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 6/24/15</p>
+ */
+public class SendEngineStatistics {
+    private final LongAdder wakeups = new LongAdder();
+    private final LongAdder idleWakeups = new LongAdder();
+    private final LongAdder idleCpuNanos = new LongAdder();
+    private final LongAdder busyCpuNanos = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder queuedFrames = new LongAdder();
+    private final LongAdder queueLatencyNanos = new LongAdder();
+    private final LongAccumulator maxQueueLatencyNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param idle True if the round did not send anything.
+     * @param cpuNanos CPU time of the round (wall time if the JVM does not measure thread CPU time).
+     */
+    void recordRound(boolean idle, long cpuNanos) {
+        wakeups.increment();
+        if(idle) {
+            idleWakeups.increment();
+            idleCpuNanos.add(cpuNanos);
+        } else {
+            busyCpuNanos.add(cpuNanos);
+        }
+    }
+
+    void recordBlocked(long nanos) {
+        blockedNanos.add(nanos);
+    }
+
+    void recordQueueLatency(long nanos) {
+        queuedFrames.increment();
+        queueLatencyNanos.add(nanos);
+        maxQueueLatencyNanos.accumulate(nanos);
+    }
+
+    public long getWakeups() {
+        return wakeups.sum();
+    }
+
+    /**
+     * @return Wakeups, after which nothing was sent (e.g. a reply arrived, a deadline was checked).
+     */
+    public long getIdleWakeups() {
+        return idleWakeups.sum();
+    }
+
+    /**
+     * @return CPU time spent in the rounds without sending anything.
+     */
+    public long getIdleCpuNanos() {
+        return idleCpuNanos.sum();
+    }
+
+    public long getBusyCpuNanos() {
+        return busyCpuNanos.sum();
+    }
+
+    /**
+     * @return Time the send thread was waiting for work.
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    /**
+     * @return Average time from queueing a frame to handing it to the physical layer, retries excluded.
+     */
+    public double getAverageQueueLatencyNanos() {
+        long frames = queuedFrames.sum();
+        return frames == 0 ? 0 : (double)queueLatencyNanos.sum() / frames;
+    }
+
+    public long getMaxQueueLatencyNanos() {
+        return maxQueueLatencyNanos.get();
+    }
+
+    public void reset() {
+        wakeups.reset();
+        idleWakeups.reset();
+        idleCpuNanos.reset();
+        busyCpuNanos.reset();
+        blockedNanos.reset();
+        queuedFrames.reset();
+        queueLatencyNanos.reset();
+        maxQueueLatencyNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "SendEngineStatistics{wakeups=" + getWakeups() + ", idleWakeups=" + getIdleWakeups()
+                + ", idleCpuUs=" + (getIdleCpuNanos() / 1000) + ", busyCpuUs=" + (getBusyCpuNanos() / 1000)
+                + ", avgQueueLatencyUs=" + String.format("%.1f", getAverageQueueLatencyNanos() / 1000)
+                + ", maxQueueLatencyUs=" + (getMaxQueueLatencyNanos() / 1000) + "}";
+    }
+}
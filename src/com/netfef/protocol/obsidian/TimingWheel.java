@@ -0,0 +1,193 @@
+/*
+ * This file is part of the NetFef serial network bus protocol project.
+ *
+ * Copyright (c) 2015.
+ * Author: Balazs Kelemen
+ * Contact: prampec+netfef@gmail.com
+ *
+ * This product is licensed under Creative Commons Attribution-NonCommercial-ShareAlike 4.0 International (CC BY-NC-SA 4.0) license.
+ * Please contact the author for a special agreement in case you want to use this creation for commercial purposes!
+ */
+
+
+package com.netfef.protocol.obsidian;
+
+/**
+ * <p>Hashed timing wheel holding the deadlines of the protocol: reply timeouts, peer polls, peer inactivity and
+ * join offers.</p>
+ * <p>Each {@link Timeout} is linked into the bucket of its tick, so scheduling and cancelling is O(1), and a
+ * timeout object can be scheduled again and again without allocation. Deadlines further than a revolution of the
+ * wheel stay in their bucket until their tick comes. The wheel is driven by {@link #advance(long)} from a single
+ * thread, using the monotonic clock of {@link #currentTimeMillis()}.</p>
+ * <p>User: kelemenb
+ * <br/>Date: 7/6/15</p>
+ */
+public class TimingWheel {
+
+    /**
+     * A task to be run at a deadline. Belongs to a single wheel.
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private long tick;
+        private int bucket = -1;
+        private Timeout previous;
+        private Timeout next;
+        /** Chains the timeouts to be run after leaving the lock. */
+        private Timeout nextDue;
+
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private final long tickMs;
+    private final int mask;
+    private final Timeout[] buckets;
+    /** Earliest tick of each bucket, maybe earlier if a timeout was cancelled. */
+    private final long[] bucketTicks;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param wheelSize Number of buckets, power of 2.
+     * @param tickMs Length of a tick, timeouts are run at the first tick not before their deadline.
+     * @param now Current time in ms.
+     */
+    public TimingWheel(int wheelSize, long tickMs, long now) {
+        if(Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size " + wheelSize + " is not a power of 2.");
+        }
+        this.tickMs = tickMs;
+        this.mask = wheelSize - 1;
+        this.buckets = new Timeout[wheelSize];
+        this.bucketTicks = new long[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            bucketTicks[i] = Long.MAX_VALUE;
+        }
+        this.currentTick = now / tickMs;
+    }
+
+    /**
+     * @return Monotonic time in ms, not affected by changing the system clock.
+     */
+    public static long currentTimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * Schedule the timeout, or move it to the new deadline if already scheduled.
+     */
+    public synchronized void schedule(Timeout timeout, long deadline) {
+        if(timeout.bucket >= 0) {
+            unlink(timeout);
+        }
+        // -- Rounded up, so the deadline has passed when the tick comes.
+        long tick = Math.max((deadline + tickMs - 1) / tickMs, currentTick + 1);
+        int bucket = (int)(tick & mask);
+        timeout.tick = tick;
+        timeout.bucket = bucket;
+        timeout.previous = null;
+        timeout.next = buckets[bucket];
+        if(timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[bucket] = timeout;
+        bucketTicks[bucket] = Math.min(bucketTicks[bucket], tick);
+        size += 1;
+    }
+
+    public synchronized boolean isScheduled(Timeout timeout) {
+        return timeout.bucket >= 0;
+    }
+
+    /**
+     * @return True if the timeout was scheduled.
+     */
+    public synchronized boolean cancel(Timeout timeout) {
+        if(timeout.bucket < 0) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    private void unlink(Timeout timeout) {
+        if(timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if(timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size -= 1;
+    }
+
+    /**
+     * Run the tasks of the timeouts passed by now, on the calling thread. Tasks may schedule timeouts again.
+     * @return Number of tasks run.
+     */
+    public int advance(long now) {
+        Timeout due = null;
+        synchronized (this) {
+            long targetTick = now / tickMs;
+            // -- Each bucket is visited once at most, even after a long pause.
+            long ticks = Math.min(targetTick - currentTick, buckets.length);
+            for (long i = 1; i <= ticks; i++) {
+                int bucket = (int)((currentTick + i) & mask);
+                if(bucketTicks[bucket] > targetTick) {
+                    continue;
+                }
+                long earliest = Long.MAX_VALUE;
+                Timeout timeout = buckets[bucket];
+                while(timeout != null) {
+                    Timeout next = timeout.next;
+                    if(timeout.tick <= targetTick) {
+                        unlink(timeout);
+                        timeout.nextDue = due;
+                        due = timeout;
+                    } else {
+                        // -- Due in a later revolution.
+                        earliest = Math.min(earliest, timeout.tick);
+                    }
+                    timeout = next;
+                }
+                bucketTicks[bucket] = earliest;
+            }
+            currentTick = Math.max(currentTick, targetTick);
+        }
+
+        int count = 0;
+        while(due != null) {
+            Timeout timeout = due;
+            due = timeout.nextDue;
+            timeout.nextDue = null;
+            timeout.task.run();
+            count += 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return Time of the earliest tick having a timeout, Long.MAX_VALUE if nothing is scheduled. Might be
+     *  earlier than needed after a cancel.
+     */
+    public synchronized long getNextDeadline() {
+        if(size == 0) {
+            return Long.MAX_VALUE;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (long tick : bucketTicks) {
+            earliest = Math.min(earliest, tick);
+        }
+        return earliest == Long.MAX_VALUE ? earliest : earliest * tickMs;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -11,8 +11,11 @@
 
 package com.netfef.rs485;
 
-import com.netfef.data.ByteArrayBuilder;
+import com.netfef.data.BufferPool;
+import com.netfef.data.EncodedFrame;
 import com.netfef.data.Frame;
+import com.netfef.data.FrameEncoder;
+import com.netfef.data.FrameStreamParser;
 import com.netfef.data.NetFefDataHelper;
 import com.netfef.protocol.NetFefNetwork;
 import com.netfef.protocol.NetFefNetworkConfig;
@@ -29,8 +32,11 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
@@ -45,13 +51,21 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
     public static final Pin WRITE_ENABLED_PIN = RaspiPin.GPIO_01;
     public static final int MINIMAL_FRAME_SPACING_MS = 200;
     public static final int COLLISION_PENALTY_MAX_MS = 400;
-    private static final int MAX_LEN = 1024;
+    static final int MAX_LEN = 1024;
     private static final int RECEIVE_MS = 120;
+    /** Number of frame buffers kept for reuse. The send queue itself is not limited. */
+    private static final int POOLED_OUTGOING_FRAMES = 16;
+    private static final int POOLED_BUFFERS_PER_CLASS = 2;
     private GpioPinDigitalOutput writeEnablePin;
     private Serial serial;
     private NetFefReceiveListener listener;
     private GpioController gpio;
-    private Queue<byte[]> sendQueue = new ConcurrentLinkedQueue<>();
+    private Queue<OutgoingFrame> sendQueue = new ConcurrentLinkedQueue<>();
+    private BlockingQueue<OutgoingFrame> freeOutgoingFrames = new ArrayBlockingQueue<>(POOLED_OUTGOING_FRAMES);
+    private final FrameEncoder frameEncoder = new FrameEncoder();
+    private final Object burstLock = new Object();
+    /** Arena of the send thread, used for reading back the echo. */
+    private final BufferPool sendBufferPool = new BufferPool(MAX_LEN, POOLED_BUFFERS_PER_CLASS);
     private boolean running;
     private Thread sendThread;
     private Random random = new Random();
@@ -81,11 +95,18 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
 
         sendThread = new Thread(() -> {
             while(NetFefRs485.this.running) {
-                byte[] bytes = sendQueue.peek();
+                OutgoingFrame outgoingFrame = sendQueue.peek();
                 boolean hasCollision = false;
-                if(bytes != null) {
-                    if(NetFefRs485.this.sendDataCheckCollision(bytes)) {
+                if(outgoingFrame != null) {
+                    if(NetFefRs485.this.sendDataCheckCollision(outgoingFrame.bytes, outgoingFrame.length)) {
                         sendQueue.remove();
+                        boolean continued = outgoingFrame.continued;
+                        outgoingFrame.continued = false;
+                        freeOutgoingFrames.offer(outgoingFrame);
+                        if(continued) {
+                            // -- Rest of the burst follows without spacing, so we keep the bus.
+                            continue;
+                        }
                     } else {
                         hasCollision = true;
                     }
@@ -106,7 +127,12 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
         sendThread.start();
 
         receiveThread = new Thread(() -> {
-            ByteArrayBuilder bab = new ByteArrayBuilder();
+            FrameStreamParser parser = new FrameStreamParser(MAX_LEN, NetFefDataHelper.MASTER_ADDRESS, frameView -> {
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("Frame bytes received: " + frameView.getLength());
+                }
+                listener.frameReceived(frameView);
+            });
             Long lastSerialRead = null;
             while (NetFefRs485.this.running) {
                 if(readEnabled) {
@@ -115,28 +141,22 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
                             readInProgress = true;
                             byte[] bytes = serial.read();
                             lastSerialRead = new Date().getTime();
-                            bab.append(bytes);
+                            if (LOG.isTraceEnabled()) {
+                                LOG.trace("Bytes received: " + FormatHelper.byteArrayToString(bytes));
+                            }
+                            // -- Frames are emitted as soon as their last byte arrives.
+                            parser.push(bytes);
+                            readInProgress = parser.hasPartialFrame();
                         }
                         else {
                             if ((lastSerialRead != null) && ((lastSerialRead + RECEIVE_MS) < new Date().getTime())) {
-
-                                byte[] bytes = bab.getBytes();
-                                bab.clear();
+                                // -- Line is silent, bytes not forming a frame until now are noise, but frames might follow them.
+                                if(parser.hasPartialFrame()) {
+                                    LOG.debug("Resynchronizing incomplete frame after " + RECEIVE_MS + "ms of silence.");
+                                    parser.resynchronize();
+                                }
                                 readInProgress = false;
                                 lastSerialRead = null;
-
-                                if (bytes.length < 12) {
-//System.out.println("An invalid frame with size of " + bytes.length + " received.");
-                                    // -- A valid frame is at least 12 byte long.
-                                    return;
-                                }
-                                if (LOG.isTraceEnabled()) {
-                                    LOG.trace("Bytes received: " + FormatHelper.byteArrayToString(bytes));
-                                }
-//System.out.println("Bytes received: " + FormatHelper.byteArrayToString2(bytes));
-                                Frame frame = NetFefDataHelper.buildFrameObject(bytes, MAX_LEN, NetFefDataHelper.MASTER_ADDRESS);
-                                listener.dataReceived(frame);
-
                             }
                         }
                     }
@@ -144,6 +164,10 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
                         LOG.error("Error reading from serial", e);
                         sleep(2000);
                     }
+                    catch (RuntimeException e) {
+                        // -- Keep receiving, the next frames might be fine.
+                        LOG.error("Error processing received bytes", e);
+                    }
                 } else {
                     sleep(50);
                 }
@@ -178,42 +202,110 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
 
     @Override
     public void sendData(Frame frame, byte[] myAddress) {
-        byte[] bytesToSend = NetFefDataHelper.buildFrameBytes(frame, myAddress);
-        sendQueue.add(bytesToSend);
+        OutgoingFrame outgoingFrame = freeOutgoingFrames.poll();
+        if(outgoingFrame == null) {
+            outgoingFrame = new OutgoingFrame();
+        }
+        try {
+            synchronized (frameEncoder) {
+                outgoingFrame.length = frameEncoder.encode(frame, myAddress, outgoingFrame.bytes, 0, MAX_LEN);
+            }
+        }
+        catch (IndexOutOfBoundsException e) {
+            LOG.error("Frame is longer than " + MAX_LEN + " bytes, dropping it: " + frame);
+            freeOutgoingFrames.offer(outgoingFrame);
+            return;
+        }
+        queue(outgoingFrame);
+    }
+
+    @Override
+    public void sendData(EncodedFrame encodedFrame) {
+        if(encodedFrame.getLength() > MAX_LEN) {
+            LOG.error("Frame is longer than " + MAX_LEN + " bytes, dropping it: " + encodedFrame);
+            return;
+        }
+        OutgoingFrame outgoingFrame = freeOutgoingFrames.poll();
+        if(outgoingFrame == null) {
+            outgoingFrame = new OutgoingFrame();
+        }
+        encodedFrame.copyTo(outgoingFrame.bytes, 0);
+        outgoingFrame.length = encodedFrame.getLength();
+        queue(outgoingFrame);
+    }
+
+    /**
+     * Queue a single frame, not between the frames of a burst.
+     */
+    private void queue(OutgoingFrame outgoingFrame) {
+        synchronized (burstLock) {
+            sendQueue.add(outgoingFrame);
+        }
+    }
+
+    /**
+     * Frames of the burst are queued together, and sent without the frame spacing between them.
+     */
+    @Override
+    public void sendBurst(List<EncodedFrame> encodedFrames) {
+        for (EncodedFrame encodedFrame : encodedFrames) {
+            if(encodedFrame.getLength() > MAX_LEN) {
+                LOG.error("Frame is longer than " + MAX_LEN + " bytes, dropping the burst: " + encodedFrame);
+                return;
+            }
+        }
+        synchronized (burstLock) {
+            for (int i = 0; i < encodedFrames.size(); i++) {
+                EncodedFrame encodedFrame = encodedFrames.get(i);
+                OutgoingFrame outgoingFrame = freeOutgoingFrames.poll();
+                if(outgoingFrame == null) {
+                    outgoingFrame = new OutgoingFrame();
+                }
+                encodedFrame.copyTo(outgoingFrame.bytes, 0);
+                outgoingFrame.length = encodedFrame.getLength();
+                outgoingFrame.continued = i < encodedFrames.size() - 1;
+                sendQueue.add(outgoingFrame);
+            }
+        }
     }
 
-    private boolean sendDataCheckCollision(byte[] bytesToSend) {
+    private boolean sendDataCheckCollision(byte[] bytesToSend, int length) {
         if(!disableRead()) {
             return false;
         }
         writeEnablePin.high();
         try {
             if(LOG.isTraceEnabled()) {
-                String s = FormatHelper.byteArrayToString(bytesToSend);
+                String s = FormatHelper.byteArrayToString(Arrays.copyOf(bytesToSend, length));
                 LOG.trace("Sending: " + s);
             }
-            serial.write(bytesToSend);
+            serial.write(bytesToSend, 0, length);
             if(!waitForEcho()) {
                 return false;
             }
-            byte[] read = readWithWait(bytesToSend.length);
-//            if(LOG.isTraceEnabled()) {
-//                String s = FormatHelper.byteArrayToString(read);
-//                LOG.trace("Echo found " + s);
-//            }
-            if(!Arrays.equals(bytesToSend, read)) {
-                if(LOG.isDebugEnabled()) {
-                    String s = FormatHelper.byteArrayToString(read);
-                    LOG.debug("Collision detected. Found echo: " + s);
-                }
-                serial.flush();
-//                serial.read(); // -- Flush serial read buffer
-                return false;
-            } else {
-                if(LOG.isTraceEnabled()) {
-//                    String s = FormatHelper.byteArrayToString(bytesToSend);
-                    LOG.trace("Sent");
+            byte[] read = sendBufferPool.acquire(length);
+            try {
+                int readLength = readWithWait(read, length);
+//                if(LOG.isTraceEnabled()) {
+//                    String s = FormatHelper.byteArrayToString(read);
+//                    LOG.trace("Echo found " + s);
+//                }
+                if(!isEcho(bytesToSend, length, read, readLength)) {
+                    if(LOG.isDebugEnabled()) {
+                        String s = FormatHelper.byteArrayToString(Arrays.copyOf(read, readLength));
+                        LOG.debug("Collision detected. Found echo: " + s);
+                    }
+                    serial.flush();
+//                    serial.read(); // -- Flush serial read buffer
+                    return false;
+                } else {
+                    if(LOG.isTraceEnabled()) {
+//                        String s = FormatHelper.byteArrayToString(bytesToSend);
+                        LOG.trace("Sent");
+                    }
                 }
+            } finally {
+                sendBufferPool.release(read);
             }
         }
         catch (IOException e) {
@@ -226,13 +318,29 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
         return true;
     }
 
-    private byte[] readWithWait(int length) throws IOException {
-        ByteArrayBuilder bab = new ByteArrayBuilder();
+    private static boolean isEcho(byte[] bytesSent, int length, byte[] read, int readLength) {
+        if(readLength != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if(bytesSent[i] != read[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param target Buffer for the bytes read.
+     * @return Number of bytes read.
+     */
+    private int readWithWait(byte[] target, int length) throws IOException {
+        int count = 0;
         Date start = new Date();
         outermost: while(true) {
             while(serial.available() > 0) {
-                bab.append(serial.read(1));
-                if(bab.getSize() == length) {
+                target[count++] = serial.read(1)[0];
+                if(count == length) {
                     break outermost;
                 }
             }
@@ -240,7 +348,7 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
                 break; // -- This is all the bytes we have received
             }
         }
-        return bab.getBytes();
+        return count;
     }
 
     private boolean waitForEcho() throws IOException {
@@ -274,6 +382,11 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
         catch (InterruptedException e) {
             LOG.error("Thread couldn't be stopped.", e);
         }
+        if(sendBufferPool.reportLeaks() > 0) {
+            LOG.warn("Send buffers not released: " + sendBufferPool);
+        } else if(LOG.isDebugEnabled()) {
+            LOG.debug("Send buffers: " + sendBufferPool);
+        }
         receiveThread.interrupt();
         try {
             receiveThread.join();
@@ -299,4 +412,14 @@ public class NetFefRs485 implements NetFefPhysicalLayer {
             throw new UnsupportedOperationException("Network class " + networkClass.getName() + " configuration is not implemented within " + this.getClass().getName() + " .");
         }
     }
+
+    /**
+     * Encoded frame waiting in the send queue. Instances are recycled after the frame was sent.
+     */
+    private static class OutgoingFrame {
+        final byte[] bytes = new byte[MAX_LEN];
+        int length;
+        /** Next frame in the queue is the rest of the same burst. */
+        boolean continued;
+    }
 }
@@ -25,6 +25,7 @@ public class NetFefRs485ObsidianConfig extends NetFefObsidianConfig {
         joinOfferRepeatSecs = 2*60;
         nextPollMaxSecs = 5*60;
         pollRetryDelaySecs = 30;
+        maxFrameLength = NetFefRs485.MAX_LEN;
 
     }
 }